@@ -1,23 +1,87 @@
 import javax.swing.*;
 import java.awt.*;
 import java.awt.event.*;
+import java.awt.image.BufferStrategy;
+import java.awt.image.BufferedImage;
+import java.awt.image.DataBufferInt;
+import javax.imageio.ImageIO;
+import javax.management.JMException;
+import javax.management.ObjectName;
+import javax.management.StandardMBean;
+import javax.crypto.Mac;
+import javax.crypto.SecretKeyFactory;
+import javax.crypto.spec.PBEKeySpec;
+import javax.crypto.spec.SecretKeySpec;
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
 import java.io.BufferedReader;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
 import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
 import java.io.FileReader;
-import java.io.FileWriter;
 import java.io.IOException;
-import java.io.PrintWriter;
+import java.io.PrintStream;
+import java.io.UncheckedIOException;
+import java.lang.management.GarbageCollectorMXBean;
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.SocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.DatagramChannel;
+import java.nio.channels.FileChannel;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.security.GeneralSecurityException;
+import java.security.MessageDigest;
+import java.security.SecureRandom;
+import java.util.ArrayDeque;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.HashMap;
 import java.util.List;
+import java.util.Locale;
+import java.util.Objects;
 import java.util.Random;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinWorkerThread;
+import java.util.concurrent.RecursiveAction;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+import java.util.stream.Collectors;
 
 public class MiniF1 extends JFrame {
     private final CardLayout cardLayout = new CardLayout();
     private final JPanel root = new JPanel(cardLayout);
+    // the PNGs start decoding in the background straight away, while the login screen is up
+    private final Assets.Preload assets = Assets.preload();
+    // all the file writing happens on its own thread
+    private final Persistence persistence = new Persistence();
+    // read from scores.dat in the background too, only the game uses it
+    private final CompletableFuture<Leaderboard> leaderboard = CompletableFuture.supplyAsync(Leaderboard::load);
     private final LoginPanel loginPanel = new LoginPanel();
     private final SetupPanel setupPanel = new SetupPanel();
     private final GamePanel gamePanel = new GamePanel();
+    private String username = ""; // who logged in, goes with their scores
 
     private static enum GamePhase { REACTION_WAIT, REACTION_GO, PLAYING, FINISHED }
 
@@ -28,6 +92,14 @@ public class MiniF1 extends JFrame {
         root.add(gamePanel, "GAME");
         setContentPane(root);
         setDefaultCloseOperation(JFrame.EXIT_ON_CLOSE);
+        // make sure queued scores and users are on disk before we go
+        addWindowListener(new WindowAdapter() {
+            @Override
+            public void windowClosing(WindowEvent e) {
+                persistence.close();
+            }
+        });
+        Runtime.getRuntime().addShutdownHook(new Thread(persistence::close, "persistence-shutdown"));
         setResizable(false);
         pack();
         setLocationRelativeTo(null);
@@ -41,12 +113,19 @@ public class MiniF1 extends JFrame {
         private JButton loginButton;
         private JButton registerButton;
         private JLabel status;
-
-        // set a hashmap named accounts to add and store all users
-        private HashMap<String, String> accounts = new HashMap<>();
+        private final JProgressBar loadingBar = new JProgressBar();
+
+        // checking a password takes a few hundred ms on purpose, so it happens on this
+        // thread and the buttons are turned off until it answers
+        private final ExecutorService auth = Executors.newSingleThreadExecutor(r -> {
+            Thread t = new Thread(r, "auth");
+            t.setDaemon(true);
+            return t;
+        });
+        private final SessionCache sessions = new SessionCache();
 
         public LoginPanel() {
-            loadUsersFromFile();
+            auth.execute(this::openUsers); // moves an old users.txt over while the screen is up
             setPreferredSize(new Dimension(900, 600));
             setLayout(new GridBagLayout());
             setBackground(Color.BLACK);
@@ -106,85 +185,145 @@ public class MiniF1 extends JFrame {
             status.setFont(new Font("Arial", Font.PLAIN, 16));
             add(status, gbc);
 
+            // shows the cars loading in the background, goes away when they are ready
+            gbc.gridy = 5;
+            loadingBar.setMaximum(assets.total);
+            loadingBar.setStringPainted(true);
+            loadingBar.setString("Loading cars...");
+            add(loadingBar, gbc);
+            Timer progress = new Timer(50, null);
+            progress.addActionListener(e -> {
+                loadingBar.setValue(assets.done());
+                if (assets.ready.isDone()) {
+                    progress.stop();
+                    loadingBar.setVisible(false);
+                }
+            });
+            progress.start();
+
             // add action listeners for login and register
             loginButton.addActionListener(e -> loginUser());
             registerButton.addActionListener(e -> registerUser());
         }
 
+        @Override
+        protected void paintComponent(Graphics g) {
+            super.paintComponent(g);
+            StartupStats.firstFrame();
+        }
+
+        private void openUsers() {
+            try {
+                persistence.users();
+            } catch (IOException e) {
+                System.out.println("error opening users.dat: " + e.getMessage());
+            }
+        }
+
         private void loginUser() {
             String username = usernameField.getText().trim();
-            String password = new String(passwordField.getPassword()).trim();
+            char[] password = new String(passwordField.getPassword()).trim().toCharArray();
 
-            if (username.isEmpty() || password.isEmpty()) { // if a field is empty
+            if (username.isEmpty() || password.length == 0) { // if a field is empty
                 status.setText("Fields cannot be empty");
                 return;
             }
-            if (!accounts.containsKey(username)) { // If the user is not in accounts
-                status.setText("User not found");
+            if (sessions.check(username, password)) { // logged in a moment ago, no need to hash again
+                loggedIn(username);
                 return;
             }
-            if (accounts.get(username).equals(password)) { // if user is in accounts
-                status.setText("Login successful!"); // successful and play game
-                cardLayout.show(root, "SETUP");
-            } else {
-                status.setText("Incorrect password"); // not valid
+            busy("Checking...");
+            CompletableFuture.supplyAsync(() -> checkPassword(username, password), auth)
+                    .whenComplete((result, error) -> SwingUtilities.invokeLater(() -> {
+                        idle();
+                        if (error != null) status.setText("Couldn't read users");
+                        else if (result == null) loggedIn(username); // successful and play game
+                        else status.setText(result);
+                    }));
+        }
+
+        // on the auth thread, null when the password is right
+        private String checkPassword(String username, char[] password) {
+            try {
+                UserStore.Credentials c = persistence.users().find(username);
+                if (c == null) return "User not found"; // If the user is not in accounts
+                if (!Passwords.matches(password, c)) return "Incorrect password"; // not valid
+                sessions.remember(username, password);
+                return null;
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
             }
         }
 
+        private void loggedIn(String username) {
+            status.setText("Login successful!");
+            MiniF1.this.username = username;
+            cardLayout.show(root, "SETUP");
+        }
+
         private void registerUser() {
             String username = usernameField.getText().trim(); // get just user string
-            String password = new String(passwordField.getPassword()).trim(); // get just password string
+            char[] password = new String(passwordField.getPassword()).trim().toCharArray(); // get just password string
 
-            if (username.isEmpty() || password.isEmpty()) { // if a field is empty
+            if (username.isEmpty() || password.length == 0) { // if a field is empty
                 status.setText("Fields cannot be empty");
                 return;
             }
-            if (accounts.containsKey(username)) { // if user is already in accounts
-                status.setText("User already exists");
+            if (username.getBytes(StandardCharsets.UTF_8).length > UserStore.MAX_NAME_BYTES) {
+                status.setText("Username is too long");
                 return;
             }
+            busy("Registering...");
+            CompletableFuture.supplyAsync(() -> addUser(username, password), auth)
+                    .whenComplete((result, error) -> SwingUtilities.invokeLater(() -> {
+                        idle();
+                        if (error != null) {
+                            status.setText("Couldn't save user");
+                        } else if (result == null) {
+                            status.setText("Register successful!"); // say successful and submit
+                            usernameField.setText("");
+                            passwordField.setText("");
+                        } else {
+                            status.setText(result);
+                        }
+                    }));
+        }
 
-            try (PrintWriter writer = new PrintWriter(new FileWriter("users.txt", true))) {
-                writer.println(username + "," + password); // write user to users.txt
+        // on the auth thread: hash, then hand the account to the persistence thread to write
+        private String addUser(String username, char[] password) {
+            try {
+                if (persistence.users().find(username) != null) return "User already exists";
+                byte[] salt = Passwords.newSalt();
+                byte[] hash = Passwords.hash(password, salt, Passwords.ITERATIONS);
+                boolean added = persistence.saveUser(new UserStore.Credentials(username, salt, hash, Passwords.ITERATIONS)).join();
+                if (!added) return "User already exists";
+                sessions.remember(username, password);
+                return null;
             } catch (IOException e) {
-                System.out.println("error file write users.txt");
+                throw new UncheckedIOException(e);
             }
-
-            accounts.put(username, password); // put the user into accounts, name and password
-            status.setText("Register successful!"); // say successful and submit
-            usernameField.setText("");
-            passwordField.setText("");
         }
 
-        private void loadUsersFromFile() { // this is needed to load users from users.txt into accounts when restarting
-            File file = new File("users.txt");
-            if (!file.exists()) return;
+        private void busy(String message) {
+            status.setText(message);
+            loginButton.setEnabled(false);
+            registerButton.setEnabled(false);
+        }
 
-            try (BufferedReader reader = new BufferedReader(new FileReader(file))) {
-                String line;
-                while ((line = reader.readLine()) != null) {
-                    if (line.contains(",")) {
-                        String[] parts = line.split(",");
-                        accounts.put(parts[0], parts[1]); // load user into accounts
-                    }
-                }
-            } catch (IOException e) {
-                System.out.println("error users.txt");
-            }
+        private void idle() {
+            loginButton.setEnabled(true);
+            registerButton.setEnabled(true);
         }
     }
 
     // ── SETUP PANEL ────────────────────────────────────────────────────────────
     private class SetupPanel extends JPanel {
-        private final JComboBox<String> teamBox = new JComboBox<>(new String[]{
-                "Ferrari", "Mercedes", "Red Bull", "McLaren", "Aston Martin", // list of all the teams
-                "Alpine", "Williams", "VRB", "Audi", "Haas", "Cadillac"
-        });
+        private final JComboBox<Definitions.Season> seasonBox = new JComboBox<>(Definitions.get().seasons());
+        private final JComboBox<Definitions.Team> teamBox = new JComboBox<>(); // the season's teams
         private final JTextField numberField = new JTextField("16", 10);
-        private final JComboBox<String> countryBox = new JComboBox<>(new String[]{// add list of countries to race in
-                "Italy", "Japan", "Brazil", "Qatar", "Las Vegas", "Miami","Monaco",
-                "COTA", "Belguim"
-        });
+        private final JComboBox<Definitions.Track> countryBox = new JComboBox<>(); // and where it races
+        private final JComboBox<Integer> playersBox = new JComboBox<>(new Integer[]{1, 2, 3, 4}); // local split screen
+        private final JTextField serverField = new JTextField("", 10); // host[:port] of a race server, blank to race here
 
 
         SetupPanel() {
@@ -196,6 +335,11 @@ public class MiniF1 extends JFrame {
             title.setForeground(Color.WHITE);
             title.setFont(new Font("Arial", Font.BOLD, 24));
 
+            JLabel seasonLabel = new JLabel("Season:");
+            seasonLabel.setForeground(Color.LIGHT_GRAY);
+            seasonBox.addActionListener(e -> showSeason());
+            showSeason();
+
             JLabel teamLabel = new JLabel("Team:");
             teamLabel.setForeground(Color.LIGHT_GRAY);
 
@@ -205,21 +349,40 @@ public class MiniF1 extends JFrame {
             JLabel countryLabel = new JLabel("Country:"); // country label
             countryLabel.setForeground(Color.LIGHT_GRAY);
 
+            JLabel playersLabel = new JLabel("Players:");
+            playersLabel.setForeground(Color.LIGHT_GRAY);
+
+            JLabel serverLabel = new JLabel("Server:");
+            serverLabel.setForeground(Color.LIGHT_GRAY);
+
 
             JButton startBtn = new JButton("Start Race");
             startBtn.addActionListener(e -> {
-                String team = (String) teamBox.getSelectedItem();
-                int num = parseDriverNumber(numberField.getText());
-                String country = (String) countryBox.getSelectedItem(); // get selected country
-
-                gamePanel.startNewGame(team, num, country);
-                cardLayout.show(root, "GAME");
-                gamePanel.requestFocusInWindow();
+                if (assets.ready.isDone()) {
+                    startRace();
+                    return;
+                }
+                // cars are still loading, start as soon as they are done
+                startBtn.setEnabled(false);
+                startBtn.setText("Loading cars...");
+                assets.ready.thenRun(() -> SwingUtilities.invokeLater(() -> {
+                    startBtn.setEnabled(true);
+                    startBtn.setText("Start Race");
+                    startRace();
+                }));
             });
 
             JButton backBtn = new JButton("Back to Login");
             backBtn.addActionListener(e -> cardLayout.show(root, "LOGIN"));
 
+            // measures the keyboard and screen delay that comes off reaction times
+            JButton calibrateBtn = new JButton("Calibrate");
+            calibrateBtn.addActionListener(e -> {
+                gamePanel.calibrate();
+                cardLayout.show(root, "GAME");
+                gamePanel.requestFocusInWindow();
+            });
+
             GridBagConstraints gc = new GridBagConstraints();
             gc.insets = new Insets(10, 10, 10, 10);
 
@@ -233,49 +396,113 @@ public class MiniF1 extends JFrame {
             gc.gridx = 0;
             gc.gridy = 1;
             gc.anchor = GridBagConstraints.EAST;
-            add(teamLabel, gc);
+            add(seasonLabel, gc);
 
             gc.gridx = 1;
             gc.gridy = 1;
             gc.anchor = GridBagConstraints.WEST;
-            add(teamBox, gc);
+            add(seasonBox, gc);
 
             gc.gridx = 0;
             gc.gridy = 2;
             gc.anchor = GridBagConstraints.EAST;
-            add(numberLabel, gc);
+            add(teamLabel, gc);
 
             gc.gridx = 1;
             gc.gridy = 2;
             gc.anchor = GridBagConstraints.WEST;
+            add(teamBox, gc);
+
+            gc.gridx = 0;
+            gc.gridy = 3;
+            gc.anchor = GridBagConstraints.EAST;
+            add(numberLabel, gc);
+
+            gc.gridx = 1;
+            gc.gridy = 3;
+            gc.anchor = GridBagConstraints.WEST;
             add(numberField, gc);
 
             gc.gridx = 0; // new country add to screen
-            gc.gridy = 3;
+            gc.gridy = 4;
             gc.anchor = GridBagConstraints.EAST;
             add(countryLabel, gc);
 
             gc.gridx = 1;
-            gc.gridy = 3;
+            gc.gridy = 4;
             gc.anchor = GridBagConstraints.WEST;
             add(countryBox, gc);
 
+            gc.gridx = 0;
+            gc.gridy = 5;
+            gc.anchor = GridBagConstraints.EAST;
+            add(playersLabel, gc);
+
+            gc.gridx = 1;
+            gc.gridy = 5;
+            gc.anchor = GridBagConstraints.WEST;
+            add(playersBox, gc);
+
+            gc.gridx = 0;
+            gc.gridy = 6;
+            gc.anchor = GridBagConstraints.EAST;
+            add(serverLabel, gc);
+
+            gc.gridx = 1;
+            gc.gridy = 6;
+            gc.anchor = GridBagConstraints.WEST;
+            add(serverField, gc);
 
             JPanel btnPanel = new JPanel(new FlowLayout(FlowLayout.CENTER, 12, 0));
             btnPanel.setOpaque(false);
             btnPanel.add(backBtn);
+            btnPanel.add(calibrateBtn);
             btnPanel.add(startBtn);
 
             gc.gridx = 0;
-            gc.gridy = 4;
+            gc.gridy = 7;
             gc.gridwidth = 2;
             gc.anchor = GridBagConstraints.CENTER;
             add(btnPanel, gc);
 
-            JLabel note = new JLabel("Pick a team, number, and where to race");
+            JLabel note = new JLabel("Pick a season, team, number, and where to race");
             note.setForeground(new Color(170, 170, 180));
-            gc.gridy = 5;
+            gc.gridy = 8;
             add(note, gc);
+
+            JLabel keys = new JLabel("More players: P1 WASD, P2 arrows, P3 IJKL, P4 numpad");
+            keys.setForeground(new Color(170, 170, 180));
+            gc.gridy = 9;
+            add(keys, gc);
+        }
+
+        // the team and track lists only have what is in the season, keeping the picks if they are
+        private void showSeason() {
+            Definitions.Season season = (Definitions.Season) seasonBox.getSelectedItem();
+            Object team = teamBox.getSelectedItem();
+            Object track = countryBox.getSelectedItem();
+            teamBox.setModel(new DefaultComboBoxModel<>(season.teams()));
+            countryBox.setModel(new DefaultComboBoxModel<>(season.tracks()));
+            if (team != null) teamBox.setSelectedItem(team); // does nothing if it isnt there
+            if (track != null) countryBox.setSelectedItem(track);
+        }
+
+        private void startRace() {
+            Definitions.Season season = (Definitions.Season) seasonBox.getSelectedItem();
+            Definitions.Team team = (Definitions.Team) teamBox.getSelectedItem();
+            int num = parseDriverNumber(numberField.getText());
+            Definitions.Track country = (Definitions.Track) countryBox.getSelectedItem(); // get selected country
+
+            int players = (Integer) playersBox.getSelectedItem();
+            String server = serverField.getText().trim();
+
+            if (server.isEmpty()) {
+                gamePanel.startNewGame(assets.ready.join(), season, team, num, country, players);
+            } else {
+                gamePanel.joinServer(assets.ready.join(), team, num, country, server);
+            }
+            cardLayout.show(root, "GAME");
+            gamePanel.requestFocusInWindow();
         }
 
         private int parseDriverNumber(String s) {
@@ -290,513 +517,5933 @@ public class MiniF1 extends JFrame {
         }
     }
 
-    private static class Obstacle {
-        Rectangle rect;
-        int speedY;
-        Image img;   // add image so it can be a png
+    // ── OBSTACLES ──────────────────────────────────────────────────────────────
+    // every car and power up on the road, stored as parallel arrays instead of one object
+    // each. removing swaps the last one into the gap, so spawning and despawning never
+    // allocate (the arrays only grow if we go past the capacity)
+    private static final class ObstacleField {
+        static final byte CAR = 0;
+        static final byte POWER_UP = 1;
+
+        int count = 0;
+        int[] x, y, w, h;
+        int[] vy;     // speed down the screen per tick
+        int[] prevY;  // y before the last tick, for interpolation
+        int[] sprite; // car image id, or which PowerUp it is
+        byte[] kind;
+        int[] vx;     // sideways move last tick, rivals steer
+        int[] uid;    // stays the same while the obstacle lives, unlike its index
+        private int nextUid = 0;
+
+        ObstacleField(int capacity) {
+            x = new int[capacity];
+            y = new int[capacity];
+            w = new int[capacity];
+            h = new int[capacity];
+            vy = new int[capacity];
+            prevY = new int[capacity];
+            sprite = new int[capacity];
+            kind = new byte[capacity];
+            vx = new int[capacity];
+            uid = new int[capacity];
+        }
 
-        Obstacle(Rectangle r, int vy, Image img) {
-            this.rect = r;
-            this.speedY = vy;
-            this.img = img;
+        int add(int ox, int oy, int ow, int oh, int speedY, int spriteId, byte k) {
+            if (count == x.length) grow();
+            int i = count++;
+            x[i] = ox;
+            y[i] = oy;
+            w[i] = ow;
+            h[i] = oh;
+            vy[i] = speedY;
+            prevY[i] = oy;
+            sprite[i] = spriteId;
+            kind[i] = k;
+            vx[i] = 0;
+            uid[i] = nextUid++;
+            return i;
         }
-    }
 
-    // power up extends obstace class
-    private static class PowerUp extends Obstacle {
-        PowerUp(Rectangle r, int vy, Image img) {
-            super(r, vy, img);
+        // moves the last obstacle into slot i, so only safe to call while looping backwards
+        void remove(int i) {
+            int last = --count;
+            if (i != last) {
+                x[i] = x[last];
+                y[i] = y[last];
+                w[i] = w[last];
+                h[i] = h[last];
+                vy[i] = vy[last];
+                prevY[i] = prevY[last];
+                sprite[i] = sprite[last];
+                kind[i] = kind[last];
+                vx[i] = vx[last];
+                uid[i] = uid[last];
+            }
+        }
+
+        void clear() {
+            count = 0;
+            nextUid = 0;
+        }
+
+        // same as Rectangle.intersects, without needing a Rectangle
+        boolean intersects(int i, int rx, int ry, int rw, int rh) {
+            return x[i] < rx + rw && rx < x[i] + w[i] && y[i] < ry + rh && ry < y[i] + h[i];
+        }
+
+        private void grow() {
+            int cap = x.length * 2;
+            x = Arrays.copyOf(x, cap);
+            y = Arrays.copyOf(y, cap);
+            w = Arrays.copyOf(w, cap);
+            h = Arrays.copyOf(h, cap);
+            vy = Arrays.copyOf(vy, cap);
+            prevY = Arrays.copyOf(prevY, cap);
+            sprite = Arrays.copyOf(sprite, cap);
+            kind = Arrays.copyOf(kind, cap);
+            vx = Arrays.copyOf(vx, cap);
+            uid = Arrays.copyOf(uid, cap);
         }
     }
 
-    // ── GAME PANEL ─────────────────────────────────────────────────────────────
-    private class GamePanel extends JPanel implements ActionListener, KeyListener {
-        private static final int WIDTH = 900;
-        private static final int HEIGHT = 600;
+    // splits an area into square cells and remembers which obstacles touch which cell,
+    // so "what is near this rectangle" only looks at a few cells instead of everything.
+    // things outside the area are kept in the edge cells, so queries are still correct
+    private static final class SpatialGrid {
+        private final int minX, minY, cellSize, cols, rows;
+        private final int[] head;  // first node in each cell, -1 when empty
+        private int[] nodeNext;    // linked list of nodes per cell
+        private int[] nodeId;
+        private int nodes = 0;
+
+        private int[] seen = new int[256]; // stamp per id so a query reports each id once
+        private int stamp = 0;
+        private int[] hits = new int[64];
+
+        SpatialGrid(int minX, int minY, int maxX, int maxY, int cellSize) {
+            this.minX = minX;
+            this.minY = minY;
+            this.cellSize = cellSize;
+            this.cols = Math.max(1, (maxX - minX + cellSize - 1) / cellSize);
+            this.rows = Math.max(1, (maxY - minY + cellSize - 1) / cellSize);
+            head = new int[cols * rows];
+            nodeNext = new int[256];
+            nodeId = new int[256];
+            clear();
+        }
+
+        void clear() {
+            Arrays.fill(head, -1);
+            nodes = 0;
+        }
+
+        // puts every obstacle in the field into the grid
+        void build(ObstacleField f) {
+            clear();
+            for (int i = 0; i < f.count; i++) {
+                insert(i, f.x[i], f.y[i], f.w[i], f.h[i]);
+            }
+        }
 
+        void insert(int id, int x, int y, int w, int h) {
+            int c0 = col(x), c1 = col(x + w - 1);
+            int r0 = row(y), r1 = row(y + h - 1);
+            for (int r = r0; r <= r1; r++) {
+                for (int c = c0; c <= c1; c++) {
+                    if (nodes == nodeId.length) {
+                        nodeId = Arrays.copyOf(nodeId, nodes * 2);
+                        nodeNext = Arrays.copyOf(nodeNext, nodes * 2);
+                    }
+                    int cell = r * cols + c;
+                    nodeId[nodes] = id;
+                    nodeNext[nodes] = head[cell];
+                    head[cell] = nodes++;
+                }
+            }
+            if (id >= seen.length) seen = Arrays.copyOf(seen, Math.max(id + 1, seen.length * 2));
+        }
 
-        private static final int GRASS = 80;
-        private static final int KERB = 60;
-        private static final int ROAD_LEFT = GRASS + KERB;
-        private static final int ROAD_RIGHT = WIDTH - GRASS - KERB;
+        // finds the obstacles in f that really overlap the rectangle, the ids end up in
+        // hits() in no particular order. returns how many there are
+        int overlapping(ObstacleField f, int x, int y, int w, int h) {
+            if (++stamp == 0) { // wrapped around, old stamps could match again
+                Arrays.fill(seen, 0);
+                stamp = 1;
+            }
+            int n = 0;
+            int c0 = col(x), c1 = col(x + w - 1);
+            int r0 = row(y), r1 = row(y + h - 1);
+            for (int r = r0; r <= r1; r++) {
+                for (int c = c0; c <= c1; c++) {
+                    for (int node = head[r * cols + c]; node != -1; node = nodeNext[node]) {
+                        int id = nodeId[node];
+                        if (seen[id] == stamp) continue;
+                        seen[id] = stamp;
+                        if (!f.intersects(id, x, y, w, h)) continue;
+                        if (n == hits.length) hits = Arrays.copyOf(hits, n * 2);
+                        hits[n++] = id;
+                    }
+                }
+            }
+            return n;
+        }
 
-        private static final int CAR_WIDTH = 46;
-        private static final int CAR_HEIGHT = 90;
+        int[] hits() {
+            return hits;
+        }
 
-        private Image playerImg;  // the PNG image
-        private Image[] obstacleCarImgs; // the PNG images for obstacles
-        private Image powerUpImg; // the PNG image for power ups
+        // biggest id first, so the hits can be removed from the field one by one
+        // (swap-remove only moves ids that are bigger than the one removed)
+        void sortHitsDescending(int n) {
+            for (int i = 1; i < n; i++) {
+                int v = hits[i];
+                int j = i - 1;
+                while (j >= 0 && hits[j] < v) {
+                    hits[j + 1] = hits[j];
+                    j--;
+                }
+                hits[j + 1] = v;
+            }
+        }
 
-        private Color EdgeC; // edge colour
-        private Color BarC; // barrier colour
+        private int col(int x) {
+            int c = Math.floorDiv(x - minX, cellSize);
+            return c < 0 ? 0 : (c >= cols ? cols - 1 : c);
+        }
 
-        private boolean shield = false;
+        private int row(int y) {
+            int r = Math.floorDiv(y - minY, cellSize);
+            return r < 0 ? 0 : (r >= rows ? rows - 1 : r);
+        }
+    }
 
-        private int baseSpeed = 5;
+    // which pixels of a sprite are solid, one bit per pixel packed into longs row by row
+    // (leftmost pixel in the top bit). made once per sprite when it loads, so pixel perfect
+    // collisions are a few ANDs instead of reading pixels
+    private static final class SpriteMask {
+        private static final int ALPHA_THRESHOLD = 64; // faint edges dont count as solid
+
+        final int width, height;
+        private final int wordsPerRow;
+        private final long[] bits;
+
+        private SpriteMask(int width, int height) {
+            this.width = width;
+            this.height = height;
+            this.wordsPerRow = (width + 63) >>> 6;
+            this.bits = new long[wordsPerRow * height];
+        }
+
+        static SpriteMask of(BufferedImage img) {
+            SpriteMask m = new SpriteMask(img.getWidth(), img.getHeight());
+            int[] row = new int[m.width];
+            for (int y = 0; y < m.height; y++) {
+                img.getRGB(0, y, m.width, 1, row, 0, m.width);
+                for (int x = 0; x < m.width; x++) {
+                    if ((row[x] >>> 24) >= ALPHA_THRESHOLD) {
+                        m.bits[y * m.wordsPerRow + (x >>> 6)] |= 1L << (63 - (x & 63));
+                    }
+                }
+            }
+            return m;
+        }
 
-        private final Rectangle player = new Rectangle(0, 0, CAR_WIDTH, CAR_HEIGHT);
+        // 64 pixels of a row starting at column col, shifted up into the top bits
+        private long bitsAt(int row, int col) {
+            int word = col >>> 6;
+            int shift = col & 63;
+            int base = row * wordsPerRow;
+            long v = bits[base + word] << shift;
+            if (shift != 0 && word + 1 < wordsPerRow) {
+                v |= bits[base + word + 1] >>> (64 - shift);
+            }
+            return v;
+        }
 
-        private boolean left, right, up, down;
+        // true if any solid pixel of a (drawn at ax, ay) lands on a solid pixel of b
+        static boolean overlaps(SpriteMask a, int ax, int ay, SpriteMask b, int bx, int by) {
+            int x0 = Math.max(ax, bx), x1 = Math.min(ax + a.width, bx + b.width);
+            int y0 = Math.max(ay, by), y1 = Math.min(ay + a.height, by + b.height);
+            if (x0 >= x1 || y0 >= y1) return false; // the boxes dont even touch
+
+            for (int y = y0; y < y1; y++) {
+                int rowA = y - ay, rowB = y - by;
+                for (int x = x0; x < x1; x += 64) {
+                    long both = a.bitsAt(rowA, x - ax) & b.bitsAt(rowB, x - bx);
+                    int len = x1 - x;
+                    if (len < 64) both &= -1L << (64 - len); // only the overlapping columns
+                    if (both != 0) return true;
+                }
+            }
+            return false;
+        }
+    }
 
-        private int MOVE_SPEED = 6;
+    // ── ROAD ───────────────────────────────────────────────────────────────────
+    // the road scrolls down the screen and is made up as it goes, one SEGMENT of it at a
+    // time: straights, curves, narrow bits, chicanes and pit lanes, picked with the weights
+    // of the track being raced (definitions.txt). a segment is a straight line from its
+    // edges at the bottom to its edges at the top, so anything can ask where the road is
+    // at some y. they live in a ring of SEGMENTS, made ahead of the top of the screen and
+    // reused once they are off the bottom, so a race can go on forever in the same memory.
+    // everything comes from the seed, so the same race always has the same road
+    private static final class Road {
+        static final int SEGMENT = 120;   // px of road per segment
+        static final int SEGMENTS = 16;   // a power of two, more than cover the screen and the spawn area above it
+        static final int WIDE = 500;      // road width on a straight
+        static final int NARROW = 320;
+        static final int PIT = 80;        // width of a pit lane, on the right of the road
+        static final int START_LEFT = (Simulation.WIDTH - WIDE) / 2; // the grid is straight down the middle
+
+        static final int STRAIGHT = 0, CURVE = 1, NARROWING = 2, CHICANE = 3, PIT_LANE = 4;
+        static final int FEATURES = 5;
+
+        private static final int START_SEGMENTS = 12; // straight, for the lights and getting going
+        private static final int AHEAD = 600;         // px above the screen that has to be there, spawns come from up to -512
+        private static final int WIDTH_STEP = 60;     // how much wider or narrower per segment
+        private static final int PIT_STEP = 40;
+
+        // segment n is in slot n & (SEGMENTS - 1). x of the left edge, the right edge of the
+        // race lane and the right edge with the pit lane, at the segment's bottom (0) and top (1)
+        final int[] left0 = new int[SEGMENTS], left1 = new int[SEGMENTS];
+        final int[] main0 = new int[SEGMENTS], main1 = new int[SEGMENTS];
+        final int[] right0 = new int[SEGMENTS], right1 = new int[SEGMENTS];
+
+        private long first, next;        // the segments in the ring are first .. next - 1
+        private long distance;           // px scrolled, the bottom of the screen is this far along
+        private long prevDistance;       // before the last tick, for drawing in between
+        private int resets;              // goes up whenever the segments start again, see TrackLayer
 
-        private final List<Obstacle> obstacles = new ArrayList<>();
         private final Random random = new Random();
-        private final Timer timer = new Timer(16, this);
+        private long seed;
+        private Definitions.Track layout;
+        private int totalWeight;
+
+        // where the road generator is and what it is in the middle of
+        private int centre, width, pit;
+        private int feature, planLeft, bend, targetWidth, targetPit;
+
+        // a new road from the start line
+        void reset(long seed, Definitions.Track layout) {
+            this.seed = seed;
+            this.layout = layout;
+            random.setSeed(seed);
+            totalWeight = 0;
+            for (int w : layout.features) totalWeight += w;
+            first = next = 0;
+            distance = prevDistance = 0;
+            resets++;
+            centre = Simulation.WIDTH / 2;
+            width = WIDE;
+            pit = 0;
+            feature = STRAIGHT;
+            planLeft = START_SEGMENTS;
+            bend = 0;
+            targetWidth = WIDE;
+            targetPit = 0;
+            fill();
+        }
 
-        private int spawnTimer = 0;
-        private int score = 0;
-        private boolean gameOver = false;
+        // moves the road px down the screen
+        void scroll(int px) {
+            prevDistance = distance;
+            distance += px;
+            first = Math.max(first, Math.floorDiv(distance, SEGMENT) - 1); // one behind, for cars going off the bottom
+            fill();
+        }
 
-        private String team = "";
-        private int driverNumber = 0;
-        private String country = "";
+        // a network client's copy of the server's road
+        void follow(long seed, Definitions.Track layout, long distance, long prevDistance) {
+            if (seed != this.seed || layout != this.layout || distance < this.distance) reset(seed, layout);
+            if (distance > this.distance) scroll((int) Math.min(Integer.MAX_VALUE, distance - this.distance));
+            this.prevDistance = Math.min(prevDistance, distance);
+        }
 
-        private GamePhase phase = GamePhase.REACTION_WAIT;
+        long seed() { return seed; }
+        long distance() { return distance; }
+        long prevDistance() { return prevDistance; }
+        long first() { return first; }
+        int resets() { return resets; }
+
+        // the narrowest the road is between screen rows y0 and y1 (y0 above), for something
+        // that tall to stay on it
+        int left(int y0, int y1) {
+            int x = Math.max(edge(left0, left1, y0), edge(left0, left1, y1));
+            for (long b = boundaryBelow(y0); b > world(y1); b -= SEGMENT) x = Math.max(x, edge(left0, left1, row(b)));
+            return x;
+        }
 
-        private long goTimestamp = -1;
-        private long scheduledGoTime = -1;
-        private boolean falseStart = false;
-        private int reactionPoints = 0;
+        int right(int y0, int y1) {
+            int x = Math.min(edge(right0, right1, y0), edge(right0, right1, y1));
+            for (long b = boundaryBelow(y0); b > world(y1); b -= SEGMENT) x = Math.min(x, edge(right0, right1, row(b)));
+            return x;
+        }
 
-        GamePanel() {
-            setPreferredSize(new Dimension(WIDTH, HEIGHT));
-            setFocusable(true);
-            setBackground(Color.BLACK);
-            addKeyListener(this);
+        // how far along the road screen row y is, and back
+        private long world(int y) { return distance + Simulation.HEIGHT - y; }
+        private int row(long w) { return (int) (distance + Simulation.HEIGHT - w); }
 
-            loadObstacleCarImages();// load it
-            powerUpImg = new ImageIcon("Power_up.png").getImage(); 
+        private long boundaryBelow(int y) {
+            return Math.floorDiv(world(y), SEGMENT) * SEGMENT;
         }
 
-        // This method returns the colour based on the selected country and is used in startNewGame function
-        private Color GrassColour(String countryName) { 
-            if ("Italy".equals(countryName)){
-                   return Color.decode("#29C253"); // we have to use color.decode to accept a string
-            }
-            if ("Japan".equals(countryName)){
-                   return Color.decode("#E2A1E3");
-            }
-            if ("Brazil".equals(countryName)){
-                   return Color.decode("#009B3A");
-            }
-            if ("Qatar".equals(countryName)){
-                   return Color.decode("#BD8C28");
-            }
-            if ("Las Vegas".equals(countryName)){
-                   return Color.decode("#000000"); 
-            }
-            if ("Miami".equals(countryName)){
-                   return Color.decode("#5AC2AD");
-            }
-            if ("Monaco".equals(countryName)){
-                   return Color.decode("#4D8AB8"); 
+        // an edge at row y, beyond the ring it is where the ring ends
+        private int edge(int[] e0, int[] e1, int y) {
+            long w = world(y);
+            long n = Math.floorDiv(w, SEGMENT);
+            int t = (int) (w - n * SEGMENT);
+            if (n < first) {
+                n = first;
+                t = 0;
+            } else if (n >= next) {
+                n = next - 1;
+                t = SEGMENT;
             }
-            if ("COTA".equals(countryName)){
-                   return Color.decode("#F02E26"); 
-            }
-            if ("Belguim".equals(countryName)){
-                   return Color.decode("#FFF200"); 
-            }
-            return Color.GREEN; // default
+            int s = (int) (n & (SEGMENTS - 1));
+            return at(e0[s], e1[s], t);
         }
 
-         // This method returns the colour based on the selected country and is used in startNewGame function
-        private Color BarrierColour(String countryName) { 
-            if ("Italy".equals(countryName)){
-                   return Color.decode("#EB2117"); // we have to use color.decode to accept a string
-            }
-            if ("Japan".equals(countryName)){
-                   return Color.decode("#239e29");
-            }
-            if ("Brazil".equals(countryName)){
-                   return Color.decode("#F5FC17");
-            }
-            if ("Qatar".equals(countryName)){
-                   return Color.decode("#990909");
-            }
-            if ("Las Vegas".equals(countryName)){
-                   return Color.decode("#C7C7C7"); 
-            }
-            if ("Miami".equals(countryName)){
-                   return Color.decode("#FC4C02");
-            }
-            if ("Monaco".equals(countryName)){
-                   return Color.decode("#545252"); 
-            }
-            if ("COTA".equals(countryName)){
-                   return Color.decode("#2525CF"); 
-            }
-            if ("Belguim".equals(countryName)){
-                   return Color.decode("#F01616"); 
-            }
-            return Color.GREEN; // default
+        // t px up a segment from e0 to e1, TrackLayer draws with the same sums
+        static int at(int e0, int e1, int t) {
+            return e0 + (e1 - e0) * t / SEGMENT;
         }
 
-        // This method returns the car image based on the selected team and is used in startNewGame function
-        private Image TeamCar(String teamName) {
-            if ("Ferrari".equals(teamName)){
-                   return new ImageIcon("f1_car_Ferrari.png").getImage();
-            }
-            if ("Red Bull".equals(teamName)){
-                return new ImageIcon("f1_car_RedBull.png").getImage();
-            }
-            if ("Mercedes".equals(teamName)){
-                  return new ImageIcon("f1_car_Mercedes.png").getImage();
-            }
-            if ("McLaren".equals(teamName)){
-                return new ImageIcon("f1_car_Mclaren.png").getImage();
-            }
-            if ("Alpine".equals(teamName)){
-                   return new ImageIcon("f1_car_Alpine.png").getImage();
-            }
-            if ("Aston Martin".equals(teamName)){
-                return new ImageIcon("f1_car_AstonMartin.png").getImage();
-            }
-            if ("Audi".equals(teamName)){
-                  return new ImageIcon("f1_car_Audi.png").getImage();
-            }
-            if ("Cadillac".equals(teamName)){
-                return new ImageIcon("f1_car_Cadillac.png").getImage();
-            }
-            if ("Haas".equals(teamName)){
-                  return new ImageIcon("f1_car_Haas.png").getImage();
-            }
-            if ("Williams".equals(teamName)){
-                return new ImageIcon("f1_car_Williams.png").getImage();
+        private void fill() {
+            while (next * SEGMENT < distance + Simulation.HEIGHT + AHEAD) generate();
+        }
+
+        private void generate() {
+            if (planLeft == 0) plan();
+            planLeft--;
+            int s = (int) (next & (SEGMENTS - 1));
+            left0[s] = centre - width / 2;
+            main0[s] = centre + width / 2;
+            right0[s] = main0[s] + pit;
+
+            if (feature == CURVE) centre += bend;
+            else if (feature == CHICANE) centre += planLeft == 1 ? bend : -bend; // over and back
+            width = approach(width, targetWidth, WIDTH_STEP);
+            pit = approach(pit, targetPit, PIT_STEP);
+            centre = Math.max(Simulation.ROAD_LEFT + width / 2, Math.min(Simulation.ROAD_RIGHT - width / 2 - pit, centre));
+
+            left1[s] = centre - width / 2;
+            main1[s] = centre + width / 2;
+            right1[s] = main1[s] + pit;
+            next++;
+        }
+
+        // what the next few segments are. a narrow bit or a pit lane opens out again during
+        // whatever comes after it
+        private void plan() {
+            feature = STRAIGHT;
+            if (totalWeight > 0) {
+                int r = random.nextInt(totalWeight);
+                while (r >= layout.features[feature]) r -= layout.features[feature++];
             }
-            if ("VRB".equals(teamName)){
-                   return new ImageIcon("f1_car_VRB.png").getImage();
+            targetWidth = WIDE;
+            targetPit = 0;
+            bend = 0;
+            switch (feature) {
+                case CURVE:
+                    planLeft = 2 + random.nextInt(3);
+                    bend = towardsRoom(20 + random.nextInt(26), planLeft);
+                    break;
+                case NARROWING:
+                    planLeft = 3 + random.nextInt(3);
+                    targetWidth = NARROW;
+                    break;
+                case CHICANE:
+                    planLeft = 2;
+                    bend = towardsRoom(40 + random.nextInt(21), 1);
+                    break;
+                case PIT_LANE:
+                    planLeft = 4 + random.nextInt(3);
+                    targetPit = PIT;
+                    break;
+                default:
+                    planLeft = 2 + random.nextInt(3);
             }
+        }
+
+        // bend either way, unless that way runs out of road within segments
+        private int towardsRoom(int px, int segments) {
+            int b = random.nextBoolean() ? px : -px;
+            int to = centre + b * segments;
+            if (to - WIDE / 2 < Simulation.ROAD_LEFT || to + WIDE / 2 + PIT > Simulation.ROAD_RIGHT) b = -b;
+            return b;
+        }
 
-            // default 
-            return new ImageIcon("f1_car_Ferrari.png").getImage();
+        private static int approach(int v, int target, int step) {
+            return v < target ? Math.min(target, v + step) : Math.max(target, v - step);
         }
+    }
 
-        // this method has all the images here so that we can use it to pick a random one
-        private void loadObstacleCarImages() {
-            obstacleCarImgs = new Image[] {
-                new ImageIcon("f1_car_Ferrari.png").getImage(),
-                new ImageIcon("f1_car_Mercedes.png").getImage(),
-                new ImageIcon("f1_car_RedBull.png").getImage(),
-                new ImageIcon("f1_car_Mclaren.png").getImage(),
-                new ImageIcon("f1_car_AstonMartin.png").getImage(),
-                new ImageIcon("f1_car_Alpine.png").getImage(),
-                new ImageIcon("f1_car_Williams.png").getImage(),
-                new ImageIcon("f1_car_VRB.png").getImage(),
-                new ImageIcon("f1_car_Audi.png").getImage(),
-                new ImageIcon("f1_car_Haas.png").getImage(),
-                new ImageIcon("f1_car_Cadillac.png").getImage()
-            };
+    // ── SIMULATION ─────────────────────────────────────────────────────────────
+    // all the game rules with no Swing in sight: spawning, moving, collisions, power ups,
+    // the reaction start and the score. the game panel only feeds it keys and draws it,
+    // and it runs just as well headless (see BatchRunner)
+    private static final class Simulation {
+        static final int WIDTH = 900;
+        static final int HEIGHT = 600;
+
+        // the Road winds about in between these, with at least a kerb and some grass outside
+        static final int GRASS = 40;
+        static final int KERB = 16;
+        static final int ROAD_LEFT = GRASS + KERB;
+        static final int ROAD_RIGHT = WIDTH - GRASS - KERB;
+        static final int SCROLL = 14; // px the road moves down the screen per tick while racing
+
+        static final int CAR_WIDTH = 46;
+        static final int CAR_HEIGHT = 90;
+        static final int POWER_UP_SIZE = 40;
+
+        // input bits for step(), the arrows are held keys, SPACE means it was pressed this tick.
+        // with more than one player, player p's bits are these shifted up by p * INPUT_BITS
+        static final int LEFT = 1;
+        static final int RIGHT = 1 << 1;
+        static final int UP = 1 << 2;
+        static final int DOWN = 1 << 3;
+        static final int SPACE = 1 << 4;
+        static final int INPUT_BITS = 5;
+        static final int INPUT_MASK = (1 << INPUT_BITS) - 1;
+        // a direction held for only part of a tick moves that many eighths of the speed, 3 bits
+        // each for LEFT, RIGHT, UP, DOWN above the key bits. 0 means the whole tick, so plain key
+        // bits (the bot, old replays, the packed input of several players) move like they always did
+        static final int PART_SHIFT = INPUT_BITS;
+        static final int PART_BITS = 3;
+        private static final int PART_MASK = (1 << PART_BITS) - 1;
+        static final int MAX_PLAYERS = 4;  // at one keyboard
+        static final int MAX_DRIVERS = 16; // in a network race
+        static final int LIGHTS = 5;       // red lights at the start, one more every second
+
+        private static final int SPAWN_ATTEMPTS = 4;
+
+        private final long tickNanos;
+        private final SpriteMask[] carMasks;
+        private final SpriteMask powerUpMask;
+
+        // one per local player, they share the road and everything on it
+        static final class Driver {
+            final Rectangle car = new Rectangle(0, 0, CAR_WIDTH, CAR_HEIGHT);
+            int prevX, prevY; // where the car was last tick, for interpolation
+            SpriteMask mask;
+            boolean shield;   // the rest follow from until and charges, see applyEffects
+            int moveSpeed;
+            boolean drs, magnet;
+            final long[] until = new long[PowerUp.COUNT]; // the tick each effect runs out, 0 if off
+            final int[] charges = new int[PowerUp.COUNT];
+            int score;
+            boolean out;      // crashed, the others race on
+            boolean launched; // pressed SPACE at the start, early or not
+            boolean falseStart;
+            int reactionPoints;
+            long reactionMs;
         }
 
-        
+        final Driver[] drivers = new Driver[MAX_DRIVERS];
+        private final int[] inputs = new int[MAX_DRIVERS]; // step(int) unpacked per player
+        private final long[] roadUntil = new long[PowerUp.COUNT]; // effects on everyone
+        private final TimerWheel expiries = new TimerWheel(); // driver << 8 | type, ROAD for the road ones
+        private static final int ROAD = MAX_DRIVERS;
+        private boolean slowMo;
+        private static final int MAGNET_RANGE = 320, MAGNET_PULL = 2;
+        private int players = 1;
+        final Rectangle player; // player 1's car, the only one in a normal race
+        final ObstacleField obstacles = new ObstacleField(256);
+        // covers the road plus the area above the screen where things spawn
+        private final SpatialGrid grid = new SpatialGrid(ROAD_LEFT, -512, ROAD_RIGHT, HEIGHT + 128, 96);
+        private final Random random = new Random();
+        private final RivalAi rivals = new RivalAi();
+        private long rivalSeed;
+        private int[] rivalSprites; // the teams rivals come from, every one unless a season says
+        private Definitions.Track layout = Definitions.get().track(0); // what the road is like
+        final Road road = new Road();
 
+        private GamePhase phase = GamePhase.REACTION_WAIT;
+        private long seed;
+        private long tick = 0;
 
-        void startNewGame(String teamName, int number, String countryName) {
-            this.team = teamName;
-            this.driverNumber = number;
-            this.country = countryName; // add countryname to constructor
+        private int baseSpeed = 5;
+        private int spawnTimer = 0;
+
+        private long goTick = -1;
+        private long scheduledGoTick = -1;
+
+        // carMasks are indexed by sprite id, like Assets
+        Simulation(int tickRate, SpriteMask[] carMasks, SpriteMask powerUpMask) {
+            this.tickNanos = 1_000_000_000L / tickRate;
+            this.carMasks = carMasks;
+            this.powerUpMask = powerUpMask;
+            for (int p = 0; p < MAX_DRIVERS; p++) drivers[p] = new Driver();
+            player = drivers[0].car;
+            rivalSprites = new int[carMasks.length];
+            for (int i = 0; i < rivalSprites.length; i++) rivalSprites[i] = i;
+            road.reset(0, layout); // something to stand on before the first reset
+        }
 
-            playerImg = TeamCar(teamName);
-            this.EdgeC = GrassColour(countryName);
-            this.BarC = BarrierColour(countryName);
+        // starts a new race, the same seed and inputs always give the same race.
+        // one sprite per player, they start side by side
+        void reset(long seed, int... playerSprites) {
+            this.seed = seed;
+            random.setSeed(seed);
+            players = playerSprites.length;
+            tick = 0;
 
-            score = 0;
-            gameOver = false;
             obstacles.clear();
-            left = right = up = down = false;
-
-            int startX = (ROAD_LEFT + ROAD_RIGHT - CAR_WIDTH) / 2;
-            int startY = HEIGHT - 180;
-            player.setBounds(startX, startY, CAR_WIDTH, CAR_HEIGHT);
+            expiries.clear();
+            Arrays.fill(roadUntil, 0);
+            applyRoad();
+
+            // side by side on the straight at the start, in rows of 8 for a big network race
+            int perRow = Math.min(players, 8);
+            int gapX = Road.WIDE / perRow;
+            for (int p = 0; p < players; p++) {
+                Driver d = drivers[p];
+                d.mask = carMasks[playerSprites[p]];
+                d.score = 0;
+                clearEffects(d);
+                d.out = false;
+                d.launched = false;
+                d.falseStart = false;
+                d.reactionPoints = 0;
+                d.reactionMs = -1;
+                int startX = Math.max(Road.START_LEFT, Road.START_LEFT + gapX * (p % perRow) + (gapX - CAR_WIDTH) / 2);
+                int startY = HEIGHT - 180 - (p / perRow) * (CAR_HEIGHT + 20);
+                d.car.setBounds(startX, startY, CAR_WIDTH, CAR_HEIGHT);
+                d.prevX = startX;
+                d.prevY = startY;
+            }
 
             phase = GamePhase.REACTION_WAIT;
-            falseStart = false;
-            reactionPoints = 0;
-            goTimestamp = -1;
-
-            long now = System.currentTimeMillis();
-            scheduledGoTime = now + 1000 + random.nextInt(3000); // 1–4 seconds
+            goTick = -1;
+            // all five on after 5 seconds, then they go out 0.2-3 seconds later
+            scheduledGoTick = msToTicks(LIGHTS * 1000 + 200 + random.nextInt(2800));
+            rivalSeed = random.nextLong();
+            road.reset(random.nextLong(), layout);
 
             spawnTimer = 50; // initial delay
-            timer.start();
-            requestFocusInWindow();
-            repaint();
         }
 
-        private void beginRace() {
-            if (reactionPoints > 0) {
-                score += reactionPoints;
-            }
-            phase = GamePhase.PLAYING;
-            spawnTimer = 40;
-        }
+        GamePhase phase() { return phase; }
+        int players() { return players; }
+        int score() { return drivers[0].score; }
+        boolean shield() { return drivers[0].shield; }
+        long tick() { return tick; }
+        long seed() { return seed; }
 
+        // lets the rivals think on several threads, the result is the same either way
+        void setParallelAi(boolean parallel) { rivals.setParallel(parallel); }
 
-        @Override
-        protected void paintComponent(Graphics g) {
-            super.paintComponent(g);
-            Graphics2D g2 = (Graphics2D) g;
+        // which sprites the cars on the road are picked from, e.g. a season's teams. it is
+        // part of the rules of a race, so replays keep it
+        void setRivals(int[] sprites) {
+            rivalSprites = sprites.clone();
+        }
 
-            //grass
-            g2.setColor(EdgeC);
-            g2.fillRect(0, 0, GRASS, HEIGHT);
-            g2.fillRect(WIDTH - GRASS, 0, GRASS, HEIGHT);
+        int[] rivals() { return rivalSprites.clone(); }
 
-            // Asphalt 
-            g2.setColor(new Color(105, 105, 105));
-            g2.fillRect(GRASS, 0, WIDTH - GRASS * 2, HEIGHT);
+        // the track whose kind of road this is, also part of the rules of a race
+        void setTrack(Definitions.Track layout) {
+            this.layout = layout;
+        }
 
-            // Kerbs
-            g2.setColor(BarC);
-            g2.fillRect(GRASS, 0, KERB, HEIGHT);
-            g2.fillRect(WIDTH - GRASS - KERB, 0, KERB, HEIGHT);
+        Definitions.Track track() { return layout; }
+        long tickNanos() { return tickNanos; }
+        long reactionMs() { return drivers[0].reactionMs; } // -1 until SPACE was pressed on GO
+        boolean falseStart() { return drivers[0].falseStart; }
 
-            // Obstacles 
-            for (Obstacle o : obstacles) { // for every obstacle in obstacle list
-                if (o.img != null) { // check if it has an image and then draw it on screen
-                    g2.drawImage(o.img, o.rect.x, o.rect.y, o.rect.width, o.rect.height, null);
-                } 
-            }
+        // the highest score of the players, the spawning speeds up with it
+        private int leaderScore() {
+            int best = drivers[0].score;
+            for (int p = 1; p < players; p++) best = Math.max(best, drivers[p].score);
+            return best;
+        }
 
+        // how many red lights are on, none once they have gone out
+        int lightsOn() {
+            if (phase != GamePhase.REACTION_WAIT) return 0;
+            return (int) Math.min(LIGHTS, tick * tickNanos / 1_000_000_000L);
+        }
 
-            // Player car if player picked a team display that img
-            g2.drawImage(playerImg, player.x, player.y, player.width, player.height, null);
-            
-            // Shield visual
-            if (shield) {
-                g2.setColor(Color.BLUE);
-                g2.setStroke(new BasicStroke(3));
-                g2.drawOval(player.x - 6, player.y - 6, player.width + 6 * 2, player.height + 6 * 2);
-            }
+        // ticks since the lights went out, or -1 if they havent yet
+        long ticksSinceGo() {
+            return goTick < 0 ? -1 : tick - goTick;
+        }
 
-            // Driver number
-            g2.setColor(Color.WHITE);
-            g2.setFont(new Font("Arial", Font.BOLD, 16));
-            String num = String.valueOf(driverNumber);
-            FontMetrics fm = g2.getFontMetrics();
-            int w = fm.stringWidth(num);
-            g2.drawString(num,
-                    player.x + (player.width - w) / 2,
-                    player.y + player.height / 2 + 6);
+        private long msToTicks(long ms) {
+            return ms * 1_000_000L / tickNanos;
+        }
 
-            // HUD
-            g2.setFont(new Font("Arial", Font.BOLD, 18)); // add country to top left
-            g2.drawString("Team: " + team + "  #" + driverNumber + "  (" + country + ")", 160, 30);
-            if (phase == GamePhase.PLAYING || phase == GamePhase.FINISHED) {
-                g2.drawString("Score: " + score, 160, 60);
+        // one fixed step of the game, with every local player's bits packed into input. racing
+        // alone the parts of a tick above the key bits are kept too
+        void step(int input) {
+            if (players == 1) {
+                inputs[0] = input;
+            } else {
+                for (int p = 0; p < players; p++) inputs[p] = input >> (p * INPUT_BITS) & INPUT_MASK;
             }
+            step(inputs);
+        }
 
-            // Reaction overlay
-            if (phase == GamePhase.REACTION_WAIT || phase == GamePhase.REACTION_GO) {
-                g2.setColor(new Color(0, 0, 0, 160));
-                g2.fillRect(0, 0, WIDTH, HEIGHT);
-
-                g2.setColor(Color.WHITE);
-                g2.setFont(new Font("Arial", Font.BOLD, 48));
-                String title = "REACTION TEST";
-                int tw = g2.getFontMetrics().stringWidth(title);
-                g2.drawString(title, (WIDTH - tw) / 2, HEIGHT / 2 - 90);
-
-                g2.setFont(new Font("Arial", Font.BOLD, 42));
-                String text = (phase == GamePhase.REACTION_GO) ? "GO!!!" : "WAIT...";
-                tw = g2.getFontMetrics().stringWidth(text);
-                g2.drawString(text, (WIDTH - tw) / 2, HEIGHT / 2);
+        // the input for direction k (0..3 for LEFT, RIGHT, UP, DOWN) held for heldNanos of a tick
+        static int held(int k, long heldNanos, long tickNanos) {
+            int eighths = (int) Math.min(8, Math.max(1, (heldNanos * 8 + tickNanos / 2) / tickNanos));
+            return 1 << k | (eighths == 8 ? 0 : eighths) << (PART_SHIFT + k * PART_BITS);
+        }
 
-                g2.setFont(new Font("Arial", Font.PLAIN, 18));
-                g2.setColor(new Color(220, 220, 220));
-                String tip = "Press SPACE as soon as you see GO!   Faster = more points";
-                tw = g2.getFontMetrics().stringWidth(tip);
-                g2.drawString(tip, (WIDTH - tw) / 2, HEIGHT / 2 + 60);
+        // a network player launching, before the step that should see it. ms is the reaction
+        // time the client measured, or negative for jumping the start or never pressing
+        void launch(int p, long ms) {
+            Driver d = drivers[p];
+            if (d.launched || (phase != GamePhase.REACTION_WAIT && phase != GamePhase.REACTION_GO)) return;
+            d.launched = true;
+            if (phase == GamePhase.REACTION_GO && ms >= 0) {
+                calculateReactionBonus(d, ms);
+            } else {
+                d.falseStart = phase == GamePhase.REACTION_WAIT || ms == -2;
+                d.reactionPoints = 0;
             }
+        }
 
-            // Game over overlay
-            if (phase == GamePhase.FINISHED) {
-                g2.setColor(new Color(0, 0, 0, 160));
-                g2.fillRect(0, 0, WIDTH, HEIGHT);
+        // a network player who left, the others race on
+        void retire(int p) {
+            drivers[p].out = true;
+            if (phase == GamePhase.PLAYING && allOut()) phase = GamePhase.FINISHED;
+        }
 
-                g2.setColor(Color.WHITE);
-                g2.setFont(new Font("Arial", Font.BOLD, 54));
-                String over = "GAME OVER";
-                int ow = g2.getFontMetrics().stringWidth(over);
-                g2.drawString(over, (WIDTH - ow) / 2, HEIGHT / 2 - 30);
+        // a network client's copy of the server's race, only good for drawing. prev is the
+        // snapshot shown before this one, for interpolating, or null
+        void mirror(Snapshot s, Snapshot prev) {
+            layout = Definitions.get().track(Math.floorMod(s.track, Definitions.get().trackCount()));
+            road.follow(s.roadSeed, layout, s.distance, prev != null ? prev.distance : s.distance);
+            phase = Net.PHASES[s.phase];
+            tick = s.tick;
+            goTick = s.ticksSinceGo < 0 ? -1 : s.tick - s.ticksSinceGo;
+            players = s.players;
+            for (int p = 0; p < players; p++) {
+                Driver d = drivers[p];
+                boolean had = prev != null && p < prev.players;
+                d.prevX = had ? prev.px[p] : s.px[p];
+                d.prevY = had ? prev.py[p] : s.py[p];
+                d.car.setLocation(s.px[p], s.py[p]);
+                d.score = s.score[p];
+                for (int t = 0; t < PowerUp.COUNT; t++) {
+                    int left = s.left[p * PowerUp.COUNT + t];
+                    PowerUp u = PowerUp.TYPES[t];
+                    if (u.stacking == PowerUp.CHARGES) d.charges[t] = left;
+                    else if (u.road) roadUntil[t] = left == 0 ? 0 : tick + left;
+                    else d.until[t] = left == 0 ? 0 : tick + left;
+                }
+                applyEffects(d);
+                d.shield = (s.flags[p] & Snapshot.SHIELD) != 0;
+                d.out = (s.flags[p] & Snapshot.OUT) != 0;
+                d.launched = (s.flags[p] & Snapshot.LAUNCHED) != 0;
+                d.moveSpeed = s.speed[p];
+            }
 
-                g2.setFont(new Font("Arial", Font.PLAIN, 20));
-                String instr = "Press R to restart   •   ESC to menu";
-                int iw = g2.getFontMetrics().stringWidth(instr);
-                g2.drawString(instr, (WIDTH - iw) / 2, HEIGHT / 2 + 40);
+            ObstacleField f = obstacles;
+            f.clear();
+            int j = 0;
+            for (int k = 0; k < s.count; k++) {
+                boolean car = s.look[k] >= 0;
+                int w = car ? CAR_WIDTH : POWER_UP_SIZE, h = car ? CAR_HEIGHT : POWER_UP_SIZE;
+                int i = f.add(s.x[k], s.y[k], w, h, 0, car ? s.look[k] : -1 - s.look[k], car ? ObstacleField.CAR : ObstacleField.POWER_UP);
+                f.uid[i] = s.uid[k];
+                if (prev != null) {
+                    while (j < prev.count && prev.uid[j] < s.uid[k]) j++;
+                    if (j < prev.count && prev.uid[j] == s.uid[k]) f.prevY[i] = prev.y[j];
+                }
             }
+        }
 
-            g2.dispose();
+        // moves a car by one tick of input and keeps it on the road, the server and a
+        // client predicting its own car both use this
+        static void move(Rectangle car, int bits, int speed, boolean drs, Road road) {
+            int dx = 0, dy = 0;
+            if ((bits & LEFT) != 0)  dx -= distance(bits, 0, speed);
+            if ((bits & RIGHT) != 0) dx += distance(bits, 1, speed);
+            if ((bits & UP) != 0)    dy -= distance(bits, 2, drs ? speed * 2 : speed);
+            if ((bits & DOWN) != 0)  dy += distance(bits, 3, speed);
+
+            car.x += dx;
+            car.y += dy;
+
+            // generous vertical range, then inside the road where the car is
+            car.y = Math.max(10, Math.min(HEIGHT - CAR_HEIGHT - 10, car.y));
+            int bottom = car.y + CAR_HEIGHT;
+            car.x = Math.max(road.left(car.y, bottom), Math.min(road.right(car.y, bottom) - CAR_WIDTH, car.x));
         }
 
-        @Override
-        public void actionPerformed(ActionEvent e) {
-            if (gameOver) {
-                repaint();
+        // how far direction k moves the car this tick, all of speed unless it was held for less
+        private static int distance(int bits, int k, int speed) {
+            int eighths = bits >>> (PART_SHIFT + k * PART_BITS) & PART_MASK;
+            return eighths == 0 ? speed : (speed * eighths + 4) / 8;
+        }
+
+        // one fixed step with one input per player
+        void step(int[] inputs) {
+            if (phase == GamePhase.FINISHED) {
                 return;
             }
-
-            long now = System.currentTimeMillis();
+            tick++;
 
             if (phase == GamePhase.REACTION_WAIT) {
-                if (now >= scheduledGoTime) {
+                // jumping the start launches you with no bonus, the race begins once everyone has gone
+                for (int p = 0; p < players; p++) {
+                    Driver d = drivers[p];
+                    if (!d.launched && (inputs[p] & SPACE) != 0) {
+                        d.launched = true;
+                        d.falseStart = true;
+                        d.reactionPoints = 0;
+                    }
+                }
+                if (allLaunched()) {
+                    beginRace();
+                } else if (tick >= scheduledGoTick) {
                     phase = GamePhase.REACTION_GO;
-                    goTimestamp = now;
+                    goTick = tick;
                 }
-                repaint();
                 return;
             }
 
             if (phase == GamePhase.REACTION_GO) {
-                repaint();
-                return;
-            }
-
-            if (phase == GamePhase.PLAYING) {
-                // Player movement
-                int dx = 0, dy = 0;
-                if (left)  dx -= MOVE_SPEED;
-                if (right) dx += MOVE_SPEED;
-                if (up)    dy -= MOVE_SPEED;
-                if (down)  dy += MOVE_SPEED;
-
-                player.x += dx;
-                player.y += dy;
-
-                // Keep inside road horizontally, generous vertical range
-                player.x = Math.max(ROAD_LEFT, Math.min(ROAD_RIGHT - CAR_WIDTH, player.x));
-                player.y = Math.max(10, Math.min(HEIGHT - CAR_HEIGHT - 10, player.y));
-
-                // Spawn new obstacle
-                // Spawn new obstacle (and sometimes a power-up)
-                spawnTimer--;
-                if (spawnTimer <= 0) {
-                    spawnObstacle();
-
-                    // 20% chance to spawn a power-up 
-                    if (random.nextInt(5) == 0) {
-                        spawnPowerUp();
-                    }
-                    int base = 48;
-                    int faster = Math.max(20, base - score / 4);
-                    spawnTimer = faster;
-                }
-
-                // Move & collide obstacles
-                for (int i = obstacles.size() - 1; i >= 0; i--) {
-                    Obstacle obs = obstacles.get(i);
-                    obs.rect.y += obs.speedY;
-                    if (obs.rect.intersects(player)) {
-
-                        // if obstacle is an instance of power up then give player a power up and dont end the game
-                        if (obs instanceof PowerUp) {
-                            score += 1;
-                            obstacles.remove(i);
-                            // give random power up of the 4
-                            int r = random.nextInt(4);
-                            if (r == 0) { // increase movement speed of player
-                                resetSpeed();
-                                MOVE_SPEED = 12;
-                            } 
-                            else if (r == 1) {// increase movement speed of obstacles
-                                resetSpeed();
-                                baseSpeed =20;
-                            } 
-                            else if (r == 2) { // player gets a puncture and is very slow
-                                resetSpeed();
-                                MOVE_SPEED = 2;
-                            }
-                            else if (r == 3) { // give shield
-                                resetSpeed();
-                                shield = true;
-                            }
-                            continue;
-                        }
-                        if (shield) {// if player has a shield then they dont die
-                            shield = false;
-                            obstacles.remove(i);
-                            continue;
-                        }
-                        
-                        resetSpeed(); // if player dies reset speeds
-                        gameOver = true;
-                        phase = GamePhase.FINISHED;
-                        timer.stop();
-
-                        // when the game ends write the score and customizations to score.txt
-                        try (PrintWriter writer = new PrintWriter(new FileWriter("score.txt", true))) {
-                            writer.println("Score: " + score +". " + team + ", #: " + driverNumber + ", " + country);
-                        } catch (IOException z) {
-                            System.out.println("error");
-                        }
-                        break;
-                    }
-                    if (obs.rect.y > HEIGHT) {
-                        obstacles.remove(i);
-                        score++;
+                for (int p = 0; p < players; p++) {
+                    Driver d = drivers[p];
+                    if (!d.launched && (inputs[p] & SPACE) != 0) {
+                        d.launched = true;
+                        calculateReactionBonus(d, (tick - goTick) * tickNanos / 1_000_000L);
                     }
                 }
-                repaint();
+                if (allLaunched()) beginRace();
+                return;
+            }
+
+            expireEffects();
+            road.scroll(slowMo ? (SCROLL + 1) / 2 : SCROLL);
+
+            // Player movement
+            for (int p = 0; p < players; p++) {
+                Driver d = drivers[p];
+                Rectangle car = d.car;
+                d.prevX = car.x;
+                d.prevY = car.y;
+                if (!d.out) move(car, inputs[p], d.moveSpeed, d.drs, road);
+            }
+
+            // Spawn new obstacle (and sometimes a power-up)
+            spawnTimer--;
+            if (spawnTimer <= 0) {
+                grid.build(obstacles); // so new ones can check they arent on top of another
+                spawnObstacle();
+
+                // 20% chance to spawn a power-up 
+                if (random.nextInt(5) == 0) {
+                    spawnPowerUp();
+                }
+                spawnTimer = spawnInterval(leaderScore());
+            }
+
+            // the rivals steer (and maybe slow down) before everything moves
+            rivals.step(obstacles, drivers, players, rivalSeed, tick, road);
+
+            // Move obstacles, the road bends under them so they go with it
+            ObstacleField f = obstacles;
+            for (int i = 0; i < f.count; i++) {
+                f.prevY[i] = f.y[i];
+                f.y[i] += slowMo ? (f.vy[i] + 1) / 2 : f.vy[i];
+                int bottom = f.y[i] + f.h[i];
+                f.x[i] = Math.max(road.left(f.y[i], bottom), Math.min(road.right(f.y[i], bottom) - f.w[i], f.x[i]));
+            }
+            for (int p = 0; p < players; p++) {
+                if (drivers[p].magnet && !drivers[p].out) pull(drivers[p].car);
+            }
+
+            // Collide, each car only with the obstacles the grid says are touching it. the
+            // grid is built once for everyone, and only again if a car took something off the road
+            grid.build(f);
+            boolean gridStale = false;
+            for (int p = 0; p < players; p++) {
+                Driver d = drivers[p];
+                if (d.out) continue;
+                if (gridStale) {
+                    grid.build(f);
+                    gridStale = false;
+                }
+                Rectangle car = d.car;
+                int hitCount = grid.overlapping(f, car.x, car.y, car.width, car.height);
+                grid.sortHitsDescending(hitCount);
+                int[] hits = grid.hits();
+                for (int k = 0; k < hitCount; k++) {
+                    int i = hits[k];
+                    // the boxes overlap, but the see-through corners of a png dont count
+                    SpriteMask m = f.kind[i] == ObstacleField.POWER_UP ? powerUpMask : carMasks[f.sprite[i]];
+                    if (!SpriteMask.overlaps(d.mask, car.x, car.y, m, f.x[i], f.y[i])) continue;
+
+                    // if obstacle is a power up then give player a power up and dont end the game
+                    if (f.kind[i] == ObstacleField.POWER_UP) {
+                        d.score += 1;
+                        givePowerUp(p, f.sprite[i]);
+                        f.remove(i);
+                        gridStale = true;
+                        continue;
+                    }
+                    if (d.shield) {// if player has a shield then they dont die
+                        d.charges[PowerUp.SHIELD]--;
+                        applyEffects(d);
+                        f.remove(i);
+                        gridStale = true;
+                        continue;
+                    }
+
+                    clearEffects(d); // crashed, nothing carries on
+                    d.out = true;
+                    break;
+                }
+            }
+            if (allOut()) {
+                phase = GamePhase.FINISHED;
+                return;
+            }
+
+            // Obstacles that got past the player are worth a point, to everyone still racing
+            for (int i = f.count - 1; i >= 0; i--) {
+                if (f.y[i] > HEIGHT) {
+                    f.remove(i);
+                    for (int p = 0; p < players; p++) {
+                        if (!drivers[p].out) drivers[p].score++;
+                    }
+                }
+            }
+        }
+
+        private boolean allLaunched() {
+            for (int p = 0; p < players; p++) {
+                if (!drivers[p].launched) return false;
+            }
+            return true;
+        }
+
+        private boolean allOut() {
+            for (int p = 0; p < players; p++) {
+                if (!drivers[p].out) return false;
+            }
+            return true;
+        }
+
+        // ticks until the next spawn, gets shorter as the score goes up
+        static int spawnInterval(int score) {
+            int base = 48;
+            return Math.max(20, base - score / 4);
+        }
+
+        // player p picked up a power up of this type, see PowerUp.TYPES for what each does
+        private void givePowerUp(int p, int type) {
+            Driver d = drivers[p];
+            PowerUp u = PowerUp.TYPES[type];
+            if (u.group != 0) {
+                for (PowerUp o : PowerUp.TYPES) {
+                    if (o.group == u.group && o != u) d.until[o.id] = 0; // its expiry does nothing now
+                }
+            }
+            if (u.stacking == PowerUp.CHARGES) {
+                d.charges[type] = Math.min(u.max, d.charges[type] + 1);
+            } else {
+                long[] until = u.road ? roadUntil : d.until;
+                long end = tick + msToTicks(u.ms);
+                if (u.stacking == PowerUp.EXTEND && until[type] > tick) {
+                    end = Math.min(until[type] + msToTicks(u.ms), tick + msToTicks(u.max));
+                }
+                until[type] = end;
+                expiries.schedule(end, (u.road ? ROAD : p) << 8 | type);
+            }
+            if (u.road) applyRoad();
+            applyEffects(d);
+        }
+
+        // effects that run out on this tick. one refreshed or ended early has a different
+        // until by now, so its old expiry is ignored
+        private void expireEffects() {
+            for (int e; (e = expiries.poll(tick)) >= 0; ) {
+                int owner = e >> 8, type = e & 0xFF;
+                if (owner == ROAD) {
+                    if (roadUntil[type] != tick) continue;
+                    roadUntil[type] = 0;
+                    applyRoad();
+                } else {
+                    Driver d = drivers[owner];
+                    if (d.until[type] != tick) continue;
+                    d.until[type] = 0;
+                    applyEffects(d);
+                }
+            }
+        }
+
+        // what a driver's effects add up to
+        private static void applyEffects(Driver d) {
+            if (d.until[PowerUp.BOOST] != 0) d.moveSpeed = 12;
+            else if (d.until[PowerUp.PUNCTURE] != 0) d.moveSpeed = 2;
+            else d.moveSpeed = 6;
+            d.shield = d.charges[PowerUp.SHIELD] > 0;
+            d.drs = d.until[PowerUp.DRS] != 0;
+            d.magnet = d.until[PowerUp.MAGNET] != 0;
+        }
+
+        private void applyRoad() {
+            baseSpeed = roadUntil[PowerUp.TRAFFIC] != 0 ? 20 : 5;
+            slowMo = roadUntil[PowerUp.SLOW_MO] != 0;
+        }
+
+        private static void clearEffects(Driver d) {
+            Arrays.fill(d.until, 0);
+            Arrays.fill(d.charges, 0);
+            applyEffects(d);
+        }
+
+        // ticks an effect has left (or charges, for those that have them), 0 when it is off
+        long effectLeft(Driver d, int type) {
+            if (PowerUp.TYPES[type].stacking == PowerUp.CHARGES) return d.charges[type];
+            long until = PowerUp.TYPES[type].road ? roadUntil[type] : d.until[type];
+            return until == 0 ? 0 : Math.max(0, until - tick);
+        }
+
+        // a magnet pulls the power ups in front of the car across the road towards it
+        private void pull(Rectangle car) {
+            ObstacleField f = obstacles;
+            int centre = car.x + car.width / 2;
+            for (int i = 0; i < f.count; i++) {
+                if (f.kind[i] != ObstacleField.POWER_UP || f.y[i] > car.y || f.y[i] < car.y - MAGNET_RANGE) continue;
+                int dx = centre - (f.x[i] + f.w[i] / 2);
+                f.x[i] += Math.max(-MAGNET_PULL, Math.min(MAGNET_PULL, dx));
+            }
+        }
+
+        private void beginRace() {
+            for (int p = 0; p < players; p++) {
+                Driver d = drivers[p];
+                if (d.reactionPoints > 0) {
+                    d.score += d.reactionPoints;
+                }
+            }
+            phase = GamePhase.PLAYING;
+            spawnTimer = 40;
+        }
+
+        private void calculateReactionBonus(Driver d, long ms) {
+            if (ms < 0) ms = 0;
+            d.reactionMs = ms;
+            d.reactionPoints = reactionPoints(ms);
+        }
+
+        static int reactionPoints(long ms) {
+            if      (ms <= 130) return 30;
+            else if (ms <= 190) return 20;
+            else if (ms <= 260) return 12;
+            else if (ms <= 340) return 7;
+            else if (ms <= 450) return 4;
+            else                return 1;
+        }
+
+        // the grid has to be built before calling these, new ones are added to it so that
+        // an obstacle and a power up spawned in the same tick dont overlap either
+        private void spawnObstacle() {
+            int y = -CAR_HEIGHT - random.nextInt(180);
+            int xMin = road.left(y, y + CAR_HEIGHT) + 8;
+            int xMax = road.right(y, y + CAR_HEIGHT) - CAR_WIDTH - 8;
+            int x = freeSpawnX(xMin, xMax, y, CAR_WIDTH, CAR_HEIGHT);
+            if (x < 0) return; // no room this time
+
+            int extra = Math.min(6, leaderScore() / 25);
+            int vy = baseSpeed + random.nextInt(4) + extra;
+
+            // pick a random team's car
+            int sprite = rivalSprites[random.nextInt(rivalSprites.length)];
+            int id = obstacles.add(x, y, CAR_WIDTH, CAR_HEIGHT, vy, sprite, ObstacleField.CAR);
+            grid.insert(id, x, y, CAR_WIDTH, CAR_HEIGHT);
+        }
+
+        // create spawn power up method that is basically the same as spawn obstacle
+        private void spawnPowerUp() {
+            int y = -CAR_HEIGHT - random.nextInt(250);
+            int s = POWER_UP_SIZE; // square 
+            int xMin = road.left(y, y + s) + 8;
+            int xMax = road.right(y, y + s) - CAR_WIDTH - 8;
+            int x = freeSpawnX(xMin, xMax, y, s, s);
+            if (x < 0) return;
+
+            int extra = Math.min(6, leaderScore() / 25);
+            int vy = baseSpeed + random.nextInt(4) + extra;
+
+            // Add as a power up, it lives in the same field as the cars and knows what it is
+            int id = obstacles.add(x, y, s, s, vy, PowerUp.pick(random), ObstacleField.POWER_UP);
+            grid.insert(id, x, y, s, s);
+        }
+
+        // tries a few random x positions and returns one where nothing is in the way, or -1
+        private int freeSpawnX(int xMin, int xMax, int y, int w, int h) {
+            for (int attempt = 0; attempt < SPAWN_ATTEMPTS; attempt++) {
+                int x = xMin + random.nextInt(Math.max(1, xMax - xMin + 1));
+                if (grid.overlapping(obstacles, x, y, w, h) == 0) return x;
+            }
+            return -1;
+        }
+    }
+
+    // ── POWER UPS ──────────────────────────────────────────────────────────────
+    // what a power up does is a row in this table: how likely it is, how long it lasts, what
+    // picking up another one does, and whether it is yours or changes the road for everyone.
+    // a power up on the road already knows which one it is (its sprite in ObstacleField)
+    private static final class PowerUp {
+        static final int BOOST = 0, TRAFFIC = 1, PUNCTURE = 2, SHIELD = 3, SLOW_MO = 4, MAGNET = 5, DRS = 6;
+
+        // what picking up one you already have does
+        static final int REFRESH = 0; // starts its time again
+        static final int EXTEND = 1;  // adds its time on, up to max ms
+        static final int CHARGES = 2; // one more, up to max, used up instead of running out
+
+        static final PowerUp[] TYPES = {
+                //          id        name        weight   ms   stacking     max   road  group
+                new PowerUp(BOOST,    "BOOST",    3,    6000, EXTEND,  12000, false, 1), // you move at 12
+                new PowerUp(TRAFFIC,  "TRAFFIC",  2,    5000, REFRESH,     0, true,  0), // new cars come in fast
+                new PowerUp(PUNCTURE, "PUNCTURE", 2,    4000, REFRESH,     0, false, 1), // you move at 2
+                new PowerUp(SHIELD,   "SHIELD",   3,       0, CHARGES,     3, false, 0), // a crash just takes one off
+                new PowerUp(SLOW_MO,  "SLOW-MO",  2,    4000, EXTEND,   8000, true,  0), // everything on the road at half speed
+                new PowerUp(MAGNET,   "MAGNET",   2,    8000, REFRESH,     0, false, 0), // power ups ahead drift over to you
+                new PowerUp(DRS,      "DRS",      2,    5000, REFRESH,     0, false, 0), // UP moves twice as far
+        };
+        static final int COUNT = TYPES.length;
+        private static final int TOTAL_WEIGHT = Arrays.stream(TYPES).mapToInt(t -> t.weight).sum();
+
+        final int id;
+        final String name;
+        final int weight;   // how often it turns up, against the others
+        final int ms;       // how long it lasts, 0 for charges
+        final int stacking;
+        final int max;
+        final boolean road; // on the road for everyone instead of on the car that got it
+        final int group;    // picking one up ends the others in its group, 0 for none
+
+        private PowerUp(int id, String name, int weight, int ms, int stacking, int max, boolean road, int group) {
+            this.id = id;
+            this.name = name;
+            this.weight = weight;
+            this.ms = ms;
+            this.stacking = stacking;
+            this.max = max;
+            this.road = road;
+            this.group = group;
+        }
+
+        // a random type, by weight
+        static int pick(Random random) {
+            int r = random.nextInt(TOTAL_WEIGHT);
+            for (PowerUp t : TYPES) {
+                r -= t.weight;
+                if (r < 0) return t.id;
+            }
+            return TYPES.length - 1;
+        }
+    }
+
+    // things that happen on a later tick, here effects running out. each tick only looks at
+    // its own slot, so it costs the same with 5 or 5000 waiting, and the entries are reused
+    // instead of allocated. anything further off than SLOTS ticks just stays in its slot
+    // until the tick it is really due
+    private static final class TimerWheel {
+        private static final int SLOTS = 1024; // a power of two, longer than any effect at 60 ticks/s
+
+        private final int[] heads = new int[SLOTS];
+        private long[] due = new long[64];
+        private int[] payload = new int[64];
+        private int[] next = new int[64];
+        private int free = -1; // list of reusable entries
+        private int used = 0;  // entries ever handed out
+        private int size = 0;
+
+        TimerWheel() {
+            Arrays.fill(heads, -1);
+        }
+
+        void schedule(long tick, int value) {
+            int e;
+            if (free >= 0) {
+                e = free;
+                free = next[e];
+            } else {
+                if (used == due.length) grow();
+                e = used++;
+            }
+            due[e] = tick;
+            payload[e] = value;
+            int slot = (int) tick & (SLOTS - 1);
+            next[e] = heads[slot];
+            heads[slot] = e;
+            size++;
+        }
+
+        // takes off one thing due on this tick and returns its value, -1 once there are none
+        int poll(long tick) {
+            int slot = (int) tick & (SLOTS - 1);
+            for (int e = heads[slot], prev = -1; e >= 0; prev = e, e = next[e]) {
+                if (due[e] > tick) continue; // a later lap
+                if (prev < 0) heads[slot] = next[e];
+                else next[prev] = next[e];
+                next[e] = free;
+                free = e;
+                size--;
+                return payload[e];
+            }
+            return -1;
+        }
+
+        int size() { return size; }
+
+        void clear() {
+            Arrays.fill(heads, -1);
+            free = -1;
+            used = 0;
+            size = 0;
+        }
+
+        private void grow() {
+            int cap = due.length * 2;
+            due = Arrays.copyOf(due, cap);
+            payload = Arrays.copyOf(payload, cap);
+            next = Arrays.copyOf(next, cap);
+        }
+    }
+
+    // ── RIVALS ─────────────────────────────────────────────────────────────────
+    // the cars on the road are rivals from the season's teams and race each other: they change
+    // lane to get past a slower car, sit behind it when there is no room, and some teams
+    // like to move across in front of the player. every tick each car decides what to do
+    // from a copy of the road taken at the start of the tick, and only writes its own
+    // answer, so the cars can be worked out on several threads at once. the random part
+    // of a decision comes from the race seed, the tick and the car, never from a shared
+    // Random, so a race still plays out the same however the work was split up
+    private static final class RivalAi {
+        // how a team races
+        private static final class Style {
+            final int lateral;    // px per tick sideways
+            final int lookAhead;  // how far down the road it looks for slower cars
+            final int block;      // per mille chance per tick of moving over on the player
+            final int blockRange; // how close the player has to be behind it
+            final int wander;     // per mille chance per tick of changing lane for no reason
+
+            Style(int lateral, int lookAhead, int block, int blockRange, int wander) {
+                this.lateral = lateral;
+                this.lookAhead = lookAhead;
+                this.block = block;
+                this.blockRange = blockRange;
+                this.wander = wander;
+            }
+        }
+
+        // indexed by team id, which is also a car's sprite id. the numbers are in definitions.txt
+        private static final Style[] STYLES = Arrays.stream(Definitions.get().teams())
+                .map(t -> t.style).toArray(Style[]::new);
+
+        private static final int GAP = 10;      // room a car wants either side of it
+        private static final int KEEP_ON = 90;  // % chance a lane change carries on next tick
+        private static final int COLUMN = 64;
+        private static final int COLUMNS = (Simulation.ROAD_RIGHT - Simulation.ROAD_LEFT) / COLUMN + 1;
+
+        // fewer cars than this arent worth handing to other threads
+        private static final int PARALLEL_MIN = Integer.getInteger("minif1.aiParallelMin", 64);
+        private static final int CHUNK = 32;
+        private static final ForkJoinPool POOL = new ForkJoinPool(Runtime.getRuntime().availableProcessors(), pool -> {
+            ForkJoinWorkerThread t = ForkJoinPool.defaultForkJoinWorkerThreadFactory.newThread(pool);
+            t.setName("rival-ai-" + t.getPoolIndex());
+            t.setDaemon(true);
+            return t;
+        }, null, false);
+
+        private boolean parallel = false;
+
+        // the snapshot, read only while deciding
+        private int n;
+        private int[] sx = new int[256], sy = new int[256], sw = new int[256], sh = new int[256];
+        private int[] svy = new int[256], svx = new int[256], steam = new int[256], suid = new int[256];
+        private byte[] skind = new byte[256];
+        // the players still racing
+        private int pn;
+        private final int[] px = new int[Simulation.MAX_DRIVERS], py = new int[Simulation.MAX_DRIVERS], pw = new int[Simulation.MAX_DRIVERS];
+        private long seed, tick;
+        private Road road; // only read while deciding
+        // cars by column of their left edge: the ones in column c are
+        // colItems[colStart[c] .. colStart[c + 1])
+        private final int[] colStart = new int[COLUMNS + 1];
+        private int[] colItems = new int[256];
+        private int[] colY = new int[256]; // sy of colItems[k], saves a hop while searching
+        private long[] colKeys = new long[256]; // column << 56 | y << 32 | index
+        private static final int Y_BIAS = 1 << 23; // keeps y positive in its 24 bits of the key
+
+        // the answers, one slot per car
+        private int[] dx = new int[256], newVy = new int[256];
+
+        void setParallel(boolean parallel) { this.parallel = parallel; }
+
+        // works out every car's move for this tick, then applies them all
+        void step(ObstacleField f, Simulation.Driver[] drivers, int players, long seed, long tick, Road road) {
+            this.road = road;
+            snapshot(f, drivers, players, seed, tick);
+            if (parallel && n >= PARALLEL_MIN) {
+                POOL.invoke(new Decide(0, n));
+            } else {
+                decide(0, n);
+            }
+            for (int i = 0; i < n; i++) {
+                int bottom = f.y[i] + f.h[i];
+                f.x[i] = Math.max(road.left(f.y[i], bottom), Math.min(road.right(f.y[i], bottom) - f.w[i], f.x[i] + dx[i]));
+                f.vx[i] = dx[i];
+                f.vy[i] = newVy[i];
+            }
+        }
+
+        private final class Decide extends RecursiveAction {
+            private static final long serialVersionUID = 1L;
+            private final int from, to;
+
+            Decide(int from, int to) {
+                this.from = from;
+                this.to = to;
+            }
+
+            @Override
+            protected void compute() {
+                if (to - from <= CHUNK) {
+                    decide(from, to);
+                    return;
+                }
+                int mid = (from + to) >>> 1;
+                invokeAll(new Decide(from, mid), new Decide(mid, to));
+            }
+        }
+
+        private void snapshot(ObstacleField f, Simulation.Driver[] drivers, int players, long seed, long tick) {
+            n = f.count;
+            if (n > sx.length) {
+                int cap = Math.max(n, sx.length * 2);
+                sx = new int[cap]; sy = new int[cap]; sw = new int[cap]; sh = new int[cap];
+                svy = new int[cap]; svx = new int[cap]; steam = new int[cap]; suid = new int[cap];
+                skind = new byte[cap];
+                colItems = new int[cap];
+                colY = new int[cap];
+                colKeys = new long[cap];
+                dx = new int[cap];
+                newVy = new int[cap];
+            }
+            System.arraycopy(f.x, 0, sx, 0, n);
+            System.arraycopy(f.y, 0, sy, 0, n);
+            System.arraycopy(f.w, 0, sw, 0, n);
+            System.arraycopy(f.h, 0, sh, 0, n);
+            System.arraycopy(f.vy, 0, svy, 0, n);
+            System.arraycopy(f.vx, 0, svx, 0, n);
+            System.arraycopy(f.sprite, 0, steam, 0, n);
+            System.arraycopy(f.uid, 0, suid, 0, n);
+            System.arraycopy(f.kind, 0, skind, 0, n);
+            pn = 0;
+            for (int p = 0; p < players; p++) {
+                if (drivers[p].out) continue;
+                Rectangle car = drivers[p].car;
+                px[pn] = car.x;
+                py[pn] = car.y;
+                pw[pn] = car.width;
+                pn++;
+            }
+            this.seed = seed;
+            this.tick = tick;
+
+            // the cars by column then by y, so a lookup only walks the cars level with the
+            // one asking. one sort over column | y | index keys, colStart from a count
+            Arrays.fill(colStart, 0);
+            int m = 0;
+            for (int i = 0; i < n; i++) {
+                if (skind[i] != ObstacleField.CAR) continue;
+                int c = column(sx[i]);
+                colStart[c + 1]++;
+                colKeys[m++] = (long) c << 56 | (long) ((sy[i] + Y_BIAS) & 0xFFFFFF) << 32 | i;
+            }
+            for (int c = 0; c < COLUMNS; c++) colStart[c + 1] += colStart[c];
+            Arrays.sort(colKeys, 0, m);
+            for (int k = 0; k < m; k++) {
+                colItems[k] = (int) colKeys[k];
+                colY[k] = sy[colItems[k]];
+            }
+        }
+
+        // first slot in column c whose car has sy >= y
+        private int firstFrom(int c, int y) {
+            int lo = colStart[c], hi = colStart[c + 1];
+            while (lo < hi) {
+                int mid = (lo + hi) >>> 1;
+                if (colY[mid] < y) lo = mid + 1;
+                else hi = mid;
+            }
+            return lo;
+        }
+
+        private void decide(int from, int to) {
+            for (int i = from; i < to; i++) {
+                newVy[i] = svy[i];
+                dx[i] = skind[i] == ObstacleField.CAR ? steer(i) : 0;
+            }
+        }
+
+        // sideways move for car i this tick, may also slow it down to sit behind someone
+        private int steer(int i) {
+            Style st = STYLES[Math.floorMod(steam[i], STYLES.length)];
+            long r = mix(seed ^ mix(tick * 0x9E3779B97F4A7C15L + suid[i]));
+            int roll = (int) ((r >>> 1) % 1000);
+            int x = sx[i], y = sy[i], w = sw[i], h = sh[i];
+            int centre = x + w / 2;
+
+            // a player is just behind and nearly in line: sometimes edge over on them.
+            // a pixel a tick and never more than a car's width, a rival defends its
+            // line but doesnt swoop across the road
+            if (roll < st.block) {
+                for (int p = 0; p < pn; p++) {
+                    int gap = py[p] - (y + h);
+                    int off = px[p] + pw[p] / 2 - centre;
+                    if (gap > 0 && gap < st.blockRange && Math.abs(off) < w) {
+                        return Math.abs(off) > w / 4 ? Integer.signum(off) : 0;
+                    }
+                }
+            }
+
+            // a slower car ahead: go round it if there is room, otherwise sit behind it
+            int ahead = nearestAhead(i, x - GAP, x + w + GAP, y + h, y + h + st.lookAhead);
+            if (ahead >= 0 && svy[ahead] < svy[i]) {
+                int side = freeSide(i, st, (r & 1) == 0);
+                if (side != 0) return side * st.lateral;
+                newVy[i] = svy[ahead];
+                return 0;
+            }
+
+            // carry on with a lane change at the same speed, or sometimes start one
+            if (svx[i] != 0 && roll % 100 < KEEP_ON && laneFree(i, x + svx[i], y, w, h, st)) {
+                return svx[i];
+            }
+            if (roll < st.wander) {
+                int side = freeSide(i, st, (r & 2) == 0);
+                return side * st.lateral;
+            }
+            return 0;
+        }
+
+        // -1 for left, 1 for right, 0 if neither lane is free. keeps going the way the car
+        // already moves if it can, otherwise tries leftFirst's side first
+        private int freeSide(int i, Style st, boolean leftFirst) {
+            int x = sx[i], y = sy[i], w = sw[i], h = sh[i];
+            int first = svx[i] != 0 ? Integer.signum(svx[i]) : leftFirst ? -1 : 1;
+            int shift = w + GAP;
+            if (laneFree(i, x + first * shift, y, w, h, st)) return first;
+            if (laneFree(i, x - first * shift, y, w, h, st)) return -first;
+            return 0;
+        }
+
+        // nothing from just behind to lookAhead in front of a car at x in that lane
+        private boolean laneFree(int i, int x, int y, int w, int h, Style st) {
+            if (x < road.left(y, y + h) || x + w > road.right(y, y + h)) return false;
+            int x0 = x - GAP, x1 = x + w + GAP, y0 = y - h, y1 = y + h + st.lookAhead;
+            for (int c = column(x0 - Simulation.CAR_WIDTH), last = column(x1); c <= last; c++) {
+                for (int k = firstFrom(c, y0 - Simulation.CAR_HEIGHT), end = colStart[c + 1]; k < end; k++) {
+                    int j = colItems[k];
+                    if (colY[k] >= y1) break;
+                    if (j != i && sx[j] < x1 && sx[j] + sw[j] > x0 && sy[j] + sh[j] > y0) return false;
+                }
+            }
+            return true;
+        }
+
+        // the closest car whose top is between y0 and y1 and overlaps [x0, x1), or -1
+        private int nearestAhead(int i, int x0, int x1, int y0, int y1) {
+            int best = -1;
+            int bestY = Integer.MAX_VALUE;
+            for (int c = column(x0 - Simulation.CAR_WIDTH), last = column(x1); c <= last; c++) {
+                for (int k = firstFrom(c, y0 - Simulation.CAR_HEIGHT / 2), end = colStart[c + 1]; k < end; k++) {
+                    int j = colItems[k];
+                    if (colY[k] >= Math.min(y1, bestY)) break; // sorted by y, nothing closer after this
+                    if (j == i || sx[j] >= x1 || sx[j] + sw[j] <= x0) continue;
+                    if (sy[j] >= y0 - sh[j] / 2) {
+                        best = j;
+                        bestY = sy[j];
+                    }
+                }
+            }
+            return best;
+        }
+
+        private static int column(int x) {
+            return Math.max(0, Math.min(COLUMNS - 1, (x - Simulation.ROAD_LEFT) / COLUMN));
+        }
+
+        // splitmix64's finaliser
+        private static long mix(long z) {
+            z = (z ^ (z >>> 30)) * 0xBF58476D1CE4E5B9L;
+            z = (z ^ (z >>> 27)) * 0x94D049BB133111EBL;
+            return z ^ (z >>> 31);
+        }
+    }
+
+    // ── REPLAYS ────────────────────────────────────────────────────────────────
+    // a race is just its seed plus the input bits for every tick, so that is all we save.
+    // the inputs are stored as runs (same bits for n ticks), a whole race is a few KB.
+    // replaying re-runs the Simulation and has to land on exactly the same score
+    private static final class Replay {
+        private static final int MAGIC = 0x4D463152; // "MF1R"
+        private static final int VERSION = 7; // bumped whenever the rules change, old replays wont match
+        static final int NOT_TIMED = -1; // launchTick of a race where the ticks timed the launch
+        private static final int MAX_TICKS = 1 << 24; // over 3 days at 60 a second, longer is a broken file
+
+        final long seed;
+        final int tickRate;
+        final int playerSprite;
+        final int driverNumber;
+        final String team;
+        final String country;
+        final int track;    // Definitions id of the track, the road is built from it
+        final int[] rivals; // sprite ids the cars on the road came from, see Simulation.setRivals
+        final long recordedAt;
+        final int[] inputs; // one per tick
+        final int launchTick; // the tick the game timed the launch itself, or NOT_TIMED
+        final int launchMs;   // and what it made of it, for Simulation.launch
+        final int score;      // what the race ended on when it was recorded
+
+        private Replay(long seed, int tickRate, int playerSprite, int driverNumber, String team, String country,
+                       int track, int[] rivals, long recordedAt, int[] inputs, int launchTick, int launchMs, int score) {
+            this.seed = seed;
+            this.tickRate = tickRate;
+            this.playerSprite = playerSprite;
+            this.driverNumber = driverNumber;
+            this.team = team;
+            this.country = country;
+            this.track = track;
+            this.rivals = rivals;
+            this.recordedAt = recordedAt;
+            this.inputs = inputs;
+            this.launchTick = launchTick;
+            this.launchMs = launchMs;
+            this.score = score;
+        }
+
+        // collects the inputs of a race as it is played
+        static final class Recorder {
+            private final long seed;
+            private final int tickRate, playerSprite, driverNumber, track;
+            private final String team, country;
+            private final int[] rivals;
+            private final long recordedAt = System.currentTimeMillis();
+
+            private int[] runInput = new int[256];
+            private int[] runLength = new int[256];
+            private int runs = 0;
+            private int ticks = 0;
+            private int launchTick = NOT_TIMED, launchMs;
+
+            Recorder(long seed, int tickRate, int playerSprite, int driverNumber, String team, String country, int track,
+                     int[] rivals) {
+                this.seed = seed;
+                this.tickRate = tickRate;
+                this.playerSprite = playerSprite;
+                this.driverNumber = driverNumber;
+                this.team = team;
+                this.country = country;
+                this.track = track;
+                this.rivals = rivals.clone();
+            }
+
+            // the reaction time the game measured, before the tick it is used in is recorded
+            void launch(long ms) {
+                launchTick = ticks;
+                launchMs = (int) ms;
+            }
+
+            void record(int input) {
+                ticks++;
+                if (runs > 0 && runInput[runs - 1] == input) {
+                    runLength[runs - 1]++;
+                    return;
+                }
+                if (runs == runInput.length) {
+                    runInput = Arrays.copyOf(runInput, runs * 2);
+                    runLength = Arrays.copyOf(runLength, runs * 2);
+                }
+                runInput[runs] = input;
+                runLength[runs] = 1;
+                runs++;
+            }
+
+            void write(File file, int score) throws IOException {
+                try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(file)))) {
+                    out.writeInt(MAGIC);
+                    out.writeByte(VERSION);
+                    out.writeLong(seed);
+                    out.writeInt(tickRate);
+                    out.writeByte(playerSprite);
+                    out.writeByte(driverNumber);
+                    out.writeUTF(team);
+                    out.writeUTF(country);
+                    writeVarInt(out, track);
+                    writeVarInt(out, rivals.length);
+                    for (int r : rivals) writeVarInt(out, r);
+                    out.writeLong(recordedAt);
+                    out.writeInt(ticks);
+                    out.writeInt(runs);
+                    for (int i = 0; i < runs; i++) {
+                        writeVarInt(out, runInput[i]);
+                        writeVarInt(out, runLength[i]);
+                    }
+                    out.writeInt(launchTick);
+                    out.writeInt(launchMs);
+                    out.writeInt(score);
+                }
+            }
+        }
+
+        static Replay read(File file) throws IOException {
+            try (DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(file)))) {
+                if (in.readInt() != MAGIC) throw new IOException(file + " is not a replay");
+                int version = in.readByte();
+                if (version != VERSION) throw new IOException("replay is version " + version + ", this game plays version " + VERSION);
+                long seed = in.readLong();
+                int tickRate = in.readInt();
+                if (tickRate <= 0 || tickRate > 1000) throw new IOException("corrupt replay");
+                int playerSprite = in.readByte();
+                if (playerSprite < 0 || playerSprite >= Assets.TEAMS.length) throw new IOException("replay has a team we dont have (" + playerSprite + ")");
+                int driverNumber = in.readByte();
+                String team = in.readUTF();
+                String country = in.readUTF();
+                int track = readVarInt(in);
+                if (track < 0 || track >= Definitions.get().trackCount()) throw new IOException("replay has a track we dont have (" + track + ")");
+                int rivalCount = readVarInt(in);
+                if (rivalCount < 0 || rivalCount > Assets.TEAMS.length) throw new IOException("corrupt replay");
+                int[] rivals = new int[rivalCount];
+                for (int i = 0; i < rivals.length; i++) {
+                    rivals[i] = readVarInt(in);
+                    if (rivals[i] < 0 || rivals[i] >= Assets.TEAMS.length) throw new IOException("replay has a team we dont have (" + rivals[i] + ")");
+                }
+                long recordedAt = in.readLong();
+                // the lengths are checked before anything is made from them, so a cut off or
+                // damaged file is an IOException like any other bad replay
+                int ticks = in.readInt();
+                if (ticks < 0 || ticks > MAX_TICKS) throw new IOException("corrupt replay");
+                int[] inputs = new int[ticks];
+                int runs = in.readInt();
+                if (runs < 0 || runs > ticks) throw new IOException("corrupt replay");
+                int t = 0;
+                for (int i = 0; i < runs; i++) {
+                    int input = readVarInt(in);
+                    int len = readVarInt(in);
+                    if (len <= 0 || len > inputs.length - t) throw new IOException("corrupt replay");
+                    Arrays.fill(inputs, t, t + len, input);
+                    t += len;
+                }
+                if (t != inputs.length) throw new IOException("corrupt replay");
+                int launchTick = in.readInt();
+                int launchMs = in.readInt();
+                int score = in.readInt();
+                return new Replay(seed, tickRate, playerSprite, driverNumber, team, country, track, rivals, recordedAt, inputs,
+                        launchTick, launchMs, score);
+            } catch (EOFException e) {
+                throw new IOException("corrupt replay, it stops part way");
+            }
+        }
+
+        // re-runs the race as fast as possible, returns the simulation at the end
+        Simulation simulate(SpriteMask[] carMasks, SpriteMask powerUpMask) {
+            Simulation sim = new Simulation(tickRate, carMasks, powerUpMask);
+            sim.setRivals(rivals);
+            sim.setTrack(Definitions.get().track(track));
+            sim.reset(seed, playerSprite);
+            for (int t = 0; t < inputs.length; t++) {
+                if (t == launchTick) sim.launch(0, launchMs);
+                sim.step(inputs[t]);
+            }
+            return sim;
+        }
+
+        private static void writeVarInt(DataOutputStream out, int v) throws IOException {
+            while ((v & ~0x7F) != 0) {
+                out.writeByte((v & 0x7F) | 0x80);
+                v >>>= 7;
+            }
+            out.writeByte(v);
+        }
+
+        private static int readVarInt(DataInputStream in) throws IOException {
+            int v = 0;
+            for (int shift = 0; shift < 32; shift += 7) {
+                int b = in.readUnsignedByte();
+                v |= (b & 0x7F) << shift;
+                if ((b & 0x80) == 0) return v;
+            }
+            throw new IOException("bad varint in replay");
+        }
+
+        // java MiniF1 --replay <file> checks a replay headless and faster than real time,
+        // add --watch to see it played back in the window instead
+        static int verify(String file) {
+            Replay replay;
+            try {
+                replay = read(new File(file));
+            } catch (IOException e) {
+                System.out.println("error reading replay: " + e.getMessage());
+                return 1;
+            }
+            Assets assets = Assets.load();
+            long start = System.nanoTime();
+            Simulation sim = replay.simulate(assets.carMasks(), assets.powerUpMask());
+            double ms = (System.nanoTime() - start) / 1e6;
+            double raceMs = replay.inputs.length * 1000.0 / replay.tickRate;
+
+            boolean ok = sim.score() == replay.score;
+            System.out.printf("%s #%d (%s), %d ticks replayed in %.1fms (%.0fx real time)%n",
+                    replay.team, replay.driverNumber, replay.country, replay.inputs.length, ms, raceMs / Math.max(ms, 0.001));
+            System.out.printf("recorded score %d, replayed score %d: %s%n",
+                    replay.score, sim.score(), ok ? "OK" : "MISMATCH");
+            return ok ? 0 : 2;
+        }
+    }
+
+    // ── TEXT FILES ─────────────────────────────────────────────────────────────
+    // reads delimited text (users.txt, score.txt) straight out of a ByteBuffer, either a
+    // mapped file or chunks read from a channel, without a String or array per line.
+    // next() moves to the next record and the fields are ranges in one reused scratch
+    // array, so a field only becomes a String if someone asks for one.
+    // a field can be in "quotes" (a quote inside is written "") and \ escapes the next
+    // character anywhere, so a delimiter can be part of a field. blank lines are skipped,
+    // \r\n works as well as \n. the bytes are utf-8
+    private static final class RecordReader implements AutoCloseable {
+        private static final int CHUNK = 64 * 1024;
+        private static final byte QUOTE = '"', ESCAPE = '\\';
+
+        private final FileChannel ch; // when streaming a file
+        private final ByteBuffer src; // when reading a buffer, e.g. a mapped file
+        private final byte delimiter;
+        private boolean quoting = true;
+
+        // the input is copied a chunk at a time into here and read with plain array
+        // indexing, which is a lot quicker than a get() per byte
+        private final byte[] chunk = new byte[CHUNK];
+        private final ByteBuffer chunkBuf = ByteBuffer.wrap(chunk);
+        private int pos, lim;
+
+        private byte[] scratch = new byte[256];
+        private int length;                 // bytes of the record in scratch
+        private int[] start = new int[8];   // field i is scratch[start[i], end[i])
+        private int[] end = new int[8];
+        private int fields;
+        private long records;
+
+        // streams the file in chunks, any size
+        static RecordReader open(File file, char delimiter) throws IOException {
+            return new RecordReader(FileChannel.open(file.toPath(), StandardOpenOption.READ), null, delimiter);
+        }
+
+        // maps the whole file (up to 2GB), the os pages it in as it is read
+        static RecordReader map(File file, char delimiter) throws IOException {
+            try (FileChannel ch = FileChannel.open(file.toPath(), StandardOpenOption.READ)) {
+                return new RecordReader(null, ch.map(FileChannel.MapMode.READ_ONLY, 0, ch.size()), delimiter);
+            }
+        }
+
+        // reads whatever is between position and limit
+        static RecordReader of(ByteBuffer buf, char delimiter) {
+            return new RecordReader(null, buf, delimiter);
+        }
+
+        // the bulk version: every record as Strings
+        static List<String[]> readAll(File file, char delimiter) throws IOException {
+            List<String[]> out = new ArrayList<>();
+            try (RecordReader r = map(file, delimiter)) {
+                while (r.next()) {
+                    String[] row = new String[r.fields()];
+                    for (int i = 0; i < row.length; i++) row[i] = r.field(i);
+                    out.add(row);
+                }
+            }
+            return out;
+        }
+
+        private RecordReader(FileChannel ch, ByteBuffer src, char delimiter) {
+            this.ch = ch;
+            this.src = src;
+            this.delimiter = (byte) delimiter;
+        }
+
+        // for files written before quoting existed: quotes and \ are just bytes
+        RecordReader plain() {
+            quoting = false;
+            return this;
+        }
+
+        // false at the end of the input
+        boolean next() throws IOException {
+            while (true) {
+                int b = read();
+                if (b < 0) return false;
+                if (b == '\n' || b == '\r') continue; // blank line
+                parse(b);
+                records++;
+                return true;
+            }
+        }
+
+        // the fields are copied into scratch with the delimiter still between them, which
+        // is what rest() needs
+        private void parse(int b) throws IOException {
+            length = 0;
+            fields = 0;
+            boolean quoted = false;
+            beginField();
+            while (b >= 0) {
+                if (b == ESCAPE && quoting) {
+                    b = read();
+                    if (b < 0) break;
+                    put(b);
+                } else if (quoted) {
+                    if (b == QUOTE) {
+                        b = read();
+                        if (b == QUOTE) {
+                            put(QUOTE);
+                        } else {
+                            quoted = false;
+                            continue; // look at the byte after the closing quote again
+                        }
+                    } else {
+                        put(b);
+                    }
+                } else if (b == QUOTE && quoting && length == start[fields]) {
+                    quoted = true;
+                } else if (b == delimiter) {
+                    endField();
+                    put(b);
+                    beginField();
+                } else if (b == '\n') {
+                    break;
+                } else if (b != '\r') {
+                    put(b);
+                    copyPlain();
+                }
+                b = read();
+            }
+            endField();
+        }
+
+        // copies the run of ordinary bytes from here up to the next one parse() has to look
+        // at in one go, most of a line is like that
+        private void copyPlain() {
+            int i = pos;
+            byte d = delimiter;
+            while (i < lim) {
+                byte c = chunk[i];
+                if (c == d || c == '\n' || c == '\r' || c == QUOTE || c == ESCAPE) break;
+                i++;
+            }
+            int n = i - pos;
+            if (n == 0) return;
+            if (length + n > scratch.length) scratch = Arrays.copyOf(scratch, Math.max(scratch.length * 2, length + n));
+            System.arraycopy(chunk, pos, scratch, length, n);
+            length += n;
+            pos = i;
+        }
+
+        private void beginField() {
+            if (fields == start.length) {
+                start = Arrays.copyOf(start, fields * 2);
+                end = Arrays.copyOf(end, fields * 2);
+            }
+            start[fields] = length;
+        }
+
+        private void endField() {
+            end[fields++] = length;
+        }
+
+        private void put(int b) {
+            if (length == scratch.length) scratch = Arrays.copyOf(scratch, length * 2);
+            scratch[length++] = (byte) b;
+        }
+
+        private int read() throws IOException {
+            if (pos == lim && !refill()) return -1;
+            return chunk[pos++] & 0xFF;
+        }
+
+        private boolean refill() throws IOException {
+            pos = 0;
+            lim = 0;
+            if (ch != null) {
+                chunkBuf.clear();
+                int n = ch.read(chunkBuf);
+                if (n > 0) lim = n;
+            } else if (src.hasRemaining()) {
+                lim = Math.min(CHUNK, src.remaining());
+                src.get(chunk, 0, lim);
+            }
+            return lim > 0;
+        }
+
+        int fields() { return fields; }
+        long records() { return records; }
+        int start(int f) { return start[f]; }
+        int end(int f) { return end[f]; }
+
+        String field(int f) {
+            return new String(scratch, start[f], end[f] - start[f], StandardCharsets.UTF_8);
+        }
+
+        // everything from field f to the end of the record, delimiters included, for a last
+        // column that can have the delimiter in it without quotes (old users.txt passwords)
+        String rest(int f) {
+            return new String(scratch, start[f], length - start[f], StandardCharsets.UTF_8);
+        }
+
+        boolean startsWith(int from, byte[] prefix) {
+            if (from + prefix.length > length) return false;
+            for (int i = 0; i < prefix.length; i++) {
+                if (scratch[from + i] != prefix[i]) return false;
+            }
+            return true;
+        }
+
+        // -1 if b isn't in [from, to)
+        int indexOf(byte b, int from, int to) {
+            for (int i = from; i < to; i++) {
+                if (scratch[i] == b) return i;
+            }
+            return -1;
+        }
+
+        // a number in [from, to), spaces around it are fine
+        int parseInt(int from, int to) {
+            from = skipSpaces(from, to);
+            to = trimSpaces(from, to);
+            boolean negative = from < to && scratch[from] == '-';
+            if (negative) from++;
+            if (from == to || to - from > 10) throw new NumberFormatException("not a number");
+            long v = 0;
+            for (int i = from; i < to; i++) {
+                int d = scratch[i] - '0';
+                if (d < 0 || d > 9) throw new NumberFormatException("not a number");
+                v = v * 10 + d;
+            }
+            v = negative ? -v : v;
+            if (v != (int) v) throw new NumberFormatException("number too big");
+            return (int) v;
+        }
+
+        // which of the names [from, to) is (ignoring spaces around it), -1 if none
+        int match(int from, int to, byte[][] names) {
+            from = skipSpaces(from, to);
+            to = trimSpaces(from, to);
+            for (int n = 0; n < names.length; n++) {
+                byte[] name = names[n];
+                if (name.length == to - from && startsWith(from, name)) return n;
+            }
+            return -1;
+        }
+
+        private int skipSpaces(int from, int to) {
+            while (from < to && scratch[from] == ' ') from++;
+            return from;
+        }
+
+        private int trimSpaces(int from, int to) {
+            while (to > from && scratch[to - 1] == ' ') to--;
+            return to;
+        }
+
+        static byte[][] utf8(String[] names) {
+            byte[][] out = new byte[names.length][];
+            for (int i = 0; i < names.length; i++) out[i] = names[i].getBytes(StandardCharsets.UTF_8);
+            return out;
+        }
+
+        @Override
+        public void close() throws IOException {
+            if (ch != null) ch.close();
+        }
+    }
+
+    // ── DEFINITIONS ────────────────────────────────────────────────────────────
+    // the tracks, teams and seasons, read once from definitions.txt into arrays indexed by
+    // their id. colours are decoded and names looked up here, so starting a race is just
+    // picking entries out of arrays. nothing in here changes after it is loaded
+    private static final class Definitions {
+        static final String FILE = "definitions.txt";
+
+        // what is left if definitions.txt is missing or broken, enough to still race
+        private static final String BUILT_IN =
+                "track,0,Italy,#29C253,#EB2117,5,2,0,3,1\n"
+                + "team,0,Ferrari,f1_Car_Ferrari.png,3,220,120,200,8\n"
+                + "season,0,2026,0,0\n";
+
+        static final class Track {
+            final int id;
+            final String name;
+            final Color grass;
+            final Color barrier;
+            final int[] features; // how often the Road makes each of its features here, by weight
+
+            private Track(int id, String name, Color grass, Color barrier, int[] features) {
+                this.id = id;
+                this.name = name;
+                this.grass = grass;
+                this.barrier = barrier;
+                this.features = features;
+            }
+
+            @Override
+            public String toString() { return name; } // what the setup screen shows
+        }
+
+        static final class Team {
+            final int id; // also its sprite id
+            final String name;
+            final String carFile;
+            final RivalAi.Style style;
+
+            private Team(int id, String name, String carFile, RivalAi.Style style) {
+                this.id = id;
+                this.name = name;
+                this.carFile = carFile;
+                this.style = style;
+            }
+
+            @Override
+            public String toString() { return name; }
+        }
+
+        static final class Season {
+            final int id;
+            final String name;
+            private final Team[] teams;
+            private final Track[] tracks;
+            private final int[] sprites;
+
+            private Season(int id, String name, Team[] teams, Track[] tracks) {
+                this.id = id;
+                this.name = name;
+                this.teams = teams;
+                this.tracks = tracks;
+                sprites = Arrays.stream(teams).mapToInt(t -> t.id).toArray();
+            }
+
+            Team[] teams() { return teams.clone(); }
+            Track[] tracks() { return tracks.clone(); }
+
+            // the sprite ids the rivals are picked from
+            int[] sprites() { return sprites.clone(); }
+
+            // the team after t in this season, for players 2 to 4
+            Team after(Team t, int n) {
+                int i = Arrays.asList(teams).indexOf(t); // -1 if t isnt in it, then from the top
+                return teams[Math.floorMod(i + n, teams.length)];
+            }
+
+            @Override
+            public String toString() { return name; }
+        }
+
+        private static final Definitions ALL = load(new File(FILE));
+
+        private final Track[] tracks;
+        private final Team[] teams;
+        private final Season[] seasons; // in the order of the file
+        private final HashMap<String, Track> trackByName = new HashMap<>();
+        private final HashMap<String, Team> teamByName = new HashMap<>();
+
+        static Definitions get() {
+            return ALL;
+        }
+
+        private Definitions(Track[] tracks, Team[] teams, Season[] seasons) {
+            this.tracks = tracks;
+            this.teams = teams;
+            this.seasons = seasons;
+            for (Track t : tracks) trackByName.put(t.name, t);
+            for (Team t : teams) teamByName.put(t.name, t);
+        }
+
+        int trackCount() { return tracks.length; }
+        int teamCount() { return teams.length; }
+        Track track(int id) { return tracks[id]; }
+        Team team(int id) { return teams[id]; }
+        Team[] teams() { return teams.clone(); }
+        Season[] seasons() { return seasons.clone(); }
+
+        // null if there isnt one called that
+        Track track(String name) { return trackByName.get(name); }
+        Team team(String name) { return teamByName.get(name); }
+
+        String[] trackNames() { return Arrays.stream(tracks).map(t -> t.name).toArray(String[]::new); }
+        String[] teamNames() { return Arrays.stream(teams).map(t -> t.name).toArray(String[]::new); }
+
+        static Definitions load(File file) {
+            if (!file.exists()) {
+                System.out.println("error no " + file + ", only the built in track and team");
+                return parseBuiltIn();
+            }
+            try (RecordReader r = RecordReader.map(file, ',')) {
+                return parse(r);
+            } catch (IOException | RuntimeException e) {
+                System.out.println("error in " + file + ": " + e.getMessage() + ", only the built in track and team");
+                return parseBuiltIn();
+            }
+        }
+
+        private static Definitions parseBuiltIn() {
+            try (RecordReader r = RecordReader.of(ByteBuffer.wrap(BUILT_IN.getBytes(StandardCharsets.UTF_8)), ',')) {
+                return parse(r);
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+        }
+
+        // seasons refer to tracks and teams by id, so they are sorted out once everything is read
+        private static Definitions parse(RecordReader r) throws IOException {
+            HashMap<Integer, Track> tracks = new HashMap<>();
+            HashMap<Integer, Team> teams = new HashMap<>();
+            List<Integer> seasonIds = new ArrayList<>();
+            List<String[]> seasonRows = new ArrayList<>();
+            while (r.next()) {
+                String kind = r.field(0).trim();
+                if (kind.startsWith("#")) continue;
+                String where = "row " + r.records() + ": ";
+                switch (kind) {
+                    case "track": {
+                        need(r, 5 + Road.FEATURES, where);
+                        int id = id(r, where);
+                        int[] features = new int[Road.FEATURES];
+                        for (int f = 0; f < features.length; f++) {
+                            features[f] = number(r, 5 + f, where);
+                            if (features[f] < 0) throw new IllegalArgumentException(where + "a weight cant be less than 0");
+                        }
+                        Track t = new Track(id, r.field(2).trim(), colour(r.field(3), where), colour(r.field(4), where), features);
+                        if (tracks.put(id, t) != null) throw new IllegalArgumentException(where + "two tracks are " + id);
+                        break;
+                    }
+                    case "team": {
+                        need(r, 9, where);
+                        int id = id(r, where);
+                        RivalAi.Style style = new RivalAi.Style(number(r, 4, where), number(r, 5, where),
+                                number(r, 6, where), number(r, 7, where), number(r, 8, where));
+                        Team t = new Team(id, r.field(2).trim(), r.field(3).trim(), style);
+                        if (teams.put(id, t) != null) throw new IllegalArgumentException(where + "two teams are " + id);
+                        break;
+                    }
+                    case "season": {
+                        need(r, 5, where);
+                        int id = id(r, where);
+                        if (seasonIds.contains(id)) throw new IllegalArgumentException(where + "two seasons are " + id);
+                        seasonIds.add(id);
+                        seasonRows.add(new String[]{where, r.field(2).trim(), r.field(3), r.field(4)});
+                        break;
+                    }
+                    default:
+                        throw new IllegalArgumentException(where + "dont know what a " + kind + " is");
+                }
+            }
+
+            // ids are indexes, so there cant be gaps
+            Track[] trackArr = new Track[tracks.size()];
+            for (int i = 0; i < trackArr.length; i++) {
+                trackArr[i] = tracks.get(i);
+                if (trackArr[i] == null) throw new IllegalArgumentException("there is no track " + i);
+            }
+            Team[] teamArr = new Team[teams.size()];
+            for (int i = 0; i < teamArr.length; i++) {
+                teamArr[i] = teams.get(i);
+                if (teamArr[i] == null) throw new IllegalArgumentException("there is no team " + i);
+            }
+
+            Season[] seasons = new Season[seasonRows.size()];
+            for (int i = 0; i < seasons.length; i++) {
+                String[] row = seasonRows.get(i);
+                String where = row[0];
+                int[] teamIds = ids(row[2], teamArr.length, "team", where);
+                int[] trackIds = ids(row[3], trackArr.length, "track", where);
+                Team[] st = new Team[teamIds.length];
+                for (int j = 0; j < st.length; j++) st[j] = teamArr[teamIds[j]];
+                Track[] sr = new Track[trackIds.length];
+                for (int j = 0; j < sr.length; j++) sr[j] = trackArr[trackIds[j]];
+                seasons[i] = new Season(seasonIds.get(i), row[1], st, sr);
+            }
+            if (trackArr.length == 0 || teamArr.length == 0 || seasons.length == 0) {
+                throw new IllegalArgumentException("it needs at least one track, team and season");
+            }
+            return new Definitions(trackArr, teamArr, seasons);
+        }
+
+        private static void need(RecordReader r, int fields, String where) {
+            if (r.fields() < fields) throw new IllegalArgumentException(where + "needs " + fields + " fields, has " + r.fields());
+        }
+
+        private static int id(RecordReader r, String where) {
+            int id = number(r, 1, where);
+            if (id < 0) throw new IllegalArgumentException(where + "ids start at 0");
+            return id;
+        }
+
+        private static int number(RecordReader r, int f, String where) {
+            try {
+                return r.parseInt(r.start(f), r.end(f));
+            } catch (NumberFormatException e) {
+                throw new IllegalArgumentException(where + "field " + (f + 1) + " isnt a number");
+            }
+        }
+
+        private static Color colour(String s, String where) {
+            try {
+                return Color.decode(s.trim());
+            } catch (NumberFormatException e) {
+                throw new IllegalArgumentException(where + s + " isnt a colour");
+            }
+        }
+
+        private static int[] ids(String list, int count, String what, String where) {
+            String[] parts = list.trim().split(" +");
+            int[] out = new int[parts.length];
+            for (int i = 0; i < parts.length; i++) {
+                try {
+                    out[i] = Integer.parseInt(parts[i]);
+                } catch (NumberFormatException e) {
+                    throw new IllegalArgumentException(where + parts[i] + " isnt a " + what + " id");
+                }
+                if (out[i] < 0 || out[i] >= count) throw new IllegalArgumentException(where + "there is no " + what + " " + out[i]);
+            }
+            return out;
+        }
+    }
+
+    // ── SCORES ─────────────────────────────────────────────────────────────────
+    // every finished race is one fixed size record appended to scores.dat, so the n-th
+    // score is always at the same place in the file. scores.idx keeps the best TOP record
+    // numbers for every country and every team, so a leaderboard reads a handful of records
+    // instead of the whole file (the arcade machines have hundreds of thousands of races).
+    // the index says how many records it covers, anything after that is caught up on open
+    private static final class ScoreStore {
+        static final String[] COUNTRIES = Definitions.get().trackNames(); // indexed by track id
+        static final int TOP = 100; // scores kept per country and team in the index
+
+        private static final int MAGIC = 0x4D465331;       // "MFS1"
+        private static final int INDEX_MAGIC = 0x4D464931; // "MFI1"
+        private static final int VERSION = 1;
+        private static final int HEADER = 16;
+        static final int RECORD = 48;
+        private static final int USER_BYTES = 27; // utf-8, longer names get cut off
+
+        // one race. team and country are ids into Assets.TEAMS and COUNTRIES, -1 if unknown
+        static final class Entry {
+            final String user;
+            final int score;
+            final int team;
+            final int number;
+            final int country;
+            final long time;
+            final int reactionMs; // -1 if there wasn't one (false start, or imported)
+
+            Entry(String user, int score, int team, int number, int country, long time, int reactionMs) {
+                this.user = user;
+                this.score = score;
+                this.team = team;
+                this.number = number;
+                this.country = country;
+                this.time = time;
+                this.reactionMs = reactionMs;
+            }
+
+            String teamName() { return team >= 0 && team < Assets.TEAMS.length ? Assets.TEAMS[team] : "?"; }
+            String countryName() { return country >= 0 && country < COUNTRIES.length ? COUNTRIES[country] : "?"; }
+
+            @Override
+            public String toString() {
+                return score + "  " + (user.isEmpty() ? "-" : user) + "  " + teamName() + " #" + number + "  " + countryName();
+            }
+        }
+
+        // best scores first, ties keep the older race in front
+        private static final class TopList {
+            int size;
+            final int[] score = new int[TOP];
+            final long[] record = new long[TOP];
+
+            void offer(int s, long rec) {
+                if (size == TOP && s <= score[TOP - 1]) return;
+                int i = size < TOP ? size++ : TOP - 1;
+                while (i > 0 && score[i - 1] < s) {
+                    score[i] = score[i - 1];
+                    record[i] = record[i - 1];
+                    i--;
+                }
+                score[i] = s;
+                record[i] = rec;
+            }
+        }
+
+        private final File indexFile;
+        private final FileChannel data;
+        private final ByteBuffer recordBuf = ByteBuffer.allocate(RECORD);
+        private final TopList[] byCountry = new TopList[COUNTRIES.length];
+        private final TopList[] byTeam = new TopList[Assets.TEAMS.length];
+        private long count;
+        private boolean indexDirty;
+
+        private ScoreStore(File dataFile, File indexFile) throws IOException {
+            this.indexFile = indexFile;
+            for (int i = 0; i < byCountry.length; i++) byCountry[i] = new TopList();
+            for (int i = 0; i < byTeam.length; i++) byTeam[i] = new TopList();
+
+            boolean fresh = !dataFile.exists() || dataFile.length() < HEADER;
+            data = FileChannel.open(dataFile.toPath(), StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE);
+            ByteBuffer header = ByteBuffer.allocate(HEADER);
+            if (fresh) {
+                header.putInt(MAGIC).putInt(VERSION).putInt(RECORD).putInt(0).flip();
+                data.write(header, 0);
+                data.truncate(HEADER);
+            } else {
+                data.read(header, 0);
+                header.flip();
+                if (header.getInt() != MAGIC || header.getInt() != VERSION || header.getInt() != RECORD) {
+                    data.close();
+                    throw new IOException(dataFile + " is not a score file");
+                }
+            }
+            // a half written record at the end (the game was killed mid write) is dropped
+            count = (data.size() - HEADER) / RECORD;
+            data.truncate(HEADER + count * RECORD);
+
+            long covered = readIndex();
+            if (covered < count) {
+                scan(covered);
+                writeIndex();
+            }
+        }
+
+        // opens scores.dat in the working folder, bringing in the old score.txt the first time
+        static ScoreStore open() throws IOException {
+            File dataFile = new File("scores.dat");
+            boolean fresh = !dataFile.exists();
+            ScoreStore store = new ScoreStore(dataFile, new File("scores.idx"));
+            File old = new File("score.txt");
+            if (fresh && old.exists()) {
+                int n = store.importText(old);
+                System.out.println("imported " + n + " scores from " + old);
+            }
+            return store;
+        }
+
+        long count() { return count; }
+
+        // the record goes to the os straight away, sync() makes it (and the index) durable
+        void append(Entry e) throws IOException {
+            recordBuf.clear();
+            encode(e, recordBuf);
+            recordBuf.flip();
+            long rec = count;
+            data.write(recordBuf, HEADER + rec * RECORD);
+            count++;
+            index(e.score, e.team, e.country, rec);
+            indexDirty = true;
+        }
+
+        // the records are forced to disk before the index is written, so the index never
+        // claims a record that could still be lost
+        void sync() throws IOException {
+            data.force(false);
+            if (indexDirty) {
+                writeIndex();
+                indexDirty = false;
+            }
+        }
+
+        Entry get(long rec) throws IOException {
+            if (rec < 0 || rec >= count) throw new IndexOutOfBoundsException("record " + rec + " of " + count);
+            recordBuf.clear();
+            while (recordBuf.hasRemaining()) {
+                if (data.read(recordBuf, HEADER + rec * RECORD + recordBuf.position()) < 0) throw new IOException("scores.dat ended early");
+            }
+            recordBuf.flip();
+            return decode(recordBuf);
+        }
+
+        // best n scores on a track (n is at most TOP)
+        List<Entry> topByCountry(int country, int n) throws IOException { return top(byCountry[country], n); }
+
+        // best n scores for a team (n is at most TOP)
+        List<Entry> topByTeam(int team, int n) throws IOException { return top(byTeam[team], n); }
+
+        private List<Entry> top(TopList list, int n) throws IOException {
+            int k = Math.max(0, Math.min(n, list.size));
+            List<Entry> out = new ArrayList<>(k);
+            for (int i = 0; i < k; i++) out.add(get(list.record[i]));
+            return out;
+        }
+
+        private void index(int score, int team, int country, long rec) {
+            if (country >= 0 && country < byCountry.length) byCountry[country].offer(score, rec);
+            if (team >= 0 && team < byTeam.length) byTeam[team].offer(score, rec);
+        }
+
+        // reads records from..count in big chunks and adds them to the index
+        private void scan(long from) throws IOException {
+            ByteBuffer chunk = ByteBuffer.allocate(RECORD * 4096);
+            long rec = from;
+            while (rec < count) {
+                chunk.clear();
+                int want = (int) Math.min(chunk.capacity() / RECORD, count - rec) * RECORD;
+                chunk.limit(want);
+                while (chunk.hasRemaining()) {
+                    if (data.read(chunk, HEADER + rec * RECORD + chunk.position()) < 0) throw new IOException("scores.dat ended early");
+                }
+                chunk.flip();
+                while (chunk.remaining() >= RECORD) {
+                    int start = chunk.position();
+                    int score = chunk.getInt(start);
+                    int team = chunk.get(start + 4);
+                    int country = chunk.get(start + 6);
+                    index(score, team, country, rec++);
+                    chunk.position(start + RECORD);
+                }
+            }
+        }
+
+        // the index file is small (a few KB), it is written to a temp file and renamed over
+        // the old one so a crash leaves either the old index or the new one
+        private void writeIndex() throws IOException {
+            File tmp = new File(indexFile.getPath() + ".tmp");
+            try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(tmp)))) {
+                out.writeInt(INDEX_MAGIC);
+                out.writeInt(VERSION);
+                out.writeInt(COUNTRIES.length);
+                out.writeInt(Assets.TEAMS.length);
+                out.writeLong(count);
+                for (TopList l : byCountry) writeList(out, l);
+                for (TopList l : byTeam) writeList(out, l);
+            }
+            Files.move(tmp.toPath(), indexFile.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        }
+
+        private static void writeList(DataOutputStream out, TopList l) throws IOException {
+            out.writeInt(l.size);
+            for (int i = 0; i < l.size; i++) {
+                out.writeInt(l.score[i]);
+                out.writeLong(l.record[i]);
+            }
+        }
+
+        // returns how many records the index covers, 0 if there is no usable index
+        private long readIndex() {
+            if (!indexFile.exists()) return 0;
+            try (DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(indexFile)))) {
+                if (in.readInt() != INDEX_MAGIC || in.readInt() != VERSION
+                        || in.readInt() != COUNTRIES.length || in.readInt() != Assets.TEAMS.length) {
+                    return 0;
+                }
+                long covered = in.readLong();
+                if (covered > count) return clearIndex(); // scores.dat got shorter, dont trust it
+                for (TopList l : byCountry) readList(in, l);
+                for (TopList l : byTeam) readList(in, l);
+                return covered;
+            } catch (IOException e) {
+                System.out.println("rebuilding " + indexFile + ": " + e.getMessage());
+                return clearIndex();
+            }
+        }
+
+        // gives the country lists of an index to the leaderboard, returns how many records
+        // they cover (0 if the index is missing, doesn't match or is ahead of scores.dat)
+        static long readCountryTops(File indexFile, long records, Leaderboard board) {
+            if (!indexFile.exists()) return 0;
+            TopList[] lists = new TopList[COUNTRIES.length];
+            long covered;
+            try (DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(indexFile)))) {
+                if (in.readInt() != INDEX_MAGIC || in.readInt() != VERSION
+                        || in.readInt() != COUNTRIES.length || in.readInt() != Assets.TEAMS.length) {
+                    return 0;
+                }
+                covered = in.readLong();
+                if (covered > records) return 0;
+                for (int i = 0; i < lists.length; i++) {
+                    lists[i] = new TopList();
+                    readList(in, lists[i]);
+                }
+            } catch (IOException e) {
+                return 0;
+            }
+            for (int c = 0; c < lists.length; c++) {
+                int n = Math.min(lists[c].size, Leaderboard.K);
+                for (int i = 0; i < n; i++) board.add(c, lists[c].score[i]);
+            }
+            return covered;
+        }
+
+        private static void readList(DataInputStream in, TopList l) throws IOException {
+            int size = in.readInt();
+            if (size < 0 || size > TOP) throw new IOException("bad index list size " + size);
+            for (int i = 0; i < size; i++) {
+                l.score[i] = in.readInt();
+                l.record[i] = in.readLong();
+            }
+            l.size = size;
+        }
+
+        private long clearIndex() {
+            for (TopList l : byCountry) l.size = 0;
+            for (TopList l : byTeam) l.size = 0;
+            return 0;
+        }
+
+        // record layout: score int, team byte, number byte, country byte, spare byte,
+        // time long, reaction ms int, user (length byte + up to 27 bytes of utf-8)
+        private static void encode(Entry e, ByteBuffer b) {
+            b.putInt(e.score);
+            b.put((byte) e.team);
+            b.put((byte) e.number);
+            b.put((byte) e.country);
+            b.put((byte) 0);
+            b.putLong(e.time);
+            b.putInt(e.reactionMs);
+            byte[] user = e.user.getBytes(StandardCharsets.UTF_8);
+            int len = Math.min(user.length, USER_BYTES);
+            while (len > 0 && len < user.length && (user[len] & 0xC0) == 0x80) len--; // dont cut a character in half
+            b.put((byte) len);
+            b.put(user, 0, len);
+            while (b.position() < RECORD) b.put((byte) 0);
+        }
+
+        private static Entry decode(ByteBuffer b) {
+            int score = b.getInt();
+            int team = b.get();
+            int number = b.get() & 0xFF;
+            int country = b.get();
+            b.get();
+            long time = b.getLong();
+            int reactionMs = b.getInt();
+            int len = Math.min(b.get() & 0xFF, USER_BYTES);
+            String user = new String(b.array(), b.arrayOffset() + b.position(), len, StandardCharsets.UTF_8);
+            return new Entry(user, score, team, number, country, time, reactionMs);
+        }
+
+        // brings in the old "Score: N. Team, #: n, Country" lines. they have no user or time,
+        // so they get the time of the file
+        int importText(File file) throws IOException {
+            long time = file.lastModified();
+            int imported = 0;
+            try (RecordReader r = RecordReader.open(file, ',').plain()) {
+                while (r.next()) {
+                    Entry e = parseOldLine(r, time);
+                    if (e == null) continue;
+                    append(e);
+                    imported++;
+                }
+            }
+            sync();
+            return imported;
+        }
+
+        private static final byte[] SCORE_PREFIX = "Score: ".getBytes(StandardCharsets.UTF_8);
+        private static final byte[][] TEAM_NAMES = RecordReader.utf8(Assets.TEAMS);
+        private static final byte[][] COUNTRY_NAMES = RecordReader.utf8(COUNTRIES);
+
+        // the record is split on commas: "Score: N. Team" / " #: n" / " Country"
+        static Entry parseOldLine(RecordReader r, long time) {
+            if (r.fields() != 3 || !r.startsWith(r.start(0), SCORE_PREFIX)) return null;
+            int from = r.start(0) + SCORE_PREFIX.length;
+            int dot = r.indexOf((byte) '.', from, r.end(0));
+            int colon = r.indexOf((byte) ':', r.start(1), r.end(1));
+            if (dot < 0 || colon < 0) return null;
+            try {
+                int score = r.parseInt(from, dot);
+                int team = r.match(dot + 1, r.end(0), TEAM_NAMES);
+                int number = r.parseInt(colon + 1, r.end(1));
+                int country = r.match(r.start(2), r.end(2), COUNTRY_NAMES);
+                return new Entry("", score, team, number, country, time, -1);
+            } catch (NumberFormatException e) {
+                return null;
+            }
+        }
+
+        static int indexOf(String[] names, String name) {
+            for (int i = 0; i < names.length; i++) {
+                if (names[i].equals(name)) return i;
+            }
+            return -1;
+        }
+
+        void close() throws IOException {
+            sync();
+            data.close();
+        }
+
+        // java MiniF1 --scores [country or team] [n] prints a leaderboard,
+        // java MiniF1 --import-scores <file> adds the lines of an old score.txt
+        static int run(String[] args) {
+            try {
+                ScoreStore store = open();
+                try {
+                    if (args[0].equals("--import-scores")) {
+                        File file = new File(args.length > 1 ? args[1] : "score.txt");
+                        long start = System.nanoTime();
+                        int n = store.importText(file);
+                        System.out.printf("imported %d scores from %s in %.0fms, %d in the store%n",
+                                n, file, (System.nanoTime() - start) / 1e6, store.count());
+                        return 0;
+                    }
+                    String name = args.length > 1 ? args[1] : COUNTRIES[0];
+                    int n;
+                    try {
+                        n = args.length > 2 ? Integer.parseInt(args[2]) : 10;
+                    } catch (NumberFormatException e) {
+                        System.out.println("error: " + args[2] + " isnt a number of scores");
+                        return 1;
+                    }
+                    if (n < 1) {
+                        System.out.println("error: asked for " + n + " scores, it has to be at least 1");
+                        return 1;
+                    }
+                    if (n > TOP) {
+                        System.out.println("the index only holds the top " + TOP + ", showing those");
+                        n = TOP;
+                    }
+                    long start = System.nanoTime();
+                    List<Entry> top;
+                    int country = indexOf(COUNTRIES, name);
+                    int team = indexOf(Assets.TEAMS, name);
+                    if (country >= 0) top = store.topByCountry(country, n);
+                    else if (team >= 0) top = store.topByTeam(team, n);
+                    else {
+                        System.out.println("no country or team called " + name);
+                        return 1;
+                    }
+                    double us = (System.nanoTime() - start) / 1e3;
+                    System.out.printf("top %d for %s (%d races stored, looked up in %.0fus)%n", top.size(), name, store.count(), us);
+                    for (int i = 0; i < top.size(); i++) System.out.println((i + 1) + ". " + top.get(i));
+                    return 0;
+                } finally {
+                    store.close();
+                }
+            } catch (IOException e) {
+                System.out.println("error: " + e.getMessage());
+                return 1;
+            }
+        }
+    }
+
+    // ── LEADERBOARD ────────────────────────────────────────────────────────────
+    // the best K scores on every track, kept as a small min-heap each so the worst of the
+    // top K is always at [0]. warmed up at startup from the per country lists in scores.idx,
+    // then scores.dat is mapped and only the races the index doesn't cover yet are read
+    // (score and country out of each record). without an index every record is read, which
+    // takes 20-80ms for a million races, with one it is about a millisecond
+    private static final class Leaderboard {
+        static final int K = 10;
+
+        private final int[][] heap = new int[ScoreStore.COUNTRIES.length][K];
+        private final int[] size = new int[ScoreStore.COUNTRIES.length];
+        private long loaded;     // races in scores.dat at startup
+        private long fromIndex;  // how many of them came from scores.idx
+        private long loadNanos;
+
+        static Leaderboard load() { return load(new File("scores.dat"), new File("scores.idx")); }
+
+        static Leaderboard load(File file, File indexFile) {
+            long start = System.nanoTime();
+            Leaderboard board = new Leaderboard();
+            if (file.exists()) {
+                try (FileChannel ch = FileChannel.open(file.toPath(), StandardOpenOption.READ)) {
+                    board.scan(ch, indexFile);
+                } catch (IOException e) {
+                    System.out.println("error loading leaderboard: " + e.getMessage());
+                }
+            }
+            board.loadNanos = System.nanoTime() - start;
+            return board;
+        }
+
+        // a mapping can't be bigger than 2GB so a huge file is read a window at a time
+        private void scan(FileChannel ch, File indexFile) throws IOException {
+            long size = ch.size();
+            if (size < ScoreStore.HEADER) return;
+            ByteBuffer header = ByteBuffer.allocate(ScoreStore.HEADER);
+            ch.read(header, 0);
+            if (header.getInt(0) != ScoreStore.MAGIC || header.getInt(8) != ScoreStore.RECORD) {
+                System.out.println("scores.dat is not a score file, leaderboard is empty");
+                return;
+            }
+            long records = (size - ScoreStore.HEADER) / ScoreStore.RECORD;
+            long covered = ScoreStore.readCountryTops(indexFile, records, this);
+            long perWindow = Integer.MAX_VALUE / ScoreStore.RECORD;
+            for (long first = covered; first < records; first += perWindow) {
+                int n = (int) Math.min(perWindow, records - first);
+                MappedByteBuffer map = ch.map(FileChannel.MapMode.READ_ONLY,
+                        ScoreStore.HEADER + first * ScoreStore.RECORD, (long) n * ScoreStore.RECORD);
+                int end = n * ScoreStore.RECORD;
+                for (int pos = 0; pos < end; pos += ScoreStore.RECORD) {
+                    add(map.get(pos + 6), map.getInt(pos)); // see ScoreStore.encode for the layout
+                }
+            }
+            loaded = records;
+            fromIndex = covered;
+        }
+
+        // O(log K): only a score better than the worst one kept gets in
+        void add(int country, int score) {
+            if (country < 0 || country >= heap.length) return;
+            int[] h = heap[country];
+            int n = size[country];
+            if (n < K) {
+                int i = n;
+                while (i > 0 && h[(i - 1) / 2] > score) {
+                    h[i] = h[(i - 1) / 2];
+                    i = (i - 1) / 2;
+                }
+                h[i] = score;
+                size[country] = n + 1;
+            } else if (score > h[0]) {
+                int i = 0;
+                while (true) {
+                    int c = 2 * i + 1;
+                    if (c >= K) break;
+                    if (c + 1 < K && h[c + 1] < h[c]) c++;
+                    if (h[c] >= score) break;
+                    h[i] = h[c];
+                    i = c;
+                }
+                h[i] = score;
+            }
+        }
+
+        // where this score would be on the track, 1 to K, or 0 if it isn't in the top K.
+        // a score has to beat an equal one to go ahead of it
+        int position(int country, int score) {
+            if (country < 0 || country >= heap.length) return 0;
+            int ahead = 0;
+            int[] h = heap[country];
+            for (int i = 0; i < size[country]; i++) {
+                if (h[i] >= score) ahead++;
+            }
+            return ahead < K ? ahead + 1 : 0;
+        }
+
+        // best first
+        int[] top(int country) {
+            int[] out = Arrays.copyOf(heap[country], size[country]);
+            Arrays.sort(out);
+            for (int i = 0, j = out.length - 1; i < j; i++, j--) {
+                int t = out[i];
+                out[i] = out[j];
+                out[j] = t;
+            }
+            return out;
+        }
+
+        long loaded() { return loaded; }
+        long fromIndex() { return fromIndex; }
+        long loadNanos() { return loadNanos; }
+    }
+
+    // ── ACCOUNTS ───────────────────────────────────────────────────────────────
+    // passwords are never stored, only a PBKDF2 hash of them with a random salt per user.
+    // hashing is slow on purpose (a few hundred ms) so it never runs on the EDT
+    private static final class Passwords {
+        static final int ITERATIONS = Integer.getInteger("minif1.pbkdf2Iterations", 210_000);
+        static final int SALT_BYTES = 16;
+        static final int HASH_BYTES = 32;
+        private static final SecureRandom RANDOM = new SecureRandom();
+
+        static byte[] newSalt() {
+            byte[] salt = new byte[SALT_BYTES];
+            RANDOM.nextBytes(salt);
+            return salt;
+        }
+
+        static byte[] hash(char[] password, byte[] salt, int iterations) {
+            PBEKeySpec spec = new PBEKeySpec(password, salt, iterations, HASH_BYTES * 8);
+            try {
+                return SecretKeyFactory.getInstance("PBKDF2WithHmacSHA256").generateSecret(spec).getEncoded();
+            } catch (GeneralSecurityException e) {
+                throw new IllegalStateException("PBKDF2WithHmacSHA256 is not available", e);
+            } finally {
+                spec.clearPassword();
+            }
+        }
+
+        static boolean matches(char[] password, UserStore.Credentials c) {
+            // compares every byte whatever the result, so the time doesnt give anything away
+            return MessageDigest.isEqual(hash(password, c.salt, c.iterations), c.hash);
+        }
+    }
+
+    // users.dat is a hash table on disk: fixed size slots, the username picks the slot and
+    // clashes go to the next free one. finding a user reads one or two slots instead of
+    // loading every account. the table doubles (into a new file that is renamed over the
+    // old one) when it gets half full. one lock for everything, reads come from the auth
+    // thread and writes from the persistence thread
+    private static final class UserStore {
+        private static final int MAGIC = 0x4D465531; // "MFU1"
+        private static final int VERSION = 1;
+        private static final int HEADER = 32;
+        private static final int SLOT = 128;
+        static final int MAX_NAME_BYTES = 46;
+        private static final int FIRST_CAPACITY = 1024;
+
+        // slot layout: used byte, name length byte, name (46 bytes of utf-8),
+        // iterations int, salt, hash, then spare bytes
+        private static final int NAME_AT = 2;
+        private static final int ITERATIONS_AT = NAME_AT + MAX_NAME_BYTES;
+        private static final int SALT_AT = ITERATIONS_AT + 4;
+        private static final int HASH_AT = SALT_AT + Passwords.SALT_BYTES;
+
+        static final class Credentials {
+            final String name;
+            final byte[] salt;
+            final byte[] hash;
+            final int iterations;
+
+            Credentials(String name, byte[] salt, byte[] hash, int iterations) {
+                this.name = name;
+                this.salt = salt;
+                this.hash = hash;
+                this.iterations = iterations;
+            }
+        }
+
+        private final File file;
+        private FileChannel ch;
+        private int capacity;
+        private int count;
+        private final ByteBuffer slot = ByteBuffer.allocate(SLOT);
+
+        private UserStore(File file) throws IOException {
+            this.file = file;
+            boolean fresh = !file.exists() || file.length() < HEADER;
+            ch = FileChannel.open(file.toPath(), StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE);
+            if (fresh) {
+                create(ch, FIRST_CAPACITY);
+                capacity = FIRST_CAPACITY;
+            } else {
+                ByteBuffer header = ByteBuffer.allocate(HEADER);
+                ch.read(header, 0);
+                if (header.getInt(0) != MAGIC || header.getInt(4) != VERSION || header.getInt(8) != SLOT) {
+                    ch.close();
+                    throw new IOException(file + " is not a user file");
+                }
+                capacity = header.getInt(12);
+                count = header.getInt(16);
+            }
+        }
+
+        // opens users.dat, moving the accounts out of an old plaintext users.txt the first time
+        static UserStore open(File file, File legacy) throws IOException {
+            UserStore store = new UserStore(file);
+            if (legacy.exists()) store.migrate(legacy);
+            return store;
+        }
+
+        synchronized int count() { return count; }
+
+        synchronized Credentials find(String name) throws IOException {
+            byte[] key = name.getBytes(StandardCharsets.UTF_8);
+            if (key.length > MAX_NAME_BYTES) return null;
+            for (int i = home(key, capacity), probes = 0; probes < capacity; i = (i + 1) & (capacity - 1), probes++) {
+                readSlot(ch, i, slot);
+                if (slot.get(0) == 0) return null;
+                if (sameName(slot, key)) return decode(slot, name);
+            }
+            return null;
+        }
+
+        // false if the name is taken (or too long)
+        synchronized boolean add(Credentials c) throws IOException {
+            byte[] key = c.name.getBytes(StandardCharsets.UTF_8);
+            if (key.length > MAX_NAME_BYTES) return false;
+            if ((count + 1) * 2 > capacity) grow();
+            int i = home(key, capacity);
+            while (true) {
+                readSlot(ch, i, slot);
+                if (slot.get(0) == 0) break;
+                if (sameName(slot, key)) return false;
+                i = (i + 1) & (capacity - 1);
+            }
+            slot.clear();
+            encode(c, key, slot);
+            writeFully(ch, slot, HEADER + (long) i * SLOT);
+            count++;
+            writeHeader(ch, capacity, count);
+            return true;
+        }
+
+        synchronized void sync() throws IOException {
+            ch.force(false);
+        }
+
+        synchronized void close() throws IOException {
+            ch.close();
+        }
+
+        // hashes the old accounts (on every core, it is slow) and deletes users.txt once
+        // they are safely in users.dat, so no plaintext password is left lying around
+        private void migrate(File legacy) throws IOException {
+            List<String[]> accounts = new ArrayList<>();
+            try (RecordReader r = RecordReader.open(legacy, ',').plain()) {
+                while (r.next()) {
+                    // everything after the first comma is the password, commas and all
+                    if (r.fields() > 1 && r.end(0) > r.start(0)) accounts.add(new String[]{r.field(0), r.rest(1)});
+                }
+            }
+            List<Credentials> hashed = accounts.parallelStream().map(a -> {
+                byte[] salt = Passwords.newSalt();
+                return new Credentials(a[0], salt, Passwords.hash(a[1].toCharArray(), salt, Passwords.ITERATIONS), Passwords.ITERATIONS);
+            }).collect(Collectors.toList());
+            int moved = 0;
+            for (Credentials c : hashed) {
+                if (add(c)) moved++;
+            }
+            sync();
+            if (!legacy.delete()) System.out.println("couldnt delete " + legacy);
+            System.out.println("moved " + moved + " accounts from " + legacy + " to " + file);
+        }
+
+        private void grow() throws IOException {
+            int newCapacity = capacity * 2;
+            File tmp = new File(file.getPath() + ".tmp");
+            try (FileChannel out = FileChannel.open(tmp.toPath(), StandardOpenOption.CREATE, StandardOpenOption.TRUNCATE_EXISTING,
+                    StandardOpenOption.READ, StandardOpenOption.WRITE)) {
+                create(out, newCapacity);
+                ByteBuffer probe = ByteBuffer.allocate(SLOT);
+                for (int i = 0; i < capacity; i++) {
+                    readSlot(ch, i, slot);
+                    if (slot.get(0) == 0) continue;
+                    byte[] key = new byte[slot.get(1)];
+                    slot.position(NAME_AT);
+                    slot.get(key);
+                    int j = home(key, newCapacity);
+                    while (true) {
+                        readSlot(out, j, probe);
+                        if (probe.get(0) == 0) break;
+                        j = (j + 1) & (newCapacity - 1);
+                    }
+                    slot.rewind();
+                    writeFully(out, slot, HEADER + (long) j * SLOT);
+                }
+                writeHeader(out, newCapacity, count);
+                out.force(true);
+            }
+            ch.close();
+            Files.move(tmp.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+            ch = FileChannel.open(file.toPath(), StandardOpenOption.READ, StandardOpenOption.WRITE);
+            capacity = newCapacity;
+        }
+
+        // an empty table is all zeros after the header, so setting the length is enough
+        private static void create(FileChannel out, int capacity) throws IOException {
+            out.truncate(0);
+            writeHeader(out, capacity, 0);
+            ByteBuffer last = ByteBuffer.allocate(1);
+            writeFully(out, last, HEADER + (long) capacity * SLOT - 1);
+        }
+
+        private static void writeHeader(FileChannel out, int capacity, int count) throws IOException {
+            ByteBuffer header = ByteBuffer.allocate(HEADER);
+            header.putInt(MAGIC).putInt(VERSION).putInt(SLOT).putInt(capacity).putInt(count).clear();
+            writeFully(out, header, 0);
+        }
+
+        // a fixed hash of the name bytes so the slots are the same on every jvm, mixed so
+        // similar names dont land next to each other
+        private static int home(byte[] key, int capacity) {
+            int h = 0;
+            for (byte b : key) h = 31 * h + b;
+            h *= 0x9E3779B9;
+            return (h ^ (h >>> 16)) & (capacity - 1);
+        }
+
+        private static boolean sameName(ByteBuffer slot, byte[] key) {
+            if (slot.get(1) != key.length) return false;
+            for (int i = 0; i < key.length; i++) {
+                if (slot.get(NAME_AT + i) != key[i]) return false;
+            }
+            return true;
+        }
+
+        private static void encode(Credentials c, byte[] key, ByteBuffer b) {
+            b.put(0, (byte) 1);
+            b.put(1, (byte) key.length);
+            for (int i = 0; i < key.length; i++) b.put(NAME_AT + i, key[i]);
+            b.putInt(ITERATIONS_AT, c.iterations);
+            for (int i = 0; i < Passwords.SALT_BYTES; i++) b.put(SALT_AT + i, c.salt[i]);
+            for (int i = 0; i < Passwords.HASH_BYTES; i++) b.put(HASH_AT + i, c.hash[i]);
+        }
+
+        private static Credentials decode(ByteBuffer b, String name) {
+            byte[] salt = new byte[Passwords.SALT_BYTES];
+            byte[] hash = new byte[Passwords.HASH_BYTES];
+            b.position(SALT_AT);
+            b.get(salt);
+            b.position(HASH_AT);
+            b.get(hash);
+            return new Credentials(name, salt, hash, b.getInt(ITERATIONS_AT));
+        }
+
+        private static void readSlot(FileChannel from, int i, ByteBuffer into) throws IOException {
+            into.clear();
+            long at = HEADER + (long) i * SLOT;
+            while (into.hasRemaining()) {
+                if (from.read(into, at + into.position()) < 0) throw new IOException("user file ended early");
+            }
+            into.clear();
+        }
+
+        private static void writeFully(FileChannel to, ByteBuffer b, long at) throws IOException {
+            long pos = at;
+            while (b.hasRemaining()) pos += to.write(b, pos);
+        }
+    }
+
+    // remembers who logged in recently so logging in again (back to login, a new race)
+    // doesnt pay for PBKDF2 again. only a keyed hash of the password is kept, with a key
+    // that only lives as long as the process, and entries go after -Dminif1.sessionMinutes
+    private static final class SessionCache {
+        private static final long TTL_NANOS = Long.getLong("minif1.sessionMinutes", 15) * 60_000_000_000L;
+
+        private static final class Session {
+            final byte[] tag;
+            final long expires;
+
+            Session(byte[] tag, long expires) {
+                this.tag = tag;
+                this.expires = expires;
+            }
+        }
+
+        private final HashMap<String, Session> sessions = new HashMap<>();
+        private final SecretKeySpec key;
+
+        SessionCache() {
+            byte[] k = new byte[32];
+            new SecureRandom().nextBytes(k);
+            key = new SecretKeySpec(k, "HmacSHA256");
+        }
+
+        synchronized void remember(String user, char[] password) {
+            sessions.put(user, new Session(tag(user, password), System.nanoTime() + TTL_NANOS));
+        }
+
+        synchronized boolean check(String user, char[] password) {
+            Session s = sessions.get(user);
+            if (s == null) return false;
+            if (System.nanoTime() - s.expires > 0) {
+                sessions.remove(user);
+                return false;
+            }
+            return MessageDigest.isEqual(s.tag, tag(user, password));
+        }
+
+        private byte[] tag(String user, char[] password) {
+            try {
+                Mac mac = Mac.getInstance("HmacSHA256");
+                mac.init(key);
+                mac.update(user.getBytes(StandardCharsets.UTF_8));
+                mac.update((byte) 0);
+                mac.update(new String(password).getBytes(StandardCharsets.UTF_8));
+                return mac.doFinal();
+            } catch (GeneralSecurityException e) {
+                throw new IllegalStateException("HmacSHA256 is not available", e);
+            }
+        }
+    }
+
+    // ── PERSISTENCE ────────────────────────────────────────────────────────────
+    // the only thread that writes users.dat and scores.dat. the UI just queues a write
+    // and carries on, so a slow sd card can't freeze the game over screen. whatever is
+    // waiting in the queue is written in one go, and the files are fsynced at most every
+    // -Dminif1.fsyncMs (default 1000, 0 = after every batch). flush() waits for all of it
+    // to be on disk, close() does that and stops the thread
+    private static final class Persistence {
+        private static final int QUEUE_SIZE = 256;
+        private static final long FSYNC_NANOS = Long.getLong("minif1.fsyncMs", 1000) * 1_000_000L;
+        private static final long CLOSE_TIMEOUT_MS = 5000;
+
+        private static final int SCORE = 0, USER = 1, FLUSH = 2, STOP = 3;
+
+        private static final class Job {
+            final int kind;
+            final ScoreStore.Entry entry;
+            final UserStore.Credentials user;
+            final CompletableFuture<Boolean> added; // for a new user, false if the name was taken
+            final CountDownLatch done;
+
+            Job(int kind, ScoreStore.Entry entry, UserStore.Credentials user, CompletableFuture<Boolean> added, CountDownLatch done) {
+                this.kind = kind;
+                this.entry = entry;
+                this.user = user;
+                this.added = added;
+                this.done = done;
+            }
+        }
+
+        private final BlockingQueue<Job> queue = new ArrayBlockingQueue<>(QUEUE_SIZE);
+        private final Thread thread = new Thread(this::run, "persistence");
+        private final AtomicBoolean closed = new AtomicBoolean();
+
+        // only used on the persistence thread
+        private ScoreStore scores;
+        // the auth thread reads accounts from it too, UserStore has its own lock
+        private UserStore users;
+        private boolean dirty;
+        private long lastSync = System.nanoTime();
+
+        Persistence() {
+            thread.setDaemon(true);
+            thread.start();
+        }
+
+        void saveScore(ScoreStore.Entry e) { submit(new Job(SCORE, e, null, null, null)); }
+
+        // completes with false if someone else got the name first
+        CompletableFuture<Boolean> saveUser(UserStore.Credentials c) {
+            CompletableFuture<Boolean> added = new CompletableFuture<>();
+            if (!submit(new Job(USER, null, c, added, null))) added.complete(false);
+            return added;
+        }
+
+        // opened by whoever needs it first, the first time that moves users.txt over
+        synchronized UserStore users() throws IOException {
+            if (users == null) users = UserStore.open(new File("users.dat"), new File("users.txt"));
+            return users;
+        }
+
+        // waits until everything queued so far is on disk
+        boolean flush() {
+            CountDownLatch done = new CountDownLatch(1);
+            if (!submit(new Job(FLUSH, null, null, null, done))) return false;
+            return await(done);
+        }
+
+        // flushes and stops the thread, safe to call more than once (window close and the shutdown hook)
+        void close() {
+            if (!closed.compareAndSet(false, true)) return;
+            CountDownLatch done = new CountDownLatch(1);
+            try {
+                queue.put(new Job(STOP, null, null, null, done));
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return;
+            }
+            await(done);
+        }
+
+        // blocks if the queue is full rather than dropping a score
+        private boolean submit(Job job) {
+            if (closed.get()) {
+                System.out.println("persistence is closed, write dropped");
+                return false;
+            }
+            try {
+                queue.put(job);
+                return true;
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return false;
+            }
+        }
+
+        private static boolean await(CountDownLatch done) {
+            try {
+                return done.await(CLOSE_TIMEOUT_MS, TimeUnit.MILLISECONDS);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return false;
+            }
+        }
+
+        private void run() {
+            List<Job> batch = new ArrayList<>();
+            boolean stop = false;
+            while (!stop) {
+                try {
+                    Job first;
+                    if (dirty) {
+                        long wait = lastSync + FSYNC_NANOS - System.nanoTime();
+                        first = wait > 0 ? queue.poll(wait, TimeUnit.NANOSECONDS) : queue.poll();
+                    } else {
+                        first = queue.take();
+                    }
+                    if (first != null) {
+                        batch.add(first);
+                        queue.drainTo(batch);
+                    }
+                } catch (InterruptedException e) {
+                    stop = true;
+                }
+
+                boolean syncNow = stop;
+                for (Job job : batch) {
+                    try {
+                        if (job.kind == SCORE) writeScore(job.entry);
+                        else if (job.kind == USER) job.added.complete(writeUser(job.user));
+                        else syncNow = true;
+                        if (job.kind == STOP) stop = true;
+                    } catch (IOException e) {
+                        System.out.println("error saving: " + e.getMessage());
+                        if (job.added != null) job.added.completeExceptionally(e);
+                    }
+                }
+                if (dirty && (syncNow || System.nanoTime() - lastSync >= FSYNC_NANOS)) sync();
+                for (Job job : batch) {
+                    if (job.done != null) job.done.countDown();
+                }
+                batch.clear();
+            }
+            closeFiles();
+        }
+
+        private void writeScore(ScoreStore.Entry e) throws IOException {
+            if (scores == null) scores = ScoreStore.open();
+            scores.append(e);
+            dirty = true;
+        }
+
+        private boolean writeUser(UserStore.Credentials c) throws IOException {
+            boolean added = users().add(c);
+            dirty |= added;
+            return added;
+        }
+
+        private void sync() {
+            try {
+                if (scores != null) scores.sync();
+                synchronized (this) {
+                    if (users != null) users.sync();
+                }
+            } catch (IOException e) {
+                System.out.println("error syncing: " + e.getMessage());
+            }
+            dirty = false;
+            lastSync = System.nanoTime();
+        }
+
+        private void closeFiles() {
+            try {
+                if (scores != null) scores.close();
+                synchronized (this) {
+                    if (users != null) users.close();
+                }
+            } catch (IOException e) {
+                System.out.println("error closing: " + e.getMessage());
+            }
+        }
+    }
+
+    // ── NETWORK ────────────────────────────────────────────────────────────────
+    // races between cabinets on a LAN. the server runs the only real Simulation and every
+    // tick sends each client a snapshot of the road, as a delta against the last snapshot
+    // that client said it got. clients send their keys (the last few every time, so one
+    // lost packet doesnt lose a key), move their own car straight away, and put it back
+    // where the server says once the server has caught up with those keys
+    private static final class Net {
+        static final int PORT = 7171;
+        static final int MAGIC = 0x4D46314E; // "MF1N"
+        static final int MAX_PACKET = 4096;
+        static final int HISTORY = 64;       // snapshots kept to delta against, about a second
+        static final int REDUNDANCY = 12;    // inputs resent in every packet
+        static final long TIMEOUT_NANOS = 3_000_000_000L;
+
+        // client to server
+        static final byte HELLO = 1, INPUT = 2, BYE = 3;
+        // server to client
+        static final byte WELCOME = 10, SNAPSHOT = 11;
+
+        // the launch field of INPUT, otherwise it is the reaction time in ms
+        static final short NO_LAUNCH = -1, JUMPED = -2;
+
+        static final GamePhase[] PHASES = GamePhase.values(); // values() copies the array every call
+
+        private Net() {}
+
+        static void putVarInt(ByteBuffer b, int v) {
+            while ((v & ~0x7F) != 0) {
+                b.put((byte) ((v & 0x7F) | 0x80));
+                v >>>= 7;
+            }
+            b.put((byte) v);
+        }
+
+        static int getVarInt(ByteBuffer b) {
+            int v = 0;
+            for (int shift = 0; shift < 35; shift += 7) {
+                int x = b.get();
+                v |= (x & 0x7F) << shift;
+                if ((x & 0x80) == 0) return v;
+            }
+            throw new IllegalArgumentException("bad varint");
+        }
+
+        // small negative numbers as small varints
+        static void putSigned(ByteBuffer b, int v) {
+            putVarInt(b, (v << 1) ^ (v >> 31));
+        }
+
+        static int getSigned(ByteBuffer b) {
+            int v = getVarInt(b);
+            return (v >>> 1) ^ -(v & 1);
+        }
+
+        // "host", "host:port" or ":port"
+        static InetSocketAddress address(String s) {
+            int colon = s.lastIndexOf(':');
+            String host = colon < 0 ? s : s.substring(0, colon);
+            int port = colon < 0 ? PORT : Integer.parseInt(s.substring(colon + 1));
+            return new InetSocketAddress(host.isEmpty() ? "127.0.0.1" : host, port);
+        }
+    }
+
+    // a DatagramChannel that can pretend to be a bad network: -Dminif1.netLatencyMs holds
+    // back every packet it sends for that long and -Dminif1.netLoss drops that percentage.
+    // both ends of a loopback test have one, so the delay is paid each way
+    private static final class NetLink implements AutoCloseable {
+        private static final class Delayed {
+            final byte[] data = new byte[Net.MAX_PACKET];
+            int length;
+            SocketAddress to;
+            long due;
+        }
+
+        final DatagramChannel channel;
+        private final long latencyNanos;
+        private final int lossPercent;
+        private final Random random;
+        private final ArrayDeque<Delayed> waiting = new ArrayDeque<>();
+        private final ArrayDeque<Delayed> spare = new ArrayDeque<>();
+        private final ByteBuffer resend = ByteBuffer.allocateDirect(Net.MAX_PACKET);
+
+        long sentPackets, sentBytes, dropped;
+
+        NetLink(SocketAddress bind, long latencyMs, int lossPercent, long seed) throws IOException {
+            channel = DatagramChannel.open();
+            channel.configureBlocking(false);
+            channel.bind(bind);
+            this.latencyNanos = latencyMs * 1_000_000L;
+            this.lossPercent = lossPercent;
+            this.random = new Random(seed);
+        }
+
+        // with the delay and loss from the system properties
+        static NetLink open(SocketAddress bind, long seed) throws IOException {
+            return new NetLink(bind, Long.getLong("minif1.netLatencyMs", 0), Integer.getInteger("minif1.netLoss", 0), seed);
+        }
+
+        // sends from packet's position to its limit
+        void send(ByteBuffer packet, SocketAddress to) throws IOException {
+            if (lossPercent > 0 && random.nextInt(100) < lossPercent) {
+                dropped++;
+                return;
+            }
+            sentPackets++;
+            sentBytes += packet.remaining();
+            if (latencyNanos == 0) {
+                channel.send(packet, to);
+                return;
+            }
+            Delayed d = spare.isEmpty() ? new Delayed() : spare.poll();
+            d.length = packet.remaining();
+            packet.get(d.data, 0, d.length);
+            d.to = to;
+            d.due = System.nanoTime() + latencyNanos;
+            waiting.add(d);
+        }
+
+        // sends the held back packets whose time has come, call it often
+        void flush() throws IOException {
+            long now = System.nanoTime();
+            while (!waiting.isEmpty() && waiting.peek().due - now <= 0) {
+                Delayed d = waiting.poll();
+                resend.clear();
+                resend.put(d.data, 0, d.length).flip();
+                channel.send(resend, d.to);
+                d.to = null;
+                spare.add(d);
+            }
+        }
+
+        // how long until flush() has something to send, Long.MAX_VALUE if nothing is waiting
+        long nanosToNextSend() {
+            return waiting.isEmpty() ? Long.MAX_VALUE : Math.max(0, waiting.peek().due - System.nanoTime());
+        }
+
+        // the next packet flipped ready to read, or null if there is none
+        SocketAddress receive(ByteBuffer into) throws IOException {
+            into.clear();
+            SocketAddress from = channel.receive(into);
+            into.flip();
+            return from;
+        }
+
+        @Override
+        public void close() throws IOException {
+            channel.close();
+        }
+    }
+
+    // what a client needs to draw one tick of a network race. the obstacles are kept in
+    // uid order, so a delta is one walk over this and the base side by side: an obstacle
+    // the base already had costs its uid gap and how far it moved, a couple of bytes
+    private static final class Snapshot {
+        static final int SHIELD = 1, OUT = 2, LAUNCHED = 4; // driver flags
+
+        int tick = -1; // the server's tick, -1 for an empty slot
+        int race;
+        int phase;     // GamePhase ordinal
+        int ticksSinceGo;
+        int track;     // Definitions id, the road is made from it and roadSeed
+        long roadSeed;
+        int distance;  // how far the road has scrolled
+
+        int players;
+        final int[] px = new int[Simulation.MAX_DRIVERS], py = new int[Simulation.MAX_DRIVERS];
+        final int[] score = new int[Simulation.MAX_DRIVERS], flags = new int[Simulation.MAX_DRIVERS];
+        final int[] speed = new int[Simulation.MAX_DRIVERS];
+        final int[] sprite = new int[Simulation.MAX_DRIVERS], number = new int[Simulation.MAX_DRIVERS];
+        // a bit per PowerUp type that is on, and the ticks (or charges) each has left
+        final int[] effects = new int[Simulation.MAX_DRIVERS];
+        final int[] left = new int[Simulation.MAX_DRIVERS * PowerUp.COUNT];
+
+        int count;
+        int[] uid = new int[64], x = new int[64], y = new int[64], look = new int[64]; // look is the sprite, -1 - type for a power up
+        private long[] keys = new long[64];
+
+        void capture(Simulation sim, int tick, int race, int[] sprites, int[] numbers) {
+            this.tick = tick;
+            this.race = race;
+            phase = sim.phase().ordinal();
+            ticksSinceGo = (int) sim.ticksSinceGo();
+            track = sim.track().id;
+            roadSeed = sim.road.seed();
+            distance = (int) sim.road.distance();
+            players = sim.players();
+            for (int p = 0; p < players; p++) {
+                Simulation.Driver d = sim.drivers[p];
+                px[p] = d.car.x;
+                py[p] = d.car.y;
+                score[p] = d.score;
+                flags[p] = (d.shield ? SHIELD : 0) | (d.out ? OUT : 0) | (d.launched ? LAUNCHED : 0);
+                speed[p] = d.moveSpeed;
+                sprite[p] = sprites[p];
+                number[p] = numbers[p];
+                effects[p] = 0;
+                for (int t = 0; t < PowerUp.COUNT; t++) {
+                    left[p * PowerUp.COUNT + t] = (int) sim.effectLeft(d, t);
+                    if (left[p * PowerUp.COUNT + t] > 0) effects[p] |= 1 << t;
+                }
+            }
+
+            ObstacleField f = sim.obstacles;
+            ensure(f.count);
+            count = f.count;
+            for (int i = 0; i < count; i++) keys[i] = (long) f.uid[i] << 32 | i;
+            Arrays.sort(keys, 0, count);
+            for (int k = 0; k < count; k++) {
+                int i = (int) keys[k];
+                uid[k] = f.uid[i];
+                x[k] = f.x[i];
+                y[k] = f.y[i];
+                look[k] = f.kind[i] == ObstacleField.POWER_UP ? -1 - f.sprite[i] : f.sprite[i];
+            }
+        }
+
+        private void ensure(int n) {
+            if (n <= uid.length) return;
+            int cap = Math.max(n, uid.length * 2);
+            uid = new int[cap];
+            x = new int[cap];
+            y = new int[cap];
+            look = new int[cap];
+            keys = new long[cap];
+        }
+
+        // base is what the client already has from the same race, or null to send everything
+        void write(ByteBuffer out, Snapshot base) {
+            Net.putVarInt(out, race);
+            out.put((byte) phase);
+            Net.putSigned(out, ticksSinceGo);
+            if (base != null) { // the same race, so the same road
+                Net.putSigned(out, distance - base.distance);
+            } else {
+                Net.putVarInt(out, track);
+                out.putLong(roadSeed);
+                Net.putVarInt(out, distance);
+            }
+
+            out.put((byte) players);
+            for (int p = 0; p < players; p++) {
+                if (base != null && p < base.players) {
+                    Net.putSigned(out, px[p] - base.px[p]);
+                    Net.putSigned(out, py[p] - base.py[p]);
+                    Net.putSigned(out, score[p] - base.score[p]);
+                } else {
+                    out.put((byte) sprite[p]);
+                    out.put((byte) number[p]);
+                    out.putShort((short) px[p]);
+                    out.putShort((short) py[p]);
+                    Net.putVarInt(out, score[p]);
+                }
+                out.put((byte) (flags[p] | speed[p] << 3));
+                out.put((byte) effects[p]);
+                for (int t = 0; t < PowerUp.COUNT; t++) {
+                    if ((effects[p] & 1 << t) != 0) Net.putVarInt(out, left[p * PowerUp.COUNT + t]);
+                }
+            }
+
+            Net.putVarInt(out, count);
+            int prevUid = -1, j = 0;
+            for (int k = 0; k < count; k++) {
+                Net.putVarInt(out, uid[k] - prevUid - 1);
+                prevUid = uid[k];
+                if (base != null) {
+                    while (j < base.count && base.uid[j] < uid[k]) j++;
+                    if (j < base.count && base.uid[j] == uid[k]) {
+                        Net.putSigned(out, x[k] - base.x[j]);
+                        Net.putSigned(out, y[k] - base.y[j]);
+                        continue;
+                    }
+                }
+                out.putShort((short) x[k]);
+                out.putShort((short) y[k]);
+                out.put((byte) look[k]);
+            }
+        }
+
+        boolean drs(int p) {
+            return (effects[p] & 1 << PowerUp.DRS) != 0;
+        }
+
+        // the other half of write(), the client has to pass the same base the server used
+        void read(ByteBuffer in, int tick, Snapshot base) {
+            this.tick = tick;
+            race = Net.getVarInt(in);
+            phase = in.get();
+            ticksSinceGo = Net.getSigned(in);
+            if (base != null) {
+                track = base.track;
+                roadSeed = base.roadSeed;
+                distance = base.distance + Net.getSigned(in);
+            } else {
+                track = Net.getVarInt(in);
+                roadSeed = in.getLong();
+                distance = Net.getVarInt(in);
+            }
+
+            players = in.get();
+            for (int p = 0; p < players; p++) {
+                if (base != null && p < base.players) {
+                    sprite[p] = base.sprite[p];
+                    number[p] = base.number[p];
+                    px[p] = base.px[p] + Net.getSigned(in);
+                    py[p] = base.py[p] + Net.getSigned(in);
+                    score[p] = base.score[p] + Net.getSigned(in);
+                } else {
+                    sprite[p] = in.get();
+                    number[p] = in.get();
+                    px[p] = in.getShort();
+                    py[p] = in.getShort();
+                    score[p] = Net.getVarInt(in);
+                }
+                int b = in.get() & 0xFF;
+                flags[p] = b & 7;
+                speed[p] = b >>> 3;
+                effects[p] = in.get() & 0xFF;
+                for (int t = 0; t < PowerUp.COUNT; t++) {
+                    left[p * PowerUp.COUNT + t] = (effects[p] & 1 << t) != 0 ? Net.getVarInt(in) : 0;
+                }
+            }
+
+            int n = Net.getVarInt(in);
+            ensure(n);
+            count = n;
+            int prevUid = -1, j = 0;
+            for (int k = 0; k < n; k++) {
+                uid[k] = prevUid + 1 + Net.getVarInt(in);
+                prevUid = uid[k];
+                if (base != null) {
+                    while (j < base.count && base.uid[j] < uid[k]) j++;
+                    if (j < base.count && base.uid[j] == uid[k]) {
+                        x[k] = base.x[j] + Net.getSigned(in);
+                        y[k] = base.y[j] + Net.getSigned(in);
+                        look[k] = base.look[j];
+                        continue;
+                    }
+                }
+                x[k] = in.getShort();
+                y[k] = in.getShort();
+                look[k] = in.get();
+            }
+        }
+    }
+
+    // the authoritative race for network players, run with: java MiniF1 --server [port] [players].
+    // one thread does everything: waits on the channel between ticks, steps the Simulation
+    // with whatever keys have arrived, and sends every client its snapshot
+    private static final class GameServer implements Runnable {
+        private static final long LOBBY_NANOS = 5_000_000_000L;  // fewer than minPlayers start after this
+        private static final long RESULTS_NANOS = 5_000_000_000L; // the finished race stays up this long
+        private static final int LAUNCH_WAIT_MS = 3000;          // after GO, anyone still sitting there goes
+        private static final int MAX_BACKLOG = 8;                // inputs queued beyond this are skipped
+        private static final int MAX_RTT_MS = 300;               // a LAN, a slower link counts against you not for you
+
+        private static final class Client {
+            final SocketAddress address;
+            final String name;
+            final int sprite, number;
+            int driver = -1;      // in the current race, -1 while waiting for the next one
+            int lastSeq = 0;      // newest input that arrived
+            int appliedSeq = 0;   // newest input used
+            final int[] queued = new int[64]; // input bits by seq & 63
+            int held;             // used again when nothing new has arrived
+            int launch = Net.NO_LAUNCH;
+            int ackTick = -1;     // newest snapshot the client has, the base for its next delta
+            double rttTicks = 0;  // round trip, smoothed, from how old the snapshot each INPUT acks is
+            long lastHeard;
+
+            Client(SocketAddress address, String name, int sprite, int number) {
+                this.address = address;
+                this.name = name;
+                this.sprite = sprite;
+                this.number = number;
+            }
+        }
+
+        private final int tickRate;
+        private final long tickNanos;
+        private final int minPlayers;
+        private final NetLink link;
+        private final Selector selector;
+        private final Simulation sim;
+        private final Random seeds = new Random();
+        private final List<Client> clients = new ArrayList<>();
+        private final HashMap<SocketAddress, Client> byAddress = new HashMap<>();
+        private final Client[] racers = new Client[Simulation.MAX_DRIVERS];
+        private final int[] inputs = new int[Simulation.MAX_DRIVERS];
+        private final int[] sprites = new int[Simulation.MAX_DRIVERS], numbers = new int[Simulation.MAX_DRIVERS];
+        private final Snapshot[] history = new Snapshot[Net.HISTORY];
+        private final ByteBuffer in = ByteBuffer.allocateDirect(Net.MAX_PACKET);
+        private final ByteBuffer out = ByteBuffer.allocateDirect(Net.MAX_PACKET);
+        private volatile boolean running = true;
+
+        private int tick = 0;
+        private int race = 0;
+        private boolean racing = false;
+        private int goTick = -1;        // the first snapshot showing the lights out, -1 before that
+        private long waitingSince = -1; // when the lobby got its first player
+        private long finishedAt = -1;
+
+        // what the loopback test reports
+        long ticks, busyNanos, maxTickNanos;
+        long snapshots, fullSnapshots, snapshotBytes;
+        int races;
+
+        GameServer(int tickRate, int minPlayers, NetLink link, SpriteMask[] carMasks, SpriteMask powerUpMask) throws IOException {
+            this.tickRate = tickRate;
+            this.tickNanos = 1_000_000_000L / tickRate;
+            this.minPlayers = minPlayers;
+            this.link = link;
+            selector = Selector.open();
+            link.channel.register(selector, SelectionKey.OP_READ);
+            sim = new Simulation(tickRate, carMasks, powerUpMask);
+            for (int i = 0; i < history.length; i++) history[i] = new Snapshot();
+        }
+
+        static int run(String[] args) {
+            int port = args.length > 1 ? Integer.parseInt(args[1]) : Net.PORT;
+            int players = args.length > 2 ? Integer.parseInt(args[2]) : 2;
+            Assets assets = Assets.load();
+            try (NetLink link = NetLink.open(new InetSocketAddress(port), System.nanoTime())) {
+                GameServer server = new GameServer(Integer.getInteger("minif1.tps", 60), players, link,
+                        assets.carMasks(), assets.powerUpMask());
+                System.out.println("server on port " + port + ", races start with " + players + " players (or after 5s)");
+                server.run();
+                return 0;
+            } catch (IOException e) {
+                System.out.println("server error: " + e.getMessage());
+                return 1;
+            }
+        }
+
+        void stop() {
+            running = false;
+            selector.wakeup();
+        }
+
+        @Override
+        public void run() {
+            long next = System.nanoTime();
+            try {
+                while (running) {
+                    next += tickNanos;
+                    // until the tick is due, hand over packets as they come and send the held back ones
+                    while (running) {
+                        long wait = Math.min(next - System.nanoTime(), link.nanosToNextSend());
+                        if (next - System.nanoTime() <= 0) break;
+                        if (wait > 0) selector.select(Math.max(1, wait / 1_000_000));
+                        selector.selectedKeys().clear();
+                        receive();
+                        link.flush();
+                    }
+                    long start = System.nanoTime();
+                    if (start - next > tickNanos * 5) next = start; // fell well behind, dont try to catch up
+                    tick(start);
+                    long took = System.nanoTime() - start;
+                    ticks++;
+                    busyNanos += took;
+                    maxTickNanos = Math.max(maxTickNanos, took);
+                }
+            } catch (IOException e) {
+                System.out.println("server error: " + e.getMessage());
+            } finally {
+                try {
+                    selector.close();
+                } catch (IOException ignored) {
+                }
+            }
+        }
+
+        private void receive() throws IOException {
+            SocketAddress from;
+            while ((from = link.receive(in)) != null) {
+                try {
+                    packet(from, in);
+                } catch (RuntimeException e) { // a short or garbled packet, ignore it
+                }
+            }
+        }
+
+        private void packet(SocketAddress from, ByteBuffer in) throws IOException {
+            byte type = in.get();
+            Client c = byAddress.get(from);
+            long now = System.nanoTime();
+            if (type == Net.HELLO) {
+                if (in.getInt() != Net.MAGIC) return;
+                int sprite = Math.floorMod(in.get(), Assets.TEAMS.length);
+                int number = in.get();
+                byte[] name = new byte[Math.min(in.get() & 0xFF, in.remaining())];
+                in.get(name);
+                if (c == null) {
+                    if (clients.size() >= Simulation.MAX_DRIVERS) return; // full, they keep asking
+                    c = new Client(from, new String(name, StandardCharsets.UTF_8), sprite, number);
+                    clients.add(c);
+                    byAddress.put(from, c);
+                    System.out.println(c.name + " joined from " + from);
+                }
+                // a HELLO only comes before the first input, so this is a client starting its
+                // seqs from 0 again (maybe a new one from the same address) with no snapshots
+                c.lastSeq = c.appliedSeq = 0;
+                c.ackTick = -1;
+                c.lastHeard = now;
+                out.clear();
+                out.put(Net.WELCOME).putInt(tickRate).flip();
+                link.send(out, from);
+                return;
+            }
+            if (c == null) return;
+            c.lastHeard = now;
+            if (type == Net.BYE) {
+                drop(c);
+                return;
+            }
+            if (type != Net.INPUT) return;
+
+            int ackTick = in.getInt();
+            int firstSeq = in.getInt();
+            int n = in.get();
+            // further ahead than the ring holds is garbage, filling the gap would go round it
+            // for ever and overwrite everything in it. seqs are compared by difference so one
+            // near Integer.MAX_VALUE is far ahead, not behind
+            int ahead = firstSeq - c.lastSeq;
+            if (n < 0 || ahead > c.queued.length || ahead + n - 1 > c.queued.length) return;
+            if (ackTick > tick) return; // a snapshot we havent sent yet
+            if (ackTick >= 0) c.rttTicks += (tick - ackTick - c.rttTicks) / 8;
+            c.ackTick = Math.max(c.ackTick, ackTick);
+            for (int k = 0; k < n; k++) {
+                int bits = Net.getVarInt(in);
+                int seq = firstSeq + k;
+                // anything between the last one we had and this packet got lost on the way
+                while (seq - c.lastSeq > 0) c.queued[++c.lastSeq & 63] = bits;
+            }
+            short launch = in.getShort();
+            if (launch >= 0) launch = checkReaction(c, ackTick, launch);
+            if (launch != Net.NO_LAUNCH) c.launch = launch;
+        }
+
+        // the reaction time is the client's to measure, but it cant be quicker than the lights
+        // going out here, the snapshot getting there and the launch coming back. one sent
+        // before the client had any snapshot with the lights out is a guess, so a jump start
+        private short checkReaction(Client c, int ackTick, short ms) {
+            if (goTick < 0 || ackTick < goTick) return Net.JUMPED;
+            double rtt = Math.min(c.rttTicks, MAX_RTT_MS * tickRate / 1000.0);
+            long floor = (long) ((tick - goTick - rtt - 1) * 1000 / tickRate); // a tick spare, for when it arrived in one
+            return (short) Math.max(ms, Math.min(Short.MAX_VALUE, floor));
+        }
+
+        private void drop(Client c) {
+            System.out.println(c.name + " left");
+            clients.remove(c);
+            byAddress.remove(c.address);
+            if (c.driver >= 0 && racing) {
+                racers[c.driver] = null;
+                sim.retire(c.driver);
+            }
+        }
+
+        private void tick(long now) throws IOException {
+            for (int i = clients.size() - 1; i >= 0; i--) {
+                if (now - clients.get(i).lastHeard > Net.TIMEOUT_NANOS) drop(clients.get(i));
+            }
+
+            if (!racing) {
+                if (clients.isEmpty()) {
+                    waitingSince = -1;
+                    return;
+                }
+                if (waitingSince < 0) waitingSince = now;
+                if (clients.size() < minPlayers && now - waitingSince < LOBBY_NANOS) return;
+                startRace();
+            }
+
+            tick++;
+            GamePhase phase = sim.phase();
+            for (int p = 0; p < sim.players(); p++) {
+                Client c = racers[p];
+                if (c == null) {
+                    inputs[p] = 0;
+                    continue;
+                }
+                if (c.lastSeq - c.appliedSeq > MAX_BACKLOG) c.appliedSeq = c.lastSeq - MAX_BACKLOG;
+                if (c.appliedSeq < c.lastSeq) c.held = c.queued[++c.appliedSeq & 63];
+                inputs[p] = c.held & ~Simulation.SPACE; // the start goes through launch instead
+                if (c.launch != Net.NO_LAUNCH) {
+                    sim.launch(p, c.launch);
+                    c.launch = Net.NO_LAUNCH;
+                }
+                // nobody waits forever for someone who isnt pressing
+                if (phase == GamePhase.REACTION_GO && sim.ticksSinceGo() * 1000 / tickRate > LAUNCH_WAIT_MS) sim.launch(p, -1);
+            }
+            sim.step(inputs);
+            if (goTick < 0 && sim.phase() == GamePhase.REACTION_GO) goTick = tick;
+
+            if (sim.phase() == GamePhase.FINISHED) {
+                if (finishedAt < 0) {
+                    finishedAt = now;
+                    races++;
+                    printResults();
+                } else if (now - finishedAt > RESULTS_NANOS) {
+                    racing = false;
+                    waitingSince = now - LOBBY_NANOS; // the next race can start straight away
+                }
+            }
+
+            Snapshot snap = history[tick & (Net.HISTORY - 1)];
+            snap.capture(sim, tick, race, sprites, numbers);
+            for (int i = 0; i < clients.size(); i++) send(clients.get(i), snap);
+        }
+
+        private void startRace() {
+            race++;
+            int players = 0;
+            for (Client c : clients) {
+                c.driver = players;
+                c.launch = Net.NO_LAUNCH;
+                c.appliedSeq = c.lastSeq; // old keys are no use now
+                c.held = 0;
+                racers[players] = c;
+                sprites[players] = c.sprite;
+                numbers[players] = c.number;
+                players++;
+            }
+            Arrays.fill(racers, players, racers.length, null);
+            Definitions.Track[] tracks = Definitions.get().seasons()[0].tracks(); // a different one every race
+            sim.setTrack(tracks[Math.floorMod(race - 1, tracks.length)]);
+            sim.reset(seeds.nextLong(), Arrays.copyOf(sprites, players));
+            racing = true;
+            goTick = -1;
+            finishedAt = -1;
+            System.out.println("race " + race + " starting in " + sim.track().name + " with " + players + (players == 1 ? " player" : " players"));
+        }
+
+        private void printResults() {
+            StringBuilder sb = new StringBuilder("race " + race + " finished:");
+            for (int p = 0; p < sim.players(); p++) {
+                Client c = racers[p];
+                sb.append("  ").append(c == null ? "(left)" : c.name).append(' ').append(sim.drivers[p].score);
+            }
+            System.out.println(sb);
+        }
+
+        // the snapshot as a delta against the newest one the client has, if we still have it
+        private void send(Client c, Snapshot snap) throws IOException {
+            Snapshot base = null;
+            if (c.ackTick >= 0 && tick - c.ackTick < Net.HISTORY) {
+                Snapshot h = history[c.ackTick & (Net.HISTORY - 1)];
+                if (h.tick == c.ackTick && h.race == snap.race) base = h;
+            }
+            boolean inRace = c.driver >= 0 && c.driver < sim.players() && racers[c.driver] == c;
+            out.clear();
+            out.put(Net.SNAPSHOT);
+            out.putInt(snap.tick);
+            out.putInt(base == null ? -1 : base.tick);
+            out.put((byte) (inRace ? c.driver : -1));
+            out.putInt(c.appliedSeq);
+            snap.write(out, base);
+            out.flip();
+            snapshots++;
+            if (base == null) fullSnapshots++;
+            snapshotBytes += out.remaining();
+            link.send(out, c.address);
+        }
+    }
+
+    // one network player. sends its keys every tick, keeps the snapshots it got so the
+    // server can send deltas, and copies the newest into a Simulation that is only ever
+    // drawn, never stepped. its own car is moved as soon as a key is pressed and put back
+    // where the server had it whenever a snapshot arrives, with the keys the server
+    // hasnt seen yet played again on top
+    private static final class GameClient implements AutoCloseable {
+        private static final long HELLO_NANOS = 500_000_000L;
+
+        final Simulation mirror;
+        private final NetLink link;
+        private final SocketAddress server;
+        private final byte[] hello;
+        private final Snapshot[] received = new Snapshot[Net.HISTORY];
+        private final ByteBuffer in = ByteBuffer.allocateDirect(Net.MAX_PACKET);
+        private final ByteBuffer out = ByteBuffer.allocateDirect(Net.MAX_PACKET);
+
+        private boolean welcomed = false;
+        private long lastHello = 0;
+        private long lastHeard = System.nanoTime();
+        private Snapshot latest;       // newest snapshot, already copied into mirror
+        private int you = -1;          // our driver in the race, -1 while watching
+        private int race = -1;
+
+        private int seq = 0;           // our newest input
+        private int ackSeq = 0;        // newest input the server has used
+        private final int[] sent = new int[256]; // input bits by seq & 255
+        private final Rectangle predicted = new Rectangle(0, 0, Simulation.CAR_WIDTH, Simulation.CAR_HEIGHT);
+        private int predictedFromX, predictedFromY; // for interpolating our own car
+        private long goSeenAt = -1;
+        private short launch = Net.NO_LAUNCH;
+        private long reactionMs = -1;
+
+        // what the loopback test reports
+        long snapshots, undecodable, corrections;
+        double correctionPx;
+
+        GameClient(NetLink link, SocketAddress server, Simulation mirror, String name, int sprite, int number) {
+            this.link = link;
+            this.server = server;
+            this.mirror = mirror;
+            for (int i = 0; i < received.length; i++) received[i] = new Snapshot();
+            byte[] nameBytes = name.getBytes(StandardCharsets.UTF_8);
+            ByteBuffer b = ByteBuffer.allocate(8 + Math.min(nameBytes.length, 32));
+            b.put(Net.HELLO).putInt(Net.MAGIC).put((byte) sprite).put((byte) number);
+            b.put((byte) Math.min(nameBytes.length, 32)).put(nameBytes, 0, Math.min(nameBytes.length, 32));
+            hello = Arrays.copyOf(b.array(), b.position());
+        }
+
+        boolean racing() { return you >= 0; }
+        int you() { return you; }
+        boolean connected() { return welcomed && System.nanoTime() - lastHeard < Net.TIMEOUT_NANOS; }
+        // the sprite and number of driver p in the race
+        int sprite(int p) { return latest == null ? 0 : latest.sprite[p]; }
+        int number(int p) { return latest == null ? 0 : latest.number[p]; }
+        int race() { return race; }
+        long reactionMs() { return reactionMs; } // as we measured it, -1 if not launched on GO
+        int score() { return you >= 0 ? latest.score[you] : 0; }
+        boolean hasRace() { return latest != null; }
+
+        void tick(int input) throws IOException {
+            tick(input, System.nanoTime());
+        }
+
+        // the frame showing the lights going out was on screen at this nanoTime, launches
+        // are timed from then instead of from when the snapshot came in
+        void goShown(long at) {
+            if (goSeenAt >= 0) goSeenAt = at;
+        }
+
+        // one tick of ours: take in what the server sent, then move and send this tick's keys.
+        // launchAt is when a SPACE in input was pressed
+        void tick(int input, long launchAt) throws IOException {
+            long now = System.nanoTime();
+            if (!welcomed && now - lastHello > HELLO_NANOS) {
+                lastHello = now;
+                out.clear();
+                out.put(hello).flip();
+                link.send(out, server);
+            }
+            receive();
+
+            seq++;
+            sent[seq & 255] = input;
+            GamePhase phase = Net.PHASES[latest == null ? 0 : latest.phase];
+            if ((input & Simulation.SPACE) != 0 && launch == Net.NO_LAUNCH && you >= 0) {
+                if (phase == GamePhase.REACTION_WAIT) launch = Net.JUMPED;
+                else if (phase == GamePhase.REACTION_GO) launch = launchAt < goSeenAt ? Net.JUMPED : (short) Math.min(Short.MAX_VALUE, (launchAt - goSeenAt) / 1_000_000L);
+                reactionMs = launch;
+            }
+
+            predictedFromX = predicted.x;
+            predictedFromY = predicted.y;
+            if (you >= 0 && phase == GamePhase.PLAYING && (latest.flags[you] & Snapshot.OUT) == 0) {
+                Simulation.move(predicted, input, latest.speed[you], latest.drs(you), mirror.road);
+            }
+            showPrediction();
+
+            if (welcomed) sendInput();
+            link.flush();
+        }
+
+        private void sendInput() throws IOException {
+            int first = Math.max(ackSeq + 1, seq - Net.REDUNDANCY + 1);
+            out.clear();
+            out.put(Net.INPUT);
+            out.putInt(latest == null ? -1 : latest.tick);
+            out.putInt(first);
+            out.put((byte) (seq - first + 1));
+            for (int s = first; s <= seq; s++) Net.putVarInt(out, sent[s & 255]);
+            out.putShort(launch);
+            out.flip();
+            link.send(out, server);
+        }
+
+        private void receive() throws IOException {
+            while (link.receive(in) != null) {
+                lastHeard = System.nanoTime();
+                try {
+                    byte type = in.get();
+                    if (type == Net.WELCOME) welcomed = true;
+                    else if (type == Net.SNAPSHOT) snapshot(in);
+                } catch (RuntimeException e) { // a short or garbled packet, ignore it
+                }
+            }
+        }
+
+        private void snapshot(ByteBuffer in) {
+            welcomed = true;
+            int tick = in.getInt();
+            int baseTick = in.getInt();
+            if (latest != null && tick <= latest.tick) return; // late, we have newer already
+            Snapshot base = null;
+            if (baseTick >= 0) {
+                base = received[baseTick & (Net.HISTORY - 1)];
+                if (base.tick != baseTick) { // we no longer have what it was built on
+                    undecodable++;
+                    return;
+                }
+            }
+            int driver = in.get();
+            int applied = in.getInt();
+            Snapshot s = received[tick & (Net.HISTORY - 1)];
+            s.read(in, tick, base);
+            snapshots++;
+
+            Snapshot prev = latest != null && latest.race == s.race ? latest : null;
+            latest = s;
+            mirror.mirror(s, prev);
+            if (s.phase == GamePhase.REACTION_GO.ordinal() && (prev == null || prev.phase != s.phase)) goSeenAt = System.nanoTime();
+            if (s.race != race || driver != you) {
+                race = s.race;
+                you = driver;
+                launch = Net.NO_LAUNCH;
+                reactionMs = -1;
+                if (you >= 0) predicted.setLocation(s.px[you], s.py[you]);
+            }
+            if (you >= 0 && (s.flags[you] & Snapshot.LAUNCHED) != 0) launch = Net.NO_LAUNCH; // it got there
+
+            // back to where the server had us, then the keys it hasnt used yet on top
+            ackSeq = applied;
+            if (you >= 0) {
+                int oldX = predicted.x, oldY = predicted.y;
+                predicted.setLocation(s.px[you], s.py[you]);
+                if (s.phase == GamePhase.PLAYING.ordinal() && (s.flags[you] & Snapshot.OUT) == 0) {
+                    for (int q = Math.max(ackSeq + 1, seq - 255); q <= seq; q++) {
+                        Simulation.move(predicted, sent[q & 255], s.speed[you], s.drs(you), mirror.road);
+                    }
+                }
+                double error = Math.hypot(predicted.x - oldX, predicted.y - oldY);
+                if (error > 0) {
+                    corrections++;
+                    correctionPx += error;
+                }
+            }
+        }
+
+        // sends held back packets without taking a tick, for a caller waiting on the next one
+        void flushOnly() throws IOException {
+            link.flush();
+        }
+
+        // our car where we think it is, not where the last snapshot had it
+        private void showPrediction() {
+            if (you < 0 || you >= mirror.players()) return;
+            Simulation.Driver d = mirror.drivers[you];
+            d.prevX = predictedFromX;
+            d.prevY = predictedFromY;
+            d.car.setLocation(predicted.x, predicted.y);
+        }
+
+        @Override
+        public void close() {
+            try {
+                out.clear();
+                out.put(Net.BYE).flip();
+                link.channel.send(out, server); // straight away, not held back like the rest
+                link.close();
+            } catch (IOException ignored) {
+            }
+        }
+    }
+
+    // ── INPUT ──────────────────────────────────────────────────────────────────
+    // the EDT puts every key press and release in a queue, stamped with System.nanoTime(),
+    // and the loop thread takes them off at the start of each tick. a direction is then
+    // worth the part of the tick it was really held for, and a tap that falls between two
+    // ticks still moves the car instead of being missed
+
+    // one thread puts in and one takes out, so it needs no lock: each side only moves its own
+    // end, and moves it (lazySet, an ordered write) after it is done with the slot it covers
+    private static final class InputQueue {
+        private static final int SIZE = 256; // a power of two, far more keys than fit in a tick
+
+        private final long[] stamps = new long[SIZE];
+        private final int[] events = new int[SIZE]; // the key's input bit, negative for a release
+        private final AtomicLong head = new AtomicLong(); // next to take, only the reader moves it
+        private final AtomicLong tail = new AtomicLong(); // next to fill, only the writer moves it
+        private volatile long dropped; // only the writer counts them
+        private long taken; // stamp of what poll() returned
+
+        // the writer. false (and the key is lost) if the reader hasnt kept up
+        boolean offer(int bit, boolean down, long nanos) {
+            long t = tail.get();
+            if (t - head.get() >= SIZE) {
+                dropped++;
+                return false;
+            }
+            int i = (int) t & (SIZE - 1);
+            stamps[i] = nanos;
+            events[i] = down ? bit : -bit;
+            tail.lazySet(t + 1);
+            return true;
+        }
+
+        // the reader. the oldest event stamped no later than upTo, 0 if there isnt one.
+        // its stamp is in stamp() until the next poll
+        int poll(long upTo) {
+            long h = head.get();
+            if (h == tail.get()) return 0;
+            int i = (int) h & (SIZE - 1);
+            if (stamps[i] - upTo > 0) return 0; // for a later tick
+            taken = stamps[i];
+            int e = events[i];
+            head.lazySet(h + 1);
+            return e;
+        }
+
+        long stamp() { return taken; }
+
+        long dropped() { return dropped; }
+
+        // the reader throws away everything queued so far
+        void clear() {
+            head.lazySet(tail.get());
+        }
+    }
+
+    // turns the queued key events into one input per local player for each tick. the reader
+    // side of the queue, so only ever used by one thread at a time
+    private static final class KeySampler {
+        private static final int KEYS = Simulation.MAX_PLAYERS * Simulation.INPUT_BITS;
+
+        final InputQueue queue = new InputQueue();
+        final int[] inputs = new int[Simulation.MAX_PLAYERS]; // what the last sample() made
+        final long[] launchAt = new long[Simulation.MAX_PLAYERS]; // when a SPACE in inputs was pressed
+
+        private final long[] since = new long[KEYS];   // when a held key went down
+        private final long[] heldFor = new long[KEYS]; // nanos each key was down this tick
+        private int held; // key bits down right now
+        private long pressedAt;
+        private boolean unseen; // a press has been used that no frame has shown yet
+
+        // the input for the tick that lasted tickNanos up to end
+        void sample(long end, long tickNanos) {
+            long start = end - tickNanos;
+            int pressed = 0; // key bits that went down this tick
+            for (int e; (e = queue.poll(end)) != 0; ) {
+                int bit = Math.abs(e);
+                int k = Integer.numberOfTrailingZeros(bit);
+                long at = Math.max(queue.stamp(), start); // a late one counts from the start of this tick
+                if (e > 0 && (held & bit) == 0) {
+                    if (k % Simulation.INPUT_BITS == 4 && (pressed & bit) == 0) launchAt[k / Simulation.INPUT_BITS] = queue.stamp();
+                    held |= bit;
+                    pressed |= bit;
+                    since[k] = at;
+                    if (!unseen) {
+                        unseen = true;
+                        pressedAt = queue.stamp();
+                    }
+                } else if (e < 0 && (held & bit) != 0) {
+                    held &= ~bit;
+                    heldFor[k] += at - Math.max(since[k], start);
+                }
+            }
+
+            Arrays.fill(inputs, 0);
+            for (int k = 0; k < KEYS; k++) {
+                int bit = 1 << k;
+                if ((held & bit) != 0) heldFor[k] += end - Math.max(since[k], start);
+                if (heldFor[k] == 0 && (pressed & bit) == 0) continue;
+                int p = k / Simulation.INPUT_BITS, key = k % Simulation.INPUT_BITS;
+                if (key < 4) {
+                    inputs[p] |= Simulation.held(key, heldFor[k], tickNanos);
+                } else if ((pressed & bit) != 0) {
+                    inputs[p] |= Simulation.SPACE; // launching only needs the press
+                }
+                heldFor[k] = 0;
+            }
+        }
+
+        // a press a tick has used but no frame has shown yet, takePress() says when it was made
+        boolean unseenPress() { return unseen; }
+
+        long takePress() {
+            unseen = false;
+            return pressedAt;
+        }
+
+        // a new race, nothing held and nothing queued
+        void reset() {
+            queue.clear();
+            held = 0;
+            unseen = false;
+            Arrays.fill(heldFor, 0);
+            Arrays.fill(inputs, 0);
+        }
+    }
+
+    // tap along with the lights to find how late a key press and a frame really are on this
+    // machine (keyboard, OS, the display itself), the part no timer in here can see. pressing
+    // in time with something regular takes the reaction out of it, what is left is that delay.
+    // it is taken off every reaction time after this
+    private static final class Calibration {
+        static final long BEAT_NANOS = 750_000_000L;
+        static final long FLASH_NANOS = 150_000_000L;
+        private static final int TAPS = 16;
+        private static final int SKIP = 3; // the first few are spent finding the beat
+        private static final long MAX_NANOS = 150_000_000L; // more than this is someone not keeping time
+        private static final File FILE = new File("calibration.txt");
+
+        private final long start;
+        private long shownBeat = -1; // the newest flash a frame has shown
+        private long shownAt;        // and when that frame was on screen
+        private final long[] offsets = new long[TAPS];
+        private int taps = 0;
+
+        Calibration(long start) {
+            this.start = start;
+        }
+
+        // whether the lights are on at this moment
+        boolean lit(long now) {
+            return (now - start) % BEAT_NANOS < FLASH_NANOS;
+        }
+
+        // a frame is on screen, the first one of each flash is what the taps are measured against
+        void shown(long now, boolean lit) {
+            long beat = (now - start) / BEAT_NANOS;
+            if (lit && beat != shownBeat) {
+                shownBeat = beat;
+                shownAt = now;
+            }
+        }
+
+        // SPACE was pressed at this nanoTime, against the nearest flash (early taps count too)
+        void tap(long at) {
+            if (shownBeat < 0 || taps == TAPS) return;
+            long off = at - shownAt;
+            if (off > BEAT_NANOS / 2) off -= BEAT_NANOS;
+            offsets[taps++] = off;
+        }
+
+        int taps() { return taps; }
+        int tapsNeeded() { return TAPS; }
+        boolean done() { return taps == TAPS; }
+
+        // the middle of the taps after the first few, so one bad tap doesnt matter
+        long latencyNanos() {
+            long[] kept = Arrays.copyOfRange(offsets, SKIP, taps);
+            Arrays.sort(kept);
+            long median = kept.length == 0 ? 0 : kept[kept.length / 2];
+            return Math.max(0, Math.min(MAX_NANOS, median));
+        }
+
+        // what the last calibration found, 0 if there never was one
+        static long load() {
+            try {
+                return FILE.exists() ? Long.parseLong(Files.readString(FILE.toPath()).trim()) * 1_000_000L : 0;
+            } catch (IOException | NumberFormatException e) {
+                System.out.println("error reading " + FILE + ": " + e.getMessage());
+                return 0;
+            }
+        }
+
+        static void save(long nanos) {
+            try {
+                Files.writeString(FILE.toPath(), (nanos / 1_000_000L) + System.lineSeparator());
+            } catch (IOException e) {
+                System.out.println("error writing " + FILE + ": " + e.getMessage());
+            }
+        }
+    }
+
+    // ── GAME LOOP ──────────────────────────────────────────────────────────────
+    // runs the simulation at a fixed tick rate on its own thread, the frame callback
+    // is called at its own rate and does not change how fast the game plays
+    private static class GameLoop implements Runnable {
+        private static final int MAX_CATCH_UP_TICKS = 5; // dont spiral if the machine stalls
+
+        private final String name;
+        private final long tickNanos;
+        private final long frameNanos;
+        private final Runnable tick;
+        private final Runnable frame;
+
+        private volatile boolean running = false;
+        private volatile long lastTickNanos = System.nanoTime();
+        private long tickEnd; // the moment the running tick is for, only read by the tick itself
+        private volatile Thread thread; // the one loop thread, an older one still finishing its pass sees it isnt this
+
+        GameLoop(String name, int tickRate, int frameRate, Runnable tick, Runnable frame) {
+            this.name = name;
+            this.tickNanos = 1_000_000_000L / tickRate;
+            this.frameNanos = 1_000_000_000L / frameRate;
+            this.tick = tick;
+            this.frame = frame;
+        }
+
+        synchronized void start() {
+            if (running) return;
+            running = true;
+            thread = new Thread(this, name);
+            thread.setDaemon(true);
+            thread.start();
+        }
+
+        // safe to call from the loop thread itself (e.g. on game over). the thread finishes the
+        // pass it is in, and leaves even if start() has been called again by then
+        void stop() {
+            running = false;
+        }
+
+        // false once this thread should go, stopped or replaced by a newer one
+        private boolean mine() {
+            return running && thread == Thread.currentThread();
+        }
+
+        boolean isRunning() {
+            return running;
+        }
+
+        long tickNanos() {
+            return tickNanos;
+        }
+
+        // where the tick being run ends in System.nanoTime(), a bit before now when catching up
+        long tickEnd() {
+            return tickEnd;
+        }
+
+        // how far we are between the last tick and the next one, 0..1, used to interpolate drawing
+        float alpha() {
+            float a = (System.nanoTime() - lastTickNanos) / (float) tickNanos;
+            return a < 0f ? 0f : (a > 1f ? 1f : a);
+        }
+
+        @Override
+        public void run() {
+            long previous = System.nanoTime();
+            long accumulator = 0;
+            long nextFrame = previous;
+            lastTickNanos = previous;
+
+            while (mine()) {
+                long now = System.nanoTime();
+                accumulator += now - previous;
+                previous = now;
+                if (accumulator > MAX_CATCH_UP_TICKS * tickNanos) {
+                    accumulator = MAX_CATCH_UP_TICKS * tickNanos;
+                }
+
+                while (accumulator >= tickNanos && mine()) {
+                    tickEnd = now - accumulator + tickNanos;
+                    tick.run();
+                    accumulator -= tickNanos;
+                    lastTickNanos = now - accumulator;
+                }
+
+                if (frame != null && now >= nextFrame && mine()) {
+                    frame.run();
+                    nextFrame += frameNanos;
+                    if (nextFrame < now) nextFrame = now + frameNanos; // fell behind, dont burst frames
+                }
+
+                long untilTick = tickNanos - accumulator;
+                long untilFrame = frame != null ? nextFrame - System.nanoTime() : untilTick;
+                long wait = Math.min(untilTick, untilFrame);
+                if (wait > 0) LockSupport.parkNanos(wait);
+            }
+        }
+    }
+
+    // keeps a histogram of frame times in 1ms buckets so we can see jitter
+    private static class FrameStats {
+        private static final int BUCKETS = 50;
+
+        private final long[] buckets = new long[BUCKETS + 1]; // last one is overflow
+        private long allocFrames = 0;
+        private long allocBytes = 0;
+        private long count = 0;
+        private long totalNanos = 0;
+        private long maxNanos = 0;
+        private long lastFrame = -1;
+
+        void frame(long now) {
+            if (lastFrame >= 0) record(now - lastFrame);
+            lastFrame = now;
+        }
+
+        void record(long nanos) {
+            int b = (int) (nanos / 1_000_000L);
+            buckets[Math.min(b, BUCKETS)]++;
+            count++;
+            totalNanos += nanos;
+            if (nanos > maxNanos) maxNanos = nanos;
+        }
+
+        // bytes the drawing code allocated for one frame
+        void allocated(long bytes) {
+            if (bytes < 0) return;
+            allocFrames++;
+            allocBytes += bytes;
+        }
+
+        // bytes allocated by the current thread so far, or -1 if this JVM cant tell us
+        static long threadAllocatedBytes() {
+            java.lang.management.ThreadMXBean mx = ManagementFactory.getThreadMXBean();
+            if (mx instanceof com.sun.management.ThreadMXBean) {
+                return ((com.sun.management.ThreadMXBean) mx).getCurrentThreadAllocatedBytes();
+            }
+            return -1;
+        }
+
+        void reset() {
+            Arrays.fill(buckets, 0);
+            allocFrames = 0;
+            allocBytes = 0;
+            count = 0;
+            totalNanos = 0;
+            maxNanos = 0;
+            lastFrame = -1;
+        }
+
+        // bucket (in ms) that the given fraction of frames are at or under
+        int percentile(double p) {
+            long target = (long) Math.ceil(count * p);
+            long seen = 0;
+            for (int i = 0; i <= BUCKETS; i++) {
+                seen += buckets[i];
+                if (seen >= target) return i;
+            }
+            return BUCKETS;
+        }
+
+        String report() {
+            return report("frames");
+        }
+
+        // what says what was timed, the same histogram works for anything in milliseconds
+        String report(String what) {
+            if (count == 0) return "no " + what + "\n";
+            StringBuilder sb = new StringBuilder();
+            sb.append(String.format(what + ": %d  avg: %.2fms  p50: %dms  p95: %dms  p99: %dms  max: %.2fms%n",
+                    count, totalNanos / 1e6 / count, percentile(0.50), percentile(0.95),
+                    percentile(0.99), maxNanos / 1e6));
+            if (allocFrames > 0) {
+                sb.append(String.format("paint allocated: %.1f bytes/frame%n", allocBytes / (double) allocFrames));
+            }
+            long most = 1;
+            for (long c : buckets) most = Math.max(most, c);
+            for (int i = 0; i <= BUCKETS; i++) {
+                if (buckets[i] == 0) continue;
+                String label = i == BUCKETS ? ">=" + BUCKETS : String.valueOf(i);
+                int bar = (int) (buckets[i] * 50 / most);
+                sb.append(String.format("%5sms %7d %s%n", label, buckets[i], "#".repeat(Math.max(1, bar))));
+            }
+            return sb.toString();
+        }
+    }
+
+    // ── METRICS ────────────────────────────────────────────────────────────────
+    // what the F3 overlay, JMX (minif1:type=Metrics) and the -Dminif1.metrics file show.
+    // the loop thread only adds a couple of numbers per tick and frame, once a second it
+    // turns them into rates and publishes those, which is all anyone else ever reads.
+    // JMX needs the interface and class to be public
+    public interface MetricsMBean {
+        double getFps();
+        double getTickMicros();
+        double getTickMaxMicros();
+        double getPaintMicros();
+        double getPaintMaxMicros();
+        int getObstacles();
+        long getGcCount();
+        double getGcMillis();
+        double getAllocatedMBPerSecond();
+        long getTotalTicks();
+        long getTotalFrames();
+        double getInputLatencyMillis();
+        double getInputLatencyMaxMillis();
+    }
+
+    public static final class Metrics implements MetricsMBean {
+        private static final long WINDOW_NANOS = 1_000_000_000L;
+        private static final List<GarbageCollectorMXBean> GCS = ManagementFactory.getGarbageCollectorMXBeans();
+
+        // loop thread only
+        private long windowStart = -1;
+        private int ticks, frames;
+        private long tickNanos, tickMax, paintNanos, paintMax, allocBytes;
+        private long gcCountBefore, gcMillisBefore;
+        private long totalTicks, totalFrames;
+        private int presses;
+        private long inputNanos, inputMax;
+
+        // published once a second
+        private volatile double fps, tickMicros, tickMaxMicros, paintMicros, paintMaxMicros, gcMillis, allocMBps;
+        private volatile double inputMillis, inputMaxMillis;
+        private volatile int obstacles;
+        private volatile long gcCount;
+        private volatile long published, publishedTicks, publishedFrames;
+
+        private static volatile Metrics shared;
+
+        // the one the game uses, registered with JMX and exported the first time it is asked for
+        static synchronized Metrics shared() {
+            if (shared == null) {
+                shared = new Metrics();
+                shared.register();
+                String file = System.getProperty("minif1.metrics");
+                if (file != null) shared.export(new File(file), Long.getLong("minif1.metricsSeconds", 10));
+            }
+            return shared;
+        }
+
+        void tick(long nanos) {
+            ticks++;
+            tickNanos += nanos;
+            if (nanos > tickMax) tickMax = nanos;
+        }
+
+        // from a key press reaching us to the first frame that showed it
+        void input(long nanos) {
+            presses++;
+            inputNanos += nanos;
+            if (nanos > inputMax) inputMax = nanos;
+        }
+
+        // bytes is what the frame allocated, -1 if not known
+        void frame(long paintNanos, long bytes, int obstacleCount, long now) {
+            frames++;
+            this.paintNanos += paintNanos;
+            if (paintNanos > paintMax) paintMax = paintNanos;
+            if (bytes > 0) allocBytes += bytes;
+            if (windowStart < 0) {
+                startWindow(now);
+                return;
+            }
+            long elapsed = now - windowStart;
+            if (elapsed >= WINDOW_NANOS) publish(elapsed, obstacleCount, now);
+        }
+
+        private void publish(long elapsed, int obstacleCount, long now) {
+            long gcTotal = 0, gcTime = 0;
+            for (GarbageCollectorMXBean gc : GCS) {
+                gcTotal += Math.max(0, gc.getCollectionCount());
+                gcTime += Math.max(0, gc.getCollectionTime());
+            }
+            double seconds = elapsed / 1e9;
+            fps = frames / seconds;
+            tickMicros = ticks == 0 ? 0 : tickNanos / 1e3 / ticks;
+            tickMaxMicros = tickMax / 1e3;
+            paintMicros = frames == 0 ? 0 : paintNanos / 1e3 / frames;
+            paintMaxMicros = paintMax / 1e3;
+            allocMBps = allocBytes / 1e6 / seconds;
+            gcCount = gcTotal - gcCountBefore;
+            gcMillis = gcTime - gcMillisBefore;
+            obstacles = obstacleCount;
+            if (presses > 0) { // keeps the last numbers through a second with no keys
+                inputMillis = inputNanos / 1e6 / presses;
+                inputMaxMillis = inputMax / 1e6;
+            }
+            totalTicks += ticks;
+            totalFrames += frames;
+            publishedTicks = totalTicks;
+            publishedFrames = totalFrames;
+            published++; // last, the overlay checks it to see if anything changed
+            startWindow(now);
+        }
+
+        private void startWindow(long now) {
+            windowStart = now;
+            ticks = frames = 0;
+            tickNanos = tickMax = paintNanos = paintMax = allocBytes = 0;
+            presses = 0;
+            inputNanos = inputMax = 0;
+            gcCountBefore = gcMillisBefore = 0;
+            for (GarbageCollectorMXBean gc : GCS) {
+                gcCountBefore += Math.max(0, gc.getCollectionCount());
+                gcMillisBefore += Math.max(0, gc.getCollectionTime());
+            }
+        }
+
+        // the loop stopped, the next frame starts a fresh window
+        void pause() {
+            windowStart = -1;
+        }
+
+        long published() { return published; }
+
+        @Override public double getFps() { return fps; }
+        @Override public double getTickMicros() { return tickMicros; }
+        @Override public double getTickMaxMicros() { return tickMaxMicros; }
+        @Override public double getPaintMicros() { return paintMicros; }
+        @Override public double getPaintMaxMicros() { return paintMaxMicros; }
+        @Override public int getObstacles() { return obstacles; }
+        @Override public long getGcCount() { return gcCount; }
+        @Override public double getGcMillis() { return gcMillis; }
+        @Override public double getAllocatedMBPerSecond() { return allocMBps; }
+        @Override public long getTotalTicks() { return publishedTicks; }
+        @Override public long getTotalFrames() { return publishedFrames; }
+        @Override public double getInputLatencyMillis() { return inputMillis; }
+        @Override public double getInputLatencyMaxMillis() { return inputMaxMillis; }
+
+        private void register() {
+            try {
+                ManagementFactory.getPlatformMBeanServer().registerMBean(
+                        new StandardMBean(this, MetricsMBean.class), new ObjectName("minif1:type=Metrics"));
+            } catch (JMException e) {
+                System.out.println("couldnt register metrics with JMX: " + e.getMessage());
+            }
+        }
+
+        // appends a line every few seconds while racing, json lines if the file ends in .json,
+        // csv otherwise
+        private void export(File file, long seconds) {
+            boolean json = file.getName().endsWith(".json");
+            ScheduledExecutorService timer = Executors.newSingleThreadScheduledExecutor(r -> {
+                Thread t = new Thread(r, "metrics-export");
+                t.setDaemon(true);
+                return t;
+            });
+            String host = hostName();
+            if (!json && !file.exists()) append(file, "time,host,fps,tick_us,tick_max_us,paint_us,paint_max_us,obstacles,gc_count,gc_ms,alloc_mb_s,ticks,frames,input_ms,input_max_ms");
+            long[] exported = {0};
+            timer.scheduleAtFixedRate(() -> {
+                if (published == exported[0]) return; // nothing new, e.g. sitting in the menus
+                exported[0] = published;
+                append(file, json ? json(host) : csv(host));
+            }, seconds, seconds, TimeUnit.SECONDS);
+        }
+
+        private String csv(String host) {
+            return String.format(Locale.ROOT, "%d,%s,%.1f,%.1f,%.1f,%.1f,%.1f,%d,%d,%.0f,%.2f,%d,%d,%.1f,%.1f",
+                    System.currentTimeMillis(), host, fps, tickMicros, tickMaxMicros, paintMicros, paintMaxMicros,
+                    obstacles, gcCount, gcMillis, allocMBps, publishedTicks, publishedFrames, inputMillis, inputMaxMillis);
+        }
+
+        private String json(String host) {
+            return String.format(Locale.ROOT, "{\"time\":%d,\"host\":\"%s\",\"fps\":%.1f,\"tickMicros\":%.1f,\"tickMaxMicros\":%.1f,"
+                            + "\"paintMicros\":%.1f,\"paintMaxMicros\":%.1f,\"obstacles\":%d,\"gcCount\":%d,\"gcMillis\":%.0f,"
+                            + "\"allocatedMBPerSecond\":%.2f,\"ticks\":%d,\"frames\":%d,\"inputLatencyMillis\":%.1f,"
+                            + "\"inputLatencyMaxMillis\":%.1f}",
+                    System.currentTimeMillis(), host.replace("\"", ""), fps, tickMicros, tickMaxMicros, paintMicros, paintMaxMicros,
+                    obstacles, gcCount, gcMillis, allocMBps, publishedTicks, publishedFrames, inputMillis, inputMaxMillis);
+        }
+
+        private static void append(File file, String line) {
+            try (FileOutputStream out = new FileOutputStream(file, true)) {
+                out.write((line + System.lineSeparator()).getBytes(StandardCharsets.UTF_8));
+            } catch (IOException e) {
+                System.out.println("error writing metrics: " + e.getMessage());
+            }
+        }
+
+        private static String hostName() {
+            try {
+                return InetAddress.getLocalHost().getHostName().replace(",", "_");
+            } catch (IOException e) {
+                return "unknown";
+            }
+        }
+    }
+
+    // the F3 overlay, top right. the lines are only rebuilt when Metrics publishes (once a
+    // second), the rest of the time drawing it is a few image copies
+    private static final class PerfOverlay {
+        private static final int X = GamePanel.WIDTH - 230, Y = 12, LINE = 16;
+        private static final BufferedImage BACKGROUND = background(220, LINE * 7 + 10);
+
+        private final Text[] lines = new Text[7];
+        private long seen = -1;
+
+        void draw(Graphics2D g2, Metrics m) {
+            if (m.published() != seen) {
+                seen = m.published();
+                lines[0] = line(String.format(Locale.ROOT, "FPS %.0f", m.getFps()));
+                lines[1] = line(String.format(Locale.ROOT, "tick  %.0fus  max %.0fus", m.getTickMicros(), m.getTickMaxMicros()));
+                lines[2] = line(String.format(Locale.ROOT, "paint %.0fus  max %.0fus", m.getPaintMicros(), m.getPaintMaxMicros()));
+                lines[3] = line("obstacles " + m.getObstacles());
+                lines[4] = line(String.format(Locale.ROOT, "GC %d in %.0fms", m.getGcCount(), m.getGcMillis()));
+                lines[5] = line(String.format(Locale.ROOT, "alloc %.2f MB/s", m.getAllocatedMBPerSecond()));
+                lines[6] = line(String.format(Locale.ROOT, "input %.1fms  max %.1fms", m.getInputLatencyMillis(), m.getInputLatencyMaxMillis()));
+            }
+            g2.drawImage(BACKGROUND, X - 6, Y - 4, null);
+            for (int i = 0; i < lines.length; i++) lines[i].draw(g2, X, Y + LINE * (i + 1) - 4);
+        }
+
+        private static Text line(String s) {
+            return new Text(s, RenderResources.PERF_FONT, Color.WHITE);
+        }
+
+        private static BufferedImage background(int w, int h) {
+            BufferedImage img = new BufferedImage(w, h, BufferedImage.TYPE_INT_ARGB);
+            Graphics2D g2 = img.createGraphics();
+            g2.setColor(RenderResources.OVERLAY);
+            g2.fillRect(0, 0, w, h);
+            g2.dispose();
+            return img;
+        }
+    }
+
+    // fonts, colours and strokes used while drawing, made once instead of every frame
+    private static final class RenderResources {
+        static final Font NUMBER_FONT = new Font("Arial", Font.BOLD, 16);
+        static final Font HUD_FONT = new Font("Arial", Font.BOLD, 18);
+        static final Font REACTION_TITLE_FONT = new Font("Arial", Font.BOLD, 48);
+        static final Font REACTION_FONT = new Font("Arial", Font.BOLD, 42);
+        static final Font TIP_FONT = new Font("Arial", Font.PLAIN, 18);
+        static final Font GAME_OVER_FONT = new Font("Arial", Font.BOLD, 54);
+        static final Font INSTRUCTION_FONT = new Font("Arial", Font.PLAIN, 20);
+        static final Font PERF_FONT = new Font("Monospaced", Font.PLAIN, 13);
+        static final Font EFFECT_FONT = new Font("Arial", Font.BOLD, 14);
+
+        static final Color ASPHALT = new Color(105, 105, 105);
+        static final Color OVERLAY = new Color(0, 0, 0, 160);
+        // a translucent fillRect allocates a lot per call, copying a translucent image doesnt
+        static final BufferedImage OVERLAY_IMAGE = overlayImage();
+        static final Color TIP = new Color(220, 220, 220);
+        static final Color EFFECT_BAR = new Color(90, 200, 255);
+        static final Color ROAD_EFFECT_BAR = new Color(255, 170, 40); // on everyone
+
+        static final BasicStroke SHIELD_STROKE = new BasicStroke(3);
+        // drawing a wide oval builds new shapes every time, so the shield ring is drawn once
+        // into an image. it is drawn at the car position minus SHIELD_OFFSET
+        static final int SHIELD_GAP = 6;
+        static final int SHIELD_OFFSET = SHIELD_GAP + 2;
+        static final BufferedImage SHIELD = shieldImage();
+
+        // the start lights: a gantry with all five off, and a lit one drawn over each that is on
+        static final int LIGHT_SIZE = 48, LIGHT_GAP = 16, GANTRY_PAD = 12;
+        static final BufferedImage GANTRY = lightImage(Simulation.LIGHTS, new Color(50, 12, 12));
+        static final BufferedImage LIGHT_ON = lightImage(1, new Color(235, 20, 20));
+
+        // switching fonts on a Graphics allocates every time, so all text is drawn into
+        // images once and the frame only copies them
+        static final Text REACTION_TITLE = new Text("REACTION TEST", REACTION_TITLE_FONT, Color.WHITE);
+        static final Text GO = new Text("GO!!!", REACTION_FONT, Color.WHITE);
+        static final Text REACTION_TIP = new Text("Press SPACE as soon as the lights go out!   Faster = more points", TIP_FONT, TIP);
+        static final Text REACTION_TIP_PLAYERS = new Text("Launch on lights out:  P1 SPACE   P2 ENTER   P3 U   P4 NUMPAD 0", TIP_FONT, TIP);
+        static final Text CALIBRATION_TITLE = new Text("CALIBRATION", REACTION_TITLE_FONT, Color.WHITE);
+        static final Text CALIBRATION_TIP = new Text("Press SPACE in time with the lights   •   ESC to stop", TIP_FONT, TIP);
+        static final Text OUT = new Text("OUT", GAME_OVER_FONT, Color.WHITE);
+        // power ups on in the HUD: the name, then seconds left or charges
+        static final Text[] EFFECT_NAMES = Arrays.stream(PowerUp.TYPES).map(t -> new Text(t.name, EFFECT_FONT, Color.WHITE)).toArray(Text[]::new);
+        static final Text[] EFFECT_SECONDS = numbered("", "s", 15);
+        static final Text[] EFFECT_CHARGES = numbered("x", "", 9);
+        static final Text WAITING_FOR_SERVER = new Text("Waiting for the server...", REACTION_FONT, Color.WHITE);
+        static final Text GAME_OVER = new Text("GAME OVER", GAME_OVER_FONT, Color.WHITE);
+        static final Text GAME_OVER_INSTRUCTIONS = new Text("Press R to restart   •   ESC to menu", INSTRUCTION_FONT, Color.WHITE);
+
+        private RenderResources() {}
+
+        // before + i + after for every i up to max
+        private static Text[] numbered(String before, String after, int max) {
+            Text[] texts = new Text[max + 1];
+            for (int i = 0; i <= max; i++) texts[i] = new Text(before + i + after, EFFECT_FONT, Color.WHITE);
+            return texts;
+        }
+
+        private static BufferedImage overlayImage() {
+            BufferedImage img = new BufferedImage(GamePanel.WIDTH, GamePanel.HEIGHT, BufferedImage.TYPE_INT_ARGB);
+            Graphics2D g2 = img.createGraphics();
+            g2.setColor(OVERLAY);
+            g2.fillRect(0, 0, GamePanel.WIDTH, GamePanel.HEIGHT);
+            g2.dispose();
+            return img;
+        }
+
+        private static BufferedImage shieldImage() {
+            int w = GamePanel.CAR_WIDTH + SHIELD_GAP * 2;
+            int h = GamePanel.CAR_HEIGHT + SHIELD_GAP * 2;
+            BufferedImage img = new BufferedImage(w + 4, h + 4, BufferedImage.TYPE_INT_ARGB);
+            Graphics2D g2 = img.createGraphics();
+            g2.setColor(Color.BLUE);
+            g2.setStroke(SHIELD_STROKE);
+            g2.drawOval(2, 2, w, h);
+            g2.dispose();
+            return img;
+        }
+
+        // n lights in a row, on a black gantry when there is more than one
+        private static BufferedImage lightImage(int n, Color colour) {
+            int w = n * LIGHT_SIZE + (n - 1) * LIGHT_GAP, pad = n > 1 ? GANTRY_PAD : 0;
+            BufferedImage img = new BufferedImage(w + pad * 2, LIGHT_SIZE + pad * 2, BufferedImage.TYPE_INT_ARGB);
+            Graphics2D g2 = img.createGraphics();
+            g2.setRenderingHint(RenderingHints.KEY_ANTIALIASING, RenderingHints.VALUE_ANTIALIAS_ON);
+            if (n > 1) {
+                g2.setColor(Color.BLACK);
+                g2.fillRoundRect(0, 0, img.getWidth(), img.getHeight(), 16, 16);
+            }
+            g2.setColor(colour);
+            for (int i = 0; i < n; i++) g2.fillOval(pad + i * (LIGHT_SIZE + LIGHT_GAP), pad, LIGHT_SIZE, LIGHT_SIZE);
+            g2.dispose();
+            return img;
+        }
+    }
+
+    // a string already drawn into an image, x/y when drawing are the same as drawString
+    private static final class Text {
+        private static final Graphics2D MEASURE = new BufferedImage(1, 1, BufferedImage.TYPE_INT_ARGB).createGraphics();
+
+        final String string;
+        final int width;
+        private final int ascent;
+        private final BufferedImage img;
+
+        Text(String string, Font font, Color colour) {
+            this.string = string;
+            FontMetrics fm;
+            synchronized (MEASURE) {
+                fm = MEASURE.getFontMetrics(font);
+            }
+            this.width = fm.stringWidth(string);
+            this.ascent = fm.getAscent();
+            img = new BufferedImage(Math.max(1, width), Math.max(1, ascent + fm.getDescent()), BufferedImage.TYPE_INT_ARGB);
+            Graphics2D g2 = img.createGraphics();
+            g2.setFont(font);
+            g2.setColor(colour);
+            g2.drawString(string, 0, ascent);
+            g2.dispose();
+        }
+
+        void draw(Graphics2D g2, int x, int baseline) {
+            g2.drawImage(img, x, baseline - ascent, null);
+        }
+
+        void drawCentred(Graphics2D g2, int areaWidth, int baseline) {
+            draw(g2, (areaWidth - width) / 2, baseline);
+        }
+    }
+
+    // draws the HUD and overlays, the text is cached and only rebuilt when the score,
+    // team, number or country change
+    private static class Hud {
+        private final String tag; // "P2" etc in a split screen race, null when racing alone
+        private String team;
+        private int number = Integer.MIN_VALUE;
+        private String country;
+        private int score = Integer.MIN_VALUE;
+        private int position = -1;
+
+        private Text numberText;
+        private Text teamLine;
+        private Text scoreLine;
+
+        Hud() {
+            this(null);
+        }
+
+        Hud(String tag) {
+            this.tag = tag;
+        }
+
+        // position is where the score is on this track's leaderboard, 0 if not in the top 10
+        void update(String team, int number, String country, int score, int position) {
+            boolean numberChanged = number != this.number;
+            if (numberChanged) {
+                this.number = number;
+                numberText = new Text(String.valueOf(number), RenderResources.NUMBER_FONT, Color.WHITE);
+            }
+            if (numberChanged || !Objects.equals(team, this.team) || !Objects.equals(country, this.country)) {
+                this.team = team;
+                this.country = country;
+                String line = tag == null ? "Team: " + team + "  #" + number + "  (" + country + ")" : tag + "  " + team + "  #" + number;
+                teamLine = new Text(line, RenderResources.HUD_FONT, Color.WHITE);
+            }
+            if (score != this.score || position != this.position) {
+                this.score = score;
+                this.position = position;
+                String where = tag == null ? " in " + country : "";
+                String line = position > 0 ? "Score: " + score + "   P" + position + where : "Score: " + score;
+                scoreLine = new Text(line, RenderResources.HUD_FONT, Color.WHITE);
+            }
+        }
+
+        // driver number in the middle of the car
+        void drawNumber(Graphics2D g2, int x, int y, int w, int h) {
+            numberText.draw(g2, x + (w - numberText.width) / 2, y + h / 2 + 6);
+        }
+
+        void drawHud(Graphics2D g2, boolean showScore) {
+            drawHud(g2, 160, showScore); // add country to top left
+        }
+
+        void drawHud(Graphics2D g2, int x, boolean showScore) {
+            teamLine.draw(g2, x, 30);
+            if (showScore) {
+                scoreLine.draw(g2, x, 60);
+            }
+        }
+
+        // lights is how many of the red lights are on, go once they are all out
+        void drawReaction(Graphics2D g2, int lights, boolean go, boolean players) {
+            int w = GamePanel.WIDTH, h = GamePanel.HEIGHT;
+            g2.drawImage(RenderResources.OVERLAY_IMAGE, 0, 0, null);
+
+            RenderResources.REACTION_TITLE.drawCentred(g2, w, h / 2 - 130);
+            drawLights(g2, w, h / 2 - 100, lights);
+            if (go) RenderResources.GO.drawCentred(g2, w, h / 2 + 30);
+            (players ? RenderResources.REACTION_TIP_PLAYERS : RenderResources.REACTION_TIP).drawCentred(g2, w, h / 2 + 80);
+        }
+
+        // the power ups a driver has on, with the seconds (or charges) each has left and a bar
+        // for the time. the road ones are on everyone so they show for everyone
+        static void drawEffects(Graphics2D g2, int x, int y, Simulation sim, Simulation.Driver d) {
+            for (int t = 0; t < PowerUp.COUNT; t++) {
+                long left = sim.effectLeft(d, t);
+                if (left == 0) continue;
+                PowerUp u = PowerUp.TYPES[t];
+                RenderResources.EFFECT_NAMES[t].draw(g2, x, y);
+                if (u.stacking == PowerUp.CHARGES) {
+                    RenderResources.EFFECT_CHARGES[(int) Math.min(left, RenderResources.EFFECT_CHARGES.length - 1)].draw(g2, x + 90, y);
+                } else {
+                    long ms = left * sim.tickNanos() / 1_000_000L;
+                    int full = u.stacking == PowerUp.EXTEND ? u.max : u.ms;
+                    RenderResources.EFFECT_SECONDS[(int) Math.min(RenderResources.EFFECT_SECONDS.length - 1, (ms + 999) / 1000)].draw(g2, x + 90, y);
+                    g2.setColor(u.road ? RenderResources.ROAD_EFFECT_BAR : RenderResources.EFFECT_BAR);
+                    g2.fillRect(x + 125, y - 9, (int) (60 * Math.min(ms, full) / full), 8);
+                }
+                y += 20;
+            }
+        }
+
+        // tapping along with the lights, progress is how many taps so far
+        static void drawCalibration(Graphics2D g2, boolean lit, Text progress) {
+            int w = GamePanel.WIDTH, h = GamePanel.HEIGHT;
+            g2.setColor(Color.BLACK);
+            g2.fillRect(0, 0, w, h);
+            RenderResources.CALIBRATION_TITLE.drawCentred(g2, w, h / 2 - 130);
+            drawLights(g2, w, h / 2 - 100, lit ? Simulation.LIGHTS : 0);
+            progress.drawCentred(g2, w, h / 2 + 30);
+            RenderResources.CALIBRATION_TIP.drawCentred(g2, w, h / 2 + 80);
+        }
+
+        // the gantry centred across w with its top at y, the first lit lights on
+        static void drawLights(Graphics2D g2, int w, int y, int lit) {
+            int x = (w - RenderResources.GANTRY.getWidth()) / 2;
+            g2.drawImage(RenderResources.GANTRY, x, y, null);
+            int step = RenderResources.LIGHT_SIZE + RenderResources.LIGHT_GAP, pad = RenderResources.GANTRY_PAD;
+            for (int i = 0; i < lit; i++) g2.drawImage(RenderResources.LIGHT_ON, x + pad + i * step, y + pad, null);
+        }
+
+        // over one player's slice of the screen once they crashed
+        void drawOut(Graphics2D g2, int x, int w) {
+            g2.drawImage(RenderResources.OVERLAY_IMAGE, x, 0, null);
+            RenderResources.OUT.draw(g2, x + (w - RenderResources.OUT.width) / 2, GamePanel.HEIGHT / 2);
+        }
+
+        void drawGameOver(Graphics2D g2) {
+            int w = GamePanel.WIDTH, h = GamePanel.HEIGHT;
+            g2.drawImage(RenderResources.OVERLAY_IMAGE, 0, 0, null);
+
+            RenderResources.GAME_OVER.drawCentred(g2, w, h / 2 - 30);
+            RenderResources.GAME_OVER_INSTRUCTIONS.drawCentred(g2, w, h / 2 + 40);
+        }
+    }
+
+    // the road is drawn a segment at a time into tiles (in video memory when we can). a
+    // segment never changes once it is made, so each one is drawn once when it comes on at
+    // the top and every frame just copies the few tiles on screen. the pixels are worked out
+    // row by row into one scratch image, so nothing is allocated while racing
+    private static class TrackLayer {
+        private static final int TILES = 8;   // a power of two, more than the segments on screen at once
+        private static final int STRIPE = 20; // kerb stripes, in px along the road
+        private static final int DASH = 30;   // centre line dashes and the gaps between them
+        private static final int WHITE = 0xFFFFFF;
+        private static final int ASPHALT = RenderResources.ASPHALT.getRGB() & 0xFFFFFF;
+        private static final int PIT = RenderResources.ASPHALT.brighter().getRGB() & 0xFFFFFF;
+
+        private int grass = Color.GREEN.getRGB() & 0xFFFFFF;
+        private int barrier = grass;
+
+        private final BufferedImage scratch = new BufferedImage(GamePanel.WIDTH, Road.SEGMENT, BufferedImage.TYPE_INT_RGB);
+        private final int[] pixels = ((DataBufferInt) scratch.getRaster().getDataBuffer()).getData();
+        private final BufferedImage[] tiles = new BufferedImage[TILES];
+        private final Graphics2D[] tileG = new Graphics2D[TILES];
+        private final long[] tileSegment = new long[TILES]; // which segment each tile has, -1 for none
+        private GraphicsConfiguration tileGc;
+        private Road tileRoad;
+        private int tileResets;
+
+        // what is drawn when there is no race, a straight that never moves
+        private final Road idle = new Road();
+
+        TrackLayer() {
+            idle.reset(0, Definitions.get().track(0));
+            Arrays.fill(tileSegment, -1);
+        }
+
+        void setColours(Color grass, Color barrier) {
+            this.grass = grass.getRGB() & 0xFFFFFF;
+            this.barrier = barrier.getRGB() & 0xFFFFFF;
+            Arrays.fill(tileSegment, -1);
+        }
+
+        // the road with nothing on it
+        void drawIdle(Graphics2D g2, GraphicsConfiguration gc) {
+            draw(g2, gc, idle, 1f);
+        }
+
+        // the road between the last two ticks (alpha 0 is the last one, 1 the one now)
+        void draw(Graphics2D g2, GraphicsConfiguration gc, Road road, float alpha) {
+            prepare(gc, road);
+            int seg = Road.SEGMENT, h = GamePanel.HEIGHT;
+            long d = road.prevDistance() + Math.round((road.distance() - road.prevDistance()) * alpha);
+            d = Math.max(d, road.first() * seg); // a client that jumped ahead has nothing further back
+            for (long n = Math.floorDiv(d, seg); n * seg < d + h; n++) {
+                int slot = (int) (n & (TILES - 1));
+                if (tileSegment[slot] != n) {
+                    paint(road, n);
+                    tileG[slot].drawImage(scratch, 0, 0, null);
+                    tileSegment[slot] = n;
+                }
+                g2.drawImage(tiles[slot], 0, (int) (d + h - (n + 1) * seg), null);
+            }
+        }
+
+        // forgets the tiles if they were drawn for another screen or another road
+        private void prepare(GraphicsConfiguration gc, Road road) {
+            if (tiles[0] == null || gc != tileGc) {
+                for (int i = 0; i < TILES; i++) {
+                    if (tileG[i] != null) tileG[i].dispose();
+                    tiles[i] = gc != null ? gc.createCompatibleImage(GamePanel.WIDTH, Road.SEGMENT)
+                            : new BufferedImage(GamePanel.WIDTH, Road.SEGMENT, BufferedImage.TYPE_INT_RGB);
+                    tileG[i] = tiles[i].createGraphics();
+                }
+                tileGc = gc;
+                Arrays.fill(tileSegment, -1);
+            }
+            if (road != tileRoad || road.resets() != tileResets) {
+                tileRoad = road;
+                tileResets = road.resets();
+                Arrays.fill(tileSegment, -1);
+            }
+        }
+
+        // segment n into the scratch image, its top row first. same sums as Road.edge so the
+        // kerbs are exactly where the cars get stopped
+        private void paint(Road road, long n) {
+            int s = (int) (n & (Road.SEGMENTS - 1));
+            int w = GamePanel.WIDTH, kerbW = GamePanel.KERB;
+            for (int r = 0; r < Road.SEGMENT; r++) {
+                int t = Road.SEGMENT - r;
+                long along = n * Road.SEGMENT + t;
+                int left = Road.at(road.left0[s], road.left1[s], t);
+                int main = Road.at(road.main0[s], road.main1[s], t);
+                int right = Road.at(road.right0[s], road.right1[s], t);
+                int kerb = (along / STRIPE & 1) == 0 ? barrier : WHITE;
+                int o = r * w;
+
+                //grass
+                Arrays.fill(pixels, o, o + w, grass);
+
+                // Asphalt, with the pit lane on the right and a line between them
+                Arrays.fill(pixels, o + left, o + main, ASPHALT);
+                if (right > main) {
+                    Arrays.fill(pixels, o + main, o + right, PIT);
+                    Arrays.fill(pixels, o + main - 1, o + main + 1, WHITE);
+                }
+                if ((along / DASH & 1) == 0) {
+                    int c = (left + main) / 2;
+                    Arrays.fill(pixels, o + c - 2, o + c + 2, WHITE);
+                }
+
+                // Kerbs
+                Arrays.fill(pixels, o + left - kerbW, o + left, kerb);
+                Arrays.fill(pixels, o + right, o + right + kerbW, kerb);
+            }
+        }
+    }
+
+    // draws a race: the track, the cars, the HUD and the overlays. it only needs a Graphics2D
+    // so the game panel, the benchmarks and anything else offscreen share it. with more
+    // than one player the screen is split into side by side slices, each one following
+    // its player's car left and right
+    private static class SceneRenderer {
+        private final TrackLayer trackLayer = new TrackLayer();
+        private final Hud[] huds = new Hud[Simulation.MAX_DRIVERS];
+        private final Hud soloHud = new Hud();
+
+        private Assets assets;
+        private final Image[] playerImgs = new Image[Simulation.MAX_DRIVERS];
+        private final String[] teams = new String[Simulation.MAX_DRIVERS];
+        private final int[] numbers = new int[Simulation.MAX_DRIVERS];
+        private String country = "";
+        private boolean network = false; // one view of a network race, following nobody
+        private int you = -1;            // our car in it, -1 when watching
+
+        SceneRenderer() {
+            for (int p = 0; p < huds.length; p++) huds[p] = new Hud("P" + (p + 1));
+            Arrays.fill(teams, "");
+        }
+
+        void setRace(Assets assets, String country, Color grass, Color barrier) {
+            this.assets = assets;
+            this.country = country;
+            trackLayer.setColours(grass, barrier);
+        }
+
+        // a network race is drawn as one screen with our HUD, you is -1 to just watch
+        void setNetwork(boolean network, int you) {
+            this.network = network;
+            this.you = you;
+        }
+
+        // player p's car, team and number
+        void setDriver(int p, Image img, String team, int number) {
+            playerImgs[p] = img;
+            teams[p] = team;
+            numbers[p] = number;
+        }
+
+        private static int lerp(int from, int to, float alpha) {
+            return from + Math.round((to - from) * alpha);
+        }
+
+        // gc is the screen's, or null when drawing offscreen. position is where player 1's
+        // score is on the track's leaderboard (0 for not in the top 10)
+        void draw(Graphics2D g2, GraphicsConfiguration gc, Simulation sim, float alpha, int position) {
+            if (sim == null) {
+                // grass, asphalt and kerbs, nothing to race yet
+                trackLayer.drawIdle(g2, gc);
+                return;
+            }
+            GamePhase phase = sim.phase();
+            boolean showScore = phase == GamePhase.PLAYING || phase == GamePhase.FINISHED;
+            int players = sim.players();
+
+            if (network) {
+                for (int p = 0; p < players; p++) huds[p].update(teams[p], numbers[p], country, sim.drivers[p].score, 0);
+                drawRoad(g2, gc, sim, alpha, players, true);
+                if (you >= 0 && you < players) {
+                    Simulation.Driver d = sim.drivers[you];
+                    soloHud.update(teams[you], numbers[you], country, d.score, position);
+                    soloHud.drawHud(g2, showScore);
+                    if (phase == GamePhase.PLAYING) Hud.drawEffects(g2, 160, 90, sim, d);
+                    if (d.out && phase == GamePhase.PLAYING) soloHud.drawOut(g2, 0, GamePanel.WIDTH);
+                }
+            } else if (players == 1) {
+                drawRoad(g2, gc, sim, alpha, players, false);
+                Simulation.Driver d = sim.drivers[0];
+                soloHud.update(teams[0], numbers[0], country, d.score, position);
+                soloHud.drawNumber(g2, lerp(d.prevX, d.car.x, alpha), lerp(d.prevY, d.car.y, alpha), d.car.width, d.car.height);
+                soloHud.drawHud(g2, showScore);
+                if (phase == GamePhase.PLAYING) Hud.drawEffects(g2, 160, 90, sim, d);
+            } else {
+                int sliceW = GamePanel.WIDTH / players;
+                for (int p = 0; p < players; p++) {
+                    huds[p].update(teams[p], numbers[p], country, sim.drivers[p].score, p == 0 ? position : 0);
+                }
+                for (int p = 0; p < players; p++) {
+                    Simulation.Driver d = sim.drivers[p];
+                    int left = p * sliceW;
+                    int centre = lerp(d.prevX, d.car.x, alpha) + d.car.width / 2;
+                    int camX = Math.max(0, Math.min(GamePanel.WIDTH - sliceW, centre - sliceW / 2));
+
+                    g2.setClip(left, 0, sliceW, GamePanel.HEIGHT);
+                    g2.translate(left - camX, 0);
+                    drawRoad(g2, gc, sim, alpha, players, true);
+                    g2.translate(camX - left, 0);
+
+                    huds[p].drawHud(g2, left + 10, showScore);
+                    if (phase == GamePhase.PLAYING && !d.out) Hud.drawEffects(g2, left + 10, 90, sim, d);
+                    if (d.out && phase == GamePhase.PLAYING) huds[p].drawOut(g2, left, sliceW);
+                }
+                g2.setClip(null);
+
+                // a line between the slices
+                g2.setColor(Color.BLACK);
+                for (int p = 1; p < players; p++) g2.fillRect(p * sliceW - 1, 0, 2, GamePanel.HEIGHT);
+            }
+
+            // Reaction overlay
+            if (phase == GamePhase.REACTION_WAIT || phase == GamePhase.REACTION_GO) {
+                soloHud.drawReaction(g2, sim.lightsOn(), phase == GamePhase.REACTION_GO, players > 1 && !network);
+            }
+
+            // Game over overlay
+            if (phase == GamePhase.FINISHED) {
+                soloHud.drawGameOver(g2);
+            }
+        }
+
+        // the track, the obstacles and every player still racing. when shared (split screen or
+        // network) the numbers go on here too, a single player's is drawn with its HUD
+        private void drawRoad(Graphics2D g2, GraphicsConfiguration gc, Simulation sim, float alpha, int players, boolean shared) {
+
+            // grass, asphalt and kerbs, in this country's colours
+            trackLayer.draw(g2, gc, sim.road, alpha);
+
+            // Obstacles 
+            ObstacleField f = sim.obstacles;
+            for (int i = 0; i < f.count; i++) { // for every obstacle in obstacle list
+                Image img = f.kind[i] == ObstacleField.POWER_UP ? assets.powerUp() : assets.car(f.sprite[i]);
+                int oy = lerp(f.prevY[i], f.y[i], alpha);
+                g2.drawImage(img, f.x[i], oy, null); // already the right size
+            }
+
+            for (int p = 0; p < players; p++) {
+                Simulation.Driver d = sim.drivers[p];
+                if (d.out && shared) continue; // crashed, off the track
+                int px = lerp(d.prevX, d.car.x, alpha);
+                int py = lerp(d.prevY, d.car.y, alpha);
+
+                // Player car if player picked a team display that img
+                g2.drawImage(playerImgs[p], px, py, null);
+
+                // Shield visual
+                if (d.shield) {
+                    g2.drawImage(RenderResources.SHIELD, px - RenderResources.SHIELD_OFFSET, py - RenderResources.SHIELD_OFFSET, null);
+                }
+                if (shared) huds[p].drawNumber(g2, px, py, d.car.width, d.car.height);
+            }
+        }
+    }
+
+    // ── ASSETS ─────────────────────────────────────────────────────────────────
+    // every png is decoded once and scaled to the size it is drawn at, into an image that
+    // matches the screen format, so drawing a car is a plain copy. everyone shares these
+    private static class Assets {
+        // indexed by team id, so a team's id is its sprite id
+        static final String[] TEAMS = Definitions.get().teamNames();
+        private static final String[] CAR_FILES = Arrays.stream(Definitions.get().teams())
+                .map(t -> t.carFile).toArray(String[]::new);
+        private static final String POWER_UP_FILE = "Power_up.png";
+        static final int POWER_UP_SIZE = Simulation.POWER_UP_SIZE;
+
+        private final BufferedImage[] cars;
+        private final BufferedImage powerUp;
+        private final SpriteMask[] carMasks;
+        private final SpriteMask powerUpMask;
+
+        // takes the scaled images in plain ARGB. the collision masks come from those, so they
+        // match what is drawn and are the same on every machine (replays depend on that),
+        // then the images are copied into the screen's format for drawing
+        private Assets(BufferedImage[] cars, BufferedImage powerUp) {
+            carMasks = new SpriteMask[cars.length];
+            this.cars = new BufferedImage[cars.length];
+            for (int i = 0; i < cars.length; i++) {
+                carMasks[i] = SpriteMask.of(cars[i]);
+                this.cars[i] = toCompatible(cars[i]);
+            }
+            powerUpMask = SpriteMask.of(powerUp);
+            this.powerUp = toCompatible(powerUp);
+        }
+
+        // a load that is running in the background, ready completes when every file is done
+        static final class Preload {
+            final CompletableFuture<Assets> ready;
+            final int total;
+            private final AtomicInteger done;
+
+            private Preload(CompletableFuture<Assets> ready, int total, AtomicInteger done) {
+                this.ready = ready;
+                this.total = total;
+                this.done = done;
+            }
+
+            int done() {
+                return done.get();
+            }
+        }
+
+        // decodes every file in parallel on a small pool of background threads
+        static Preload preload() {
+            ImageIO.setUseCache(false); // dont go through temp files while decoding
+            int threads = Math.max(1, Math.min(Runtime.getRuntime().availableProcessors(), CAR_FILES.length + 1));
+            AtomicInteger n = new AtomicInteger();
+            ExecutorService pool = Executors.newFixedThreadPool(threads, r -> {
+                Thread t = new Thread(r, "asset-loader-" + n.incrementAndGet());
+                t.setDaemon(true);
+                return t;
+            });
+
+            AtomicInteger done = new AtomicInteger();
+            List<CompletableFuture<BufferedImage>> cars = new ArrayList<>();
+            for (String file : CAR_FILES) {
+                cars.add(CompletableFuture.supplyAsync(
+                        () -> timedLoad(file, GamePanel.CAR_WIDTH, GamePanel.CAR_HEIGHT, done), pool));
+            }
+            CompletableFuture<BufferedImage> powerUp = CompletableFuture.supplyAsync(
+                    () -> timedLoad(POWER_UP_FILE, POWER_UP_SIZE, POWER_UP_SIZE, done), pool);
+
+            CompletableFuture<Assets> ready = CompletableFuture.allOf(cars.toArray(new CompletableFuture<?>[0]))
+                    .thenCombine(powerUp, (ignored, p) -> {
+                        BufferedImage[] imgs = new BufferedImage[cars.size()];
+                        for (int i = 0; i < imgs.length; i++) imgs[i] = cars.get(i).join();
+                        return new Assets(imgs, p);
+                    });
+            ready.whenComplete((a, e) -> {
+                pool.shutdown();
+                StartupStats.assetsReady();
+            });
+            return new Preload(ready, CAR_FILES.length + 1, done);
+        }
+
+        // loads everything on the calling thread, for tools that dont need a window
+        static Assets load() {
+            return preload().ready.join();
+        }
+
+        private static BufferedImage timedLoad(String file, int w, int h, AtomicInteger done) {
+            long start = System.nanoTime();
+            BufferedImage img = loadScaled(file, w, h);
+            StartupStats.assetDecoded(file, System.nanoTime() - start);
+            done.incrementAndGet();
+            return img;
+        }
+
+        int carCount() {
+            return cars.length;
+        }
+
+        BufferedImage car(int id) {
+            return cars[id];
+        }
+
+        BufferedImage powerUp() {
+            return powerUp;
+        }
+
+        SpriteMask carMask(int id) {
+            return carMasks[id];
+        }
+
+        // indexed by sprite id, what the simulation collides with
+        SpriteMask[] carMasks() {
+            return carMasks.clone();
+        }
+
+        SpriteMask powerUpMask() {
+            return powerUpMask;
+        }
+
+        private static BufferedImage loadScaled(String file, int w, int h) {
+            BufferedImage out = new BufferedImage(w, h, BufferedImage.TYPE_INT_ARGB);
+            Graphics2D g2 = out.createGraphics();
+            try {
+                BufferedImage src = ImageIO.read(new File(file));
+                if (src != null) {
+                    // scaling once so we can afford the good quality settings
+                    g2.setRenderingHint(RenderingHints.KEY_INTERPOLATION, RenderingHints.VALUE_INTERPOLATION_BICUBIC);
+                    g2.setRenderingHint(RenderingHints.KEY_RENDERING, RenderingHints.VALUE_RENDER_QUALITY);
+                    g2.drawImage(src, 0, 0, w, h, null);
+                } else {
+                    System.out.println("error can't decode " + file);
+                }
+            } catch (IOException e) {
+                System.out.println("error loading " + file); // leave it transparent
+            } finally {
+                g2.dispose();
+            }
+            return out;
+        }
+
+        // a copy in the same format as the screen if there is one, so drawing needs no conversion
+        private static BufferedImage toCompatible(BufferedImage img) {
+            if (GraphicsEnvironment.isHeadless()) return img;
+            GraphicsConfiguration gc = GraphicsEnvironment.getLocalGraphicsEnvironment()
+                    .getDefaultScreenDevice().getDefaultConfiguration();
+            BufferedImage out = gc.createCompatibleImage(img.getWidth(), img.getHeight(), Transparency.TRANSLUCENT);
+            Graphics2D g2 = out.createGraphics();
+            g2.setComposite(AlphaComposite.Src);
+            g2.drawImage(img, 0, 0, null);
+            g2.dispose();
+            return out;
+        }
+    }
+
+    // times how long the game takes to get going, printed as things finish
+    private static final class StartupStats {
+        // 0 until start() is called, the headless tools load assets too and stay quiet
+        private static volatile long startNanos = 0;
+        private static final AtomicBoolean firstFrameSeen = new AtomicBoolean();
+
+        private StartupStats() {}
+
+        static void start() {
+            startNanos = System.nanoTime();
+        }
+
+        private static double sinceStartMs() {
+            return (System.nanoTime() - startNanos) / 1e6;
+        }
+
+        static void assetDecoded(String file, long nanos) {
+            if (startNanos == 0) return;
+            System.out.printf("startup: decoded %s in %.1fms (on %s)%n", file, nanos / 1e6, Thread.currentThread().getName());
+        }
+
+        static void assetsReady() {
+            if (startNanos == 0) return;
+            System.out.printf("startup: all assets ready %.1fms after start%n", sinceStartMs());
+        }
+
+        // called from the first paint of the window
+        static void firstFrame() {
+            if (startNanos == 0) return;
+            if (firstFrameSeen.compareAndSet(false, true)) {
+                System.out.printf("startup: first frame %.1fms after start%n", sinceStartMs());
+            }
+        }
+    }
+
+    // ── GAME PANEL ─────────────────────────────────────────────────────────────
+    private class GamePanel extends JPanel implements KeyListener {
+        private static final int WIDTH = Simulation.WIDTH;
+        private static final int HEIGHT = Simulation.HEIGHT;
+
+        private static final int KERB = Simulation.KERB;
+
+        private static final int CAR_WIDTH = Simulation.CAR_WIDTH;
+        private static final int CAR_HEIGHT = Simulation.CAR_HEIGHT;
+
+        private Image playerImg;  // the PNG image
+        private Assets assets; // all the PNGs, already scaled
+
+        // the EDT queues every key change, each tick takes what happened during it
+        private final KeySampler keys = new KeySampler();
+        private int players = 1; // local players sharing the keyboard
+
+        // tick rate and frame rate can be set separately, e.g. -Dminif1.tps=120 -Dminif1.fps=60
+        private final int tickRate = Integer.getInteger("minif1.tps", 60);
+        private final GameLoop loop = new GameLoop("game-loop",
+                tickRate, Integer.getInteger("minif1.fps", 60),
+                this::tick, this::frame);
+        private final FrameStats frameStats = new FrameStats();
+        private final FrameStats inputStats = new FrameStats(); // key press to the frame showing it
+
+        // the loop thread ticks and the EDT paints and handles keys, so both hold this
+        private final Object lock = new Object();
+
+        // the game itself, made the first time we have the assets
+        private Simulation sim;
+        private final Random seeds = new Random();
+        private boolean finishHandled = false;
+
+        // -Dminif1.record=<folder> saves every race there as a replay
+        private final String recordDir = System.getProperty("minif1.record");
+
+        private int position; // on this track's leaderboard, 0 when outside the top 10
+        private Replay.Recorder recorder;
+        private Replay replay; // when watching a replay its inputs are used instead of the keys
+        private GameClient net; // racing on a server, sim is then its copy of the server's race
+        private int netRace = -1;
+
+        // reaction times count from the frame that showed the lights going out, less what
+        // the last calibration found the keyboard and display add on top
+        private long goShownAt = 0; // 0 until that frame is on screen
+        private long displayLatencyNanos = Calibration.load();
+        private Calibration calibration; // tapping along with the lights instead of racing
+        private boolean calibrationLit;  // what the last frame drew
+        private Text calibrationProgress;
+        private int calibrationShownTaps = -1;
+
+        // active rendering draws straight to a Canvas from the loop thread instead of going
+        // through repaint(), use -Dminif1.render=swing to go back to paintComponent
+        private final boolean activeRendering = !"swing".equals(System.getProperty("minif1.render"));
+        private GameCanvas canvas;
+        private BufferStrategy bufferStrategy;
+
+        private final SceneRenderer renderer = new SceneRenderer();
+
+        // F3 shows fps, tick and paint times etc, the numbers are collected either way
+        private final Metrics metrics = Metrics.shared();
+        private final PerfOverlay perfOverlay = new PerfOverlay();
+        private boolean showPerf = false;
+
+        // what the setup screen picked, all from Definitions
+        private Definitions.Season season = Definitions.get().seasons()[0];
+        private Definitions.Team team = season.teams()[0];
+        private int driverNumber = 0;
+        private Definitions.Track track = season.tracks()[0];
+
+        GamePanel() {
+            setPreferredSize(new Dimension(WIDTH, HEIGHT));
+            setFocusable(true);
+            setBackground(Color.BLACK);
+            addKeyListener(this);
+
+            if (activeRendering) {
+                setLayout(new BorderLayout());
+                canvas = new GameCanvas();
+                canvas.setPreferredSize(new Dimension(WIDTH, HEIGHT));
+                canvas.setFocusable(true);
+                canvas.addKeyListener(this);
+                add(canvas, BorderLayout.CENTER);
+            }
+        }
+
+        // players 2 to 4 get the season's teams after player 1's and their player number on the car
+        void startNewGame(Assets assets, Definitions.Season season, Definitions.Team team, int number,
+                          Definitions.Track track, int players) {
+            synchronized (lock) {
+                leaveServer();
+                this.assets = assets;
+                this.players = players;
+                this.season = season;
+                replay = null;
+                calibration = null;
+                resetGame(team, number, track, seeds.nextLong(), season.sprites());
+                if (recordDir != null && players == 1) { // a replay holds one player's keys
+                    recorder = new Replay.Recorder(sim.seed(), tickRate, team.id, number, team.name, track.name, track.id,
+                            sim.rivals());
+                }
+            }
+            frameStats.reset();
+            inputStats.reset();
+            loop.start();
+            requestFocusInWindow();
+            repaint();
+        }
+
+        // joins the race on a server (host[:port]), the first race starts once enough
+        // players have joined. the server decides everything, we only send keys
+        void joinServer(Assets assets, Definitions.Team team, int number, Definitions.Track track, String address) {
+            synchronized (lock) {
+                this.assets = assets;
+                replay = null;
+                recorder = null;
+                calibration = null;
+                players = 1;
+                leaveServer();
+                this.team = team;
+                driverNumber = number;
+                this.track = track;
+                position = 0;
+                playerImg = assets.car(team.id);
+                renderer.setRace(assets, track.name, track.grass, track.barrier);
+                try {
+                    NetLink link = NetLink.open(new InetSocketAddress(0), System.nanoTime());
+                    net = new GameClient(link, Net.address(address),
+                            new Simulation(tickRate, assets.carMasks(), assets.powerUpMask()),
+                            username, team.id, number);
+                } catch (IOException | RuntimeException e) {
+                    System.out.println("cant reach server " + address + ": " + e.getMessage());
+                    return;
+                }
+                sim = null;
+                netRace = -1;
+                keys.reset();
+                finishHandled = false;
+            }
+            frameStats.reset();
+            inputStats.reset();
+            loop.start();
+            requestFocusInWindow();
+            repaint();
+        }
+
+        // back to racing here, sim is made again by the next resetGame
+        private void leaveServer() {
+            if (net == null) return;
+            net.close();
+            net = null;
+            sim = null;
+            renderer.setNetwork(false, -1);
+        }
+
+        // tap along with the lights until Calibration has enough, then back to the setup screen
+        void calibrate() {
+            synchronized (lock) {
+                leaveServer();
+                replay = null;
+                recorder = null;
+                players = 1;
+                keys.reset();
+                calibration = new Calibration(System.nanoTime());
+                calibrationShownTaps = -1;
+            }
+            frameStats.reset();
+            inputStats.reset();
+            loop.start();
+            requestFocusInWindow();
+            repaint();
+        }
+
+        // plays a recorded race back at normal speed, the keys do nothing except ESC
+        void watchReplay(Assets assets, Replay replay) {
+            synchronized (lock) {
+                this.assets = assets;
+                leaveServer();
+                this.replay = replay;
+                this.players = 1;
+                recorder = null;
+                calibration = null;
+                resetGame(Definitions.get().team(replay.playerSprite), replay.driverNumber,
+                        Definitions.get().track(replay.track), replay.seed, replay.rivals);
+            }
+            frameStats.reset();
+            inputStats.reset();
+            loop.start();
+            requestFocusInWindow();
+            repaint();
+        }
+
+        private void resetGame(Definitions.Team team, int number, Definitions.Track track, long seed, int[] rivals) {
+            this.team = team;
+            this.driverNumber = number;
+            this.track = track;
+            this.position = 0;
+
+            playerImg = assets.car(team.id); // shared, already scaled
+            renderer.setRace(assets, track.name, track.grass, track.barrier);
+
+            int[] sprites = new int[players];
+            for (int p = 0; p < players; p++) {
+                Definitions.Team t = p == 0 ? team : season.after(team, p);
+                sprites[p] = t.id;
+                if (p == 0) {
+                    renderer.setDriver(0, playerImg, team.name, number);
+                } else {
+                    renderer.setDriver(p, assets.car(t.id), t.name, p + 1);
+                }
+            }
+
+            if (sim == null) {
+                sim = new Simulation(tickRate, assets.carMasks(), assets.powerUpMask());
+                sim.setParallelAi(true);
+            }
+            sim.setRivals(rivals);
+            sim.setTrack(track);
+            sim.reset(seed, sprites);
+            keys.reset();
+            finishHandled = false;
+        }
+
+        // stops the loop and prints how smooth the frames were
+        private void stopLoop() {
+            if (!loop.isRunning()) return;
+            loop.stop();
+            metrics.pause();
+            frame(); // draw the last state, e.g. the game over overlay
+            System.out.print("frame times:\n" + frameStats.report());
+            System.out.print("input to photon:\n" + inputStats.report("presses"));
+            if (keys.queue.dropped() > 0) System.out.println("keys lost, the queue was full: " + keys.queue.dropped());
+        }
+
+        @Override
+        public boolean requestFocusInWindow() {
+            return activeRendering ? canvas.requestFocusInWindow() : super.requestFocusInWindow();
+        }
+
+        // called by the loop at the frame rate
+        private void frame() {
+            if (activeRendering) {
+                renderActive();
+            } else {
+                repaint();
+            }
+        }
+
+        // draws a whole frame into the canvas back buffer and flips it, runs on the loop thread
+        private void renderActive() {
+            synchronized (lock) {
+                if (!canvas.isShowing()) return;
+                if (bufferStrategy == null) {
+                    bufferStrategy = createBufferStrategy(canvas);
+                }
+                long start = System.nanoTime();
+                frameStats.frame(start);
+                float alpha = loop.alpha();
+                long allocated = 0;
+                do {
+                    do {
+                        Graphics2D g2 = (Graphics2D) bufferStrategy.getDrawGraphics();
+                        long before = FrameStats.threadAllocatedBytes();
+                        render(g2, alpha);
+                        allocated = FrameStats.threadAllocatedBytes() - before;
+                        frameStats.allocated(allocated);
+                        g2.dispose();
+                    } while (bufferStrategy.contentsRestored());
+                    bufferStrategy.show();
+                } while (bufferStrategy.contentsLost());
+                Toolkit.getDefaultToolkit().sync();
+                long end = System.nanoTime();
+                if (loop.isRunning()) {
+                    metrics.frame(end - start, allocated, sim == null ? 0 : sim.obstacles.count, end);
+                    shown(end);
+                }
+            }
+        }
+
+        // a frame is on screen. if it is the first since a tick used a key press that is how
+        // long the press took to show, and it might be the lights going out or a flash to tap to
+        private void shown(long now) {
+            if (keys.unseenPress()) {
+                long nanos = now - keys.takePress();
+                inputStats.record(nanos);
+                metrics.input(nanos);
+            }
+            if (calibration != null) {
+                calibration.shown(now, calibrationLit);
+            } else if (goShownAt == 0 && sim != null && sim.phase() == GamePhase.REACTION_GO) {
+                goShownAt = now;
+                if (net != null) net.goShown(now);
+            }
+        }
+
+        // ask for page flipping first, and fall back to blitting if the platform cant do it
+        private BufferStrategy createBufferStrategy(Canvas c) {
+            try {
+                c.createBufferStrategy(2, new BufferCapabilities(new ImageCapabilities(true),
+                        new ImageCapabilities(true), BufferCapabilities.FlipContents.UNDEFINED));
+            } catch (AWTException e) {
+                c.createBufferStrategy(2);
+            }
+            return c.getBufferStrategy();
+        }
+
+        // the canvas ignores normal repaints while racing, but still redraws itself if the
+        // window gets uncovered after the loop has stopped (e.g. on the game over screen)
+        private class GameCanvas extends Canvas {
+            private static final long serialVersionUID = 1L;
+
+            @Override
+            public void paint(Graphics g) {
+                if (!loop.isRunning()) renderActive();
+            }
+
+            @Override
+            public void update(Graphics g) {
+                paint(g);
+            }
+
+            @Override
+            public void removeNotify() {
+                synchronized (lock) {
+                    bufferStrategy = null;
+                }
+                super.removeNotify();
             }
         }
 
-        // resets speed for powerups
-        private void resetSpeed() {
-            MOVE_SPEED = 6;
-            baseSpeed =5;
+        @Override
+        protected void paintComponent(Graphics g) {
+            super.paintComponent(g);
+            if (activeRendering) return;
+            frameStats.frame(System.nanoTime());
+            Graphics2D g2 = (Graphics2D) g;
+            synchronized (lock) {
+                long start = System.nanoTime();
+                long before = FrameStats.threadAllocatedBytes();
+                render(g2, loop.alpha());
+                long allocated = FrameStats.threadAllocatedBytes() - before;
+                frameStats.allocated(allocated);
+                long end = System.nanoTime();
+                if (loop.isRunning()) {
+                    metrics.frame(end - start, allocated, sim == null ? 0 : sim.obstacles.count, end);
+                    shown(end); // close enough, swing puts it on screen a little later
+                }
+            }
+            g2.dispose();
         }
 
-        private void spawnObstacle() {
-            int xMin = ROAD_LEFT + 8;
-            int xMax = ROAD_RIGHT - CAR_WIDTH - 8;
-            int x = xMin + random.nextInt(Math.max(1, xMax - xMin + 1));
-            int y = -CAR_HEIGHT - random.nextInt(180);
+        private void render(Graphics2D g2, float alpha) {
+            if (calibration != null) {
+                if (calibration.taps() != calibrationShownTaps) {
+                    calibrationShownTaps = calibration.taps();
+                    calibrationProgress = new Text(calibrationShownTaps + " / " + calibration.tapsNeeded(), RenderResources.REACTION_FONT, Color.WHITE);
+                }
+                calibrationLit = calibration.lit(System.nanoTime());
+                Hud.drawCalibration(g2, calibrationLit, calibrationProgress);
+                if (showPerf) perfOverlay.draw(g2, metrics);
+                return;
+            }
+            renderer.draw(g2, getGraphicsConfiguration(), sim, alpha, position);
+            if (net != null && sim == null) RenderResources.WAITING_FOR_SERVER.drawCentred(g2, WIDTH, HEIGHT / 2);
+            if (showPerf) perfOverlay.draw(g2, metrics);
+        }
 
-            int extra = Math.min(6, score / 25);
-            int vy = baseSpeed + random.nextInt(4) + extra;
+        // one fixed step of the game, called by the loop thread
+        private void tick() {
+            synchronized (lock) {
+                long start = System.nanoTime();
+                keys.sample(loop.tickEnd(), loop.tickNanos());
+                int input = keys.inputs[0];
+                if (calibration != null) {
+                    calibrationTick(input);
+                    return;
+                }
+                if (net != null) {
+                    netTick(input);
+                    showGo();
+                    metrics.tick(System.nanoTime() - start);
+                    return;
+                }
+                if (replay != null) {
+                    long t = sim.tick();
+                    input = t < replay.inputs.length ? replay.inputs[(int) t] : 0;
+                    if (t == replay.launchTick) sim.launch(0, replay.launchMs);
+                } else {
+                    timeLaunches();
+                }
+                if (recorder != null) recorder.record(input);
+                if (players == 1) sim.step(input);
+                else sim.step(keys.inputs);
+                showGo();
+
+                // where the race would finish if it ended now, worked out before it is added
+                Leaderboard board = leaderboard.getNow(null);
+                if (board != null && replay == null && !finishHandled) {
+                    position = board.position(track.id, sim.score());
+                }
 
-            Rectangle r = new Rectangle(x, y, CAR_WIDTH, CAR_HEIGHT);
-            
-            // pick a random PNG from the 11
-            Image img = obstacleCarImgs[random.nextInt(obstacleCarImgs.length)]; 
-            obstacles.add(new Obstacle(r, vy, img));//update
+                metrics.tick(System.nanoTime() - start);
+
+                if (sim.phase() == GamePhase.FINISHED && !finishHandled) {
+                    finishHandled = true;
+                    raceFinished();
+                }
+            }
         }
 
-        // create spawn power up method that is basically the same as spawn obstacle
-        private void spawnPowerUp() {
-            int xMin = ROAD_LEFT + 8;
-            int xMax = ROAD_RIGHT - CAR_WIDTH - 8;
-            int x = xMin + random.nextInt(Math.max(1, xMax - xMin + 1));
-            int y = -CAR_HEIGHT - random.nextInt(250);
+        // a launch on GO is timed from the frame that showed the lights going out to the key
+        // press, both in nanoTime, instead of in whole ticks. until that frame is up (or with
+        // no window to show it on) the ticks time it, like they do for the bot
+        private void timeLaunches() {
+            if (sim.phase() != GamePhase.REACTION_GO || goShownAt == 0) return;
+            for (int p = 0; p < players; p++) {
+                if ((keys.inputs[p] & Simulation.SPACE) == 0 || sim.drivers[p].launched) continue;
+                long ms = Math.floorDiv(keys.launchAt[p] - goShownAt - displayLatencyNanos, 1_000_000L);
+                if (ms < 0) ms = Net.JUMPED; // before anyone could have seen it
+                sim.launch(p, ms);
+                if (p == 0 && recorder != null) recorder.launch(ms);
+            }
+        }
 
-            int extra = Math.min(6, score / 25);
-            int vy = baseSpeed + random.nextInt(4) + extra;
+        // the lights going out is drawn as soon as the tick that put them out is done, not at
+        // the next frame, so the reaction time doesnt start up to a frame late
+        private void showGo() {
+            if (sim == null || sim.phase() != GamePhase.REACTION_GO) {
+                goShownAt = 0;
+                return;
+            }
+            if (goShownAt == 0 && activeRendering) renderActive();
+        }
 
-            int s = 40; // square 
-            Rectangle r = new Rectangle(x, y, s, s);
+        // one tick of tapping along, once there are enough taps the result is kept and used
+        private void calibrationTick(int input) {
+            if ((input & Simulation.SPACE) != 0) calibration.tap(keys.launchAt[0]);
+            if (!calibration.done()) return;
+            displayLatencyNanos = calibration.latencyNanos();
+            Calibration.save(displayLatencyNanos);
+            System.out.println("keyboard and display latency: " + displayLatencyNanos / 1_000_000L + "ms, taken off reaction times from now on");
+            calibration = null;
+            stopLoop();
+            SwingUtilities.invokeLater(() -> cardLayout.show(root, "SETUP"));
+        }
+
+        // a tick of a network race: send the keys, pick up the server's race, and keep our
+        // score once it is over. the loop keeps going, the server starts the next race itself
+        private void netTick(int input) {
+            try {
+                net.tick(input, keys.launchAt[0] - displayLatencyNanos);
+            } catch (IOException e) {
+                System.out.println("network error: " + e.getMessage());
+            }
+            if (!net.hasRace()) return;
+            if (net.race() != netRace) { // a new race, maybe with different people in it
+                netRace = net.race();
+                sim = net.mirror;
+                track = sim.track(); // the server picks the track, scores go on that one
+                renderer.setRace(assets, track.name, track.grass, track.barrier);
+                for (int p = 0; p < sim.players(); p++) {
+                    int sprite = net.sprite(p);
+                    if (p == net.you()) renderer.setDriver(p, playerImg, team.name, driverNumber);
+                    else renderer.setDriver(p, assets.car(sprite), Assets.TEAMS[sprite], net.number(p));
+                }
+                renderer.setNetwork(true, net.you());
+                finishHandled = false;
+                position = 0;
+            }
+
+            Leaderboard board = leaderboard.getNow(null);
+            if (board != null && net.racing() && !finishHandled) position = board.position(track.id, net.score());
 
-            // Add as a PowerUp (extends Obstacle)
-            obstacles.add(new PowerUp(r, vy, powerUpImg));
+            if (sim.phase() == GamePhase.FINISHED && !finishHandled && net.racing()) {
+                finishHandled = true;
+                persistence.saveScore(new ScoreStore.Entry(username, net.score(), team.id, driverNumber,
+                        track.id, System.currentTimeMillis(), (int) net.reactionMs()));
+                if (board != null) board.add(track.id, net.score());
+            }
         }
 
+        private void raceFinished() {
+            stopLoop();
+            if (replay != null) {
+                System.out.println("replay finished on " + sim.score() + ", recorded score was " + replay.score);
+                return; // dont save scores for a replay
+            }
+            if (recorder != null) {
+                File dir = new File(recordDir);
+                dir.mkdirs();
+                File file = new File(dir, "replay-" + recorder.recordedAt + "-" + sim.score() + ".mf1r");
+                try {
+                    recorder.write(file, sim.score());
+                } catch (IOException z) {
+                    System.out.println("error writing replay " + file);
+                }
+            }
 
-        private void calculateReactionBonus(long pressTime) {
-            if (falseStart) {
-                reactionPoints = 0;
-                beginRace();
-                return;
+            // the other players are guests at the same keyboard, only player 1's score is kept
+            for (int p = 1; p < players; p++) {
+                System.out.println("P" + (p + 1) + " scored " + sim.drivers[p].score);
             }
-            long ms = pressTime - goTimestamp;
-            if (ms < 0) ms = 0;
-            if      (ms <= 130) reactionPoints = 30;
-            else if (ms <= 190) reactionPoints = 20;
-            else if (ms <= 260) reactionPoints = 12;
-            else if (ms <= 340) reactionPoints = 7;
-            else if (ms <= 450) reactionPoints = 4;
-            else                reactionPoints = 1;
-            beginRace();
+
+            // when the game ends add the score and customizations to scores.dat
+            persistence.saveScore(new ScoreStore.Entry(username, sim.score(), team.id, driverNumber,
+                    track.id, System.currentTimeMillis(), (int) sim.reactionMs()));
+            Leaderboard board = leaderboard.getNow(null);
+            if (board != null) board.add(track.id, sim.score());
         }
 
         @Override
@@ -804,50 +6451,1018 @@ public class MiniF1 extends JFrame {
 
         @Override
         public void keyPressed(KeyEvent e) {
+            long now = System.nanoTime(); // before anything else, it is when the key counts from
             int code = e.getKeyCode();
 
             if (code == KeyEvent.VK_ESCAPE) {
-                timer.stop();
+                stopLoop();
+                synchronized (lock) {
+                    leaveServer();
+                }
                 cardLayout.show(root, "SETUP");
                 return;
             }
 
-            if (code == KeyEvent.VK_R && phase == GamePhase.FINISHED) {
-                startNewGame(team, driverNumber, country);
-                return;
+            if (code == KeyEvent.VK_R) {
+                // the loop thread swaps these under the lock (a new race, the track of a network
+                // race, leaving a server), so they are read and the race restarted under it too
+                synchronized (lock) {
+                    if (sim != null && sim.phase() == GamePhase.FINISHED && replay == null && net == null && calibration == null) {
+                        startNewGame(assets, season, team, driverNumber, track, players);
+                        return;
+                    }
+                }
             }
 
-            if (code == KeyEvent.VK_SPACE) {
-                long now = System.currentTimeMillis();
-                if (phase == GamePhase.REACTION_WAIT) {
-                    falseStart = true;
-                    reactionPoints = 0;
-                    beginRace();
-                } else if (phase == GamePhase.REACTION_GO) {
-                    calculateReactionBonus(now);
+            if (code == KeyEvent.VK_F3) {
+                synchronized (lock) {
+                    showPerf = !showPerf;
                 }
+                if (!loop.isRunning()) frame();
                 return;
             }
 
-            if (phase != GamePhase.PLAYING) return;
-
-            if (code == KeyEvent.VK_LEFT  || code == KeyEvent.VK_A) left  = true;
-            if (code == KeyEvent.VK_RIGHT || code == KeyEvent.VK_D) right = true;
-            if (code == KeyEvent.VK_UP    || code == KeyEvent.VK_W) up    = true;
-            if (code == KeyEvent.VK_DOWN  || code == KeyEvent.VK_S) down  = true;
+            // the simulation sees it on its next tick, the queue needs no lock
+            int bit = launchBit(code);
+            if (bit == 0) bit = keyBit(code);
+            if (bit != 0 && loop.isRunning()) keys.queue.offer(bit, true, now);
         }
 
         @Override
         public void keyReleased(KeyEvent e) {
+            long now = System.nanoTime();
             int code = e.getKeyCode();
-            if (code == KeyEvent.VK_LEFT  || code == KeyEvent.VK_A) left  = false;
-            if (code == KeyEvent.VK_RIGHT || code == KeyEvent.VK_D) right = false;
-            if (code == KeyEvent.VK_UP    || code == KeyEvent.VK_W) up    = false;
-            if (code == KeyEvent.VK_DOWN  || code == KeyEvent.VK_S) down  = false;
+            int bit = launchBit(code);
+            if (bit == 0) bit = keyBit(code);
+            if (bit != 0 && loop.isRunning()) keys.queue.offer(bit, false, now);
+        }
+
+        // the keys of each player, in the order left, right, up, down, launch. racing alone
+        // the arrows steer player 1 too and SPACE is the only launch key
+        private final int[][] keySets = {
+                {KeyEvent.VK_A, KeyEvent.VK_D, KeyEvent.VK_W, KeyEvent.VK_S, KeyEvent.VK_SPACE},
+                {KeyEvent.VK_LEFT, KeyEvent.VK_RIGHT, KeyEvent.VK_UP, KeyEvent.VK_DOWN, KeyEvent.VK_ENTER},
+                {KeyEvent.VK_J, KeyEvent.VK_L, KeyEvent.VK_I, KeyEvent.VK_K, KeyEvent.VK_U},
+                {KeyEvent.VK_NUMPAD4, KeyEvent.VK_NUMPAD6, KeyEvent.VK_NUMPAD8, KeyEvent.VK_NUMPAD5, KeyEvent.VK_NUMPAD0},
+        };
+        private final int[] steerBits = {Simulation.LEFT, Simulation.RIGHT, Simulation.UP, Simulation.DOWN};
+
+        private int keyBit(int code) {
+            if (players == 1) {
+                if (code == KeyEvent.VK_LEFT  || code == KeyEvent.VK_A) return Simulation.LEFT;
+                if (code == KeyEvent.VK_RIGHT || code == KeyEvent.VK_D) return Simulation.RIGHT;
+                if (code == KeyEvent.VK_UP    || code == KeyEvent.VK_W) return Simulation.UP;
+                if (code == KeyEvent.VK_DOWN  || code == KeyEvent.VK_S) return Simulation.DOWN;
+                return 0;
+            }
+            for (int p = 0; p < players; p++) {
+                for (int k = 0; k < steerBits.length; k++) {
+                    if (keySets[p][k] == code) return steerBits[k] << (p * Simulation.INPUT_BITS);
+                }
+            }
+            return 0;
+        }
+
+        private int launchBit(int code) {
+            if (players == 1) return code == KeyEvent.VK_SPACE ? Simulation.SPACE : 0;
+            for (int p = 0; p < players; p++) {
+                if (keySets[p][4] == code) return Simulation.SPACE << (p * Simulation.INPUT_BITS);
+            }
+            return 0;
+        }
+    }
+
+    // ── BATCH RUNNER ───────────────────────────────────────────────────────────
+    // plays lots of seeded games headless with a simple bot on every core, so changes to
+    // the difficulty can be tried out without sitting down and playing them.
+    // run with: java MiniF1 --batch [games] [threads]
+    private static final class BatchRunner {
+        private static final int TICK_RATE = 60;
+        private static final int MAX_TICKS = TICK_RATE * 60 * 10; // give up after 10 minutes of racing
+
+        static int run(String[] args) {
+            int games = args.length > 1 ? Integer.parseInt(args[1]) : 10_000;
+            int threads = args.length > 2 ? Integer.parseInt(args[2]) : Runtime.getRuntime().availableProcessors();
+
+            Assets assets = Assets.load(); // only the collision masks are used
+            SpriteMask[] carMasks = assets.carMasks();
+            SpriteMask powerUpMask = assets.powerUpMask();
+
+            int[] scores = new int[games];
+            long[] ticks = new long[games];
+            AtomicInteger next = new AtomicInteger();
+            Thread[] workers = new Thread[threads];
+
+            long start = System.nanoTime();
+            for (int t = 0; t < threads; t++) {
+                workers[t] = new Thread(() -> {
+                    Simulation sim = new Simulation(TICK_RATE, carMasks, powerUpMask);
+                    Bot bot = new Bot();
+                    for (int g = next.getAndIncrement(); g < games; g = next.getAndIncrement()) {
+                        sim.reset(g, g % carMasks.length); // game number is the seed
+                        bot.reset(g);
+                        while (sim.phase() != GamePhase.FINISHED && sim.tick() < MAX_TICKS) {
+                            sim.step(bot.input(sim));
+                        }
+                        scores[g] = sim.score();
+                        ticks[g] = sim.tick();
+                    }
+                }, "batch-" + t);
+                workers[t].start();
+            }
+            for (Thread w : workers) {
+                try {
+                    w.join();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    return 1;
+                }
+            }
+            double seconds = (System.nanoTime() - start) / 1e9;
+
+            long totalTicks = 0;
+            long totalScore = 0;
+            for (int g = 0; g < games; g++) {
+                totalTicks += ticks[g];
+                totalScore += scores[g];
+            }
+            int[] sorted = scores.clone();
+            Arrays.sort(sorted);
+            System.out.printf("%d games on %d threads in %.2fs: %.0f games/s, %.1fM ticks/s%n",
+                    games, threads, seconds, games / seconds, totalTicks / seconds / 1e6);
+            System.out.printf("score avg %.1f  p50 %d  p90 %d  p99 %d  max %d%n",
+                    totalScore / (double) games, sorted[games / 2], sorted[(int) (games * 0.9)],
+                    sorted[(int) (games * 0.99)], sorted[games - 1]);
+            System.out.printf("race length avg %.1fs%n", totalTicks / (double) games / TICK_RATE);
+
+            // -Dminif1.record=<folder> saves the best game as a replay. games only depend on
+            // their seed so it is just played again with a recorder on
+            String recordDir = System.getProperty("minif1.record");
+            if (recordDir != null) {
+                int best = 0;
+                for (int g = 1; g < games; g++) if (scores[g] > scores[best]) best = g;
+                int sprite = best % carMasks.length;
+                Simulation sim = new Simulation(TICK_RATE, carMasks, powerUpMask);
+                Replay.Recorder recorder = new Replay.Recorder(best, TICK_RATE, sprite, 1, Assets.TEAMS[sprite], "Bot",
+                        sim.track().id, sim.rivals());
+                Bot bot = new Bot();
+                sim.reset(best, sprite);
+                bot.reset(best);
+                while (sim.phase() != GamePhase.FINISHED && sim.tick() < MAX_TICKS) {
+                    int input = bot.input(sim);
+                    recorder.record(input);
+                    sim.step(input);
+                }
+                File dir = new File(recordDir);
+                dir.mkdirs();
+                File file = new File(dir, "batch-best-" + best + "-" + sim.score() + ".mf1r");
+                try {
+                    recorder.write(file, sim.score());
+                    System.out.println("best game saved to " + file);
+                } catch (IOException e) {
+                    System.out.println("error writing replay " + file);
+                }
+            }
+            return 0;
+        }
+
+        // steers away from the nearest car coming at it, and hits SPACE a human-ish time
+        // after the lights go out
+        static final class Bot {
+            private static final int LOOK_AHEAD = 220;
+            private static final int MARGIN = 12;
+            private static final int LEAD_TICKS = 15; // how far ahead it guesses where a swerving rival goes
+
+            private final Random random = new Random();
+            private int reactionTicks;
+
+            void reset(long seed) {
+                random.setSeed(~seed);
+                reactionTicks = 9 + random.nextInt(12); // about 150-350ms at 60 ticks/s
+            }
+
+            int input(Simulation sim) {
+                return input(sim, sim.player);
+            }
+
+            // steering the car p, which doesnt have to be player 1's
+            int input(Simulation sim, Rectangle p) {
+                GamePhase phase = sim.phase();
+                if (phase == GamePhase.REACTION_GO) {
+                    return sim.ticksSinceGo() >= reactionTicks ? Simulation.SPACE : 0;
+                }
+                if (phase != GamePhase.PLAYING) return 0;
+
+                ObstacleField f = sim.obstacles;
+                int nearest = -1;
+                int nearestGap = Integer.MAX_VALUE;
+                for (int i = 0; i < f.count; i++) {
+                    if (f.kind[i] != ObstacleField.CAR) continue;
+                    boolean ahead = f.y[i] + f.h[i] > p.y - LOOK_AHEAD && f.y[i] < p.y + p.height;
+                    // a rival changing lane covers everything between where it is and where it is going
+                    int lead = f.vx[i] * LEAD_TICKS;
+                    int left = f.x[i] + Math.min(0, lead), right = f.x[i] + f.w[i] + Math.max(0, lead);
+                    boolean inLane = left < p.x + p.width + MARGIN && right > p.x - MARGIN;
+                    int gap = p.y - (f.y[i] + f.h[i]);
+                    if (ahead && inLane && gap < nearestGap) {
+                        nearest = i;
+                        nearestGap = gap;
+                    }
+                }
+                if (nearest < 0) return 0;
+
+                int mid = p.x + p.width / 2;
+                int threat = f.x[nearest] + f.w[nearest] / 2 + f.vx[nearest] * LEAD_TICKS;
+                boolean goLeft = threat > mid;
+                int bottom = p.y + p.height;
+                if (goLeft && p.x <= sim.road.left(p.y, bottom)) goLeft = false;
+                if (!goLeft && p.x + p.width >= sim.road.right(p.y, bottom)) goLeft = true;
+                return goLeft ? Simulation.LEFT : Simulation.RIGHT;
+            }
+        }
+    }
+
+    // ── NETWORK TEST ───────────────────────────────────────────────────────────
+    // a server and a crowd of bot clients on loopback, each end with made up latency and
+    // loss, run with: java MiniF1 --net-test [clients] [seconds] [latencyMs] [loss%]
+    private static final class NetTest {
+        static int run(String[] args) {
+            int clients = args.length > 1 ? Integer.parseInt(args[1]) : 16;
+            int seconds = args.length > 2 ? Integer.parseInt(args[2]) : 20;
+            int latencyMs = args.length > 3 ? Integer.parseInt(args[3]) : 40;
+            int loss = args.length > 4 ? Integer.parseInt(args[4]) : 5;
+            int tickRate = 60;
+            Assets assets = Assets.load();
+
+            System.out.printf("%d clients for %ds, %dms each way, %d%% loss each way%n", clients, seconds, latencyMs, loss);
+            ThreadMXBean threads = ManagementFactory.getThreadMXBean();
+            try (NetLink serverLink = new NetLink(new InetSocketAddress("127.0.0.1", 0), latencyMs, loss, 1)) {
+                GameServer server = new GameServer(tickRate, clients, serverLink, assets.carMasks(), assets.powerUpMask());
+                Thread serverThread = new Thread(server, "net-server");
+                serverThread.setDaemon(true);
+                serverThread.start();
+                SocketAddress address = serverLink.channel.getLocalAddress();
+
+                // every client on this one thread, the server has the other
+                GameClient[] bots = new GameClient[clients];
+                BatchRunner.Bot[] brains = new BatchRunner.Bot[clients];
+                for (int i = 0; i < clients; i++) {
+                    NetLink link = new NetLink(new InetSocketAddress("127.0.0.1", 0), latencyMs, loss, 100 + i);
+                    Simulation mirror = new Simulation(tickRate, assets.carMasks(), assets.powerUpMask());
+                    bots[i] = new GameClient(link, address, mirror, "bot" + (i + 1), i % Assets.TEAMS.length, i + 1);
+                    brains[i] = new BatchRunner.Bot();
+                    brains[i].reset(i);
+                }
+
+                long tickNanos = 1_000_000_000L / tickRate;
+                long start = System.nanoTime(), next = start;
+                long end = start + seconds * 1_000_000_000L;
+                long serverCpu = -1;
+                while (next < end) {
+                    next += tickNanos;
+                    for (int i = 0; i < clients; i++) {
+                        GameClient c = bots[i];
+                        int input = c.racing() ? brains[i].input(c.mirror, c.mirror.drivers[c.you()].car) : 0;
+                        c.tick(input);
+                    }
+                    if (serverCpu < 0 && server.ticks > 0) serverCpu = threads.getThreadCpuTime(serverThread.getId());
+                    // flush the held back packets while waiting for the next tick
+                    while (System.nanoTime() - next < 0) {
+                        for (GameClient c : bots) c.flushOnly();
+                        LockSupport.parkNanos(500_000);
+                    }
+                }
+                long cpu = threads.getThreadCpuTime(serverThread.getId()) - Math.max(0, serverCpu);
+                server.stop();
+                serverThread.join(1000);
+                for (GameClient c : bots) c.close();
+
+                long snaps = 0, undecodable = 0, corrections = 0;
+                double correctionPx = 0;
+                for (GameClient c : bots) {
+                    snaps += c.snapshots;
+                    undecodable += c.undecodable;
+                    corrections += c.corrections;
+                    correctionPx += c.correctionPx;
+                }
+                double wall = (System.nanoTime() - start) / 1e9;
+                System.out.printf("server: %d ticks, %.1fus avg, %.1fus max, %.1f%% of one core%n",
+                        server.ticks, server.busyNanos / 1e3 / Math.max(1, server.ticks), server.maxTickNanos / 1e3,
+                        cpu / 1e7 / wall);
+                System.out.printf("snapshots: %d sent, %.1f%% full, %.0f bytes avg, %.1f KB/s per client%n",
+                        server.snapshots, 100.0 * server.fullSnapshots / Math.max(1, server.snapshots),
+                        server.snapshotBytes / (double) Math.max(1, server.snapshots),
+                        server.snapshotBytes / 1024.0 / wall / clients);
+                System.out.printf("clients: %d snapshots in, %d dropped on the way out, %d couldnt be decoded%n",
+                        snaps, serverLink.dropped, undecodable);
+                System.out.printf("prediction: %d corrections (%.2f per client per second), %.1fpx avg%n",
+                        corrections, corrections / wall / clients, corrections == 0 ? 0 : correctionPx / corrections);
+                System.out.println("races finished: " + server.races);
+                boolean ok = server.ticks > 0 && snaps > 0 && server.busyNanos / Math.max(1, server.ticks) < tickNanos / 2;
+                System.out.println(ok ? "OK" : "FAILED");
+                return ok ? 0 : 1;
+            } catch (IOException | InterruptedException e) {
+                System.out.println("net test error: " + e);
+                return 1;
+            }
+        }
+    }
+
+    // ── ALLOCATION CHECK ───────────────────────────────────────────────────────
+    // draws the steady state frame (track, cars, number, HUD) offscreen over and over, with
+    // the road scrolling and new segments being made and drawn, and checks how many bytes a
+    // frame allocates, run with: java MiniF1 --alloc-check
+    private static class AllocCheck {
+        private static final int WARMUP_FRAMES = 20_000;
+        private static final int FRAMES = 20_000;
+        private static final double MAX_BYTES_PER_FRAME = 16; // allow a little noise from the JIT
+
+        static int run() {
+            BufferedImage screen = new BufferedImage(GamePanel.WIDTH, GamePanel.HEIGHT, BufferedImage.TYPE_INT_RGB);
+            BufferedImage car = new BufferedImage(GamePanel.CAR_WIDTH, GamePanel.CAR_HEIGHT, BufferedImage.TYPE_INT_ARGB);
+            TrackLayer track = new TrackLayer();
+            track.setColours(Color.decode("#29C253"), Color.decode("#EB2117"));
+            Road road = new Road();
+            road.reset(42, Definitions.get().track(0));
+            Hud hud = new Hud();
+
+            Graphics2D g2 = screen.createGraphics();
+            for (int i = 0; i < WARMUP_FRAMES; i++) drawFrame(g2, track, road, hud, car, i);
+
+            long before = FrameStats.threadAllocatedBytes();
+            if (before < 0) {
+                System.out.println("alloc check: this JVM cant report allocated bytes");
+                return 0;
+            }
+            for (int i = 0; i < FRAMES; i++) drawFrame(g2, track, road, hud, car, i);
+            double perFrame = (FrameStats.threadAllocatedBytes() - before) / (double) FRAMES;
+            g2.dispose();
+
+            boolean ok = perFrame <= MAX_BYTES_PER_FRAME;
+            System.out.printf("alloc check: %.2f bytes/frame over %d frames (limit %.0f) %s%n",
+                    perFrame, FRAMES, MAX_BYTES_PER_FRAME, ok ? "OK" : "FAILED");
+            return ok ? 0 : 1;
+        }
+
+        private static void drawFrame(Graphics2D g2, TrackLayer track, Road road, Hud hud, Image car, int frame) {
+            road.scroll(Simulation.SCROLL);
+            track.draw(g2, null, road, 0.5f);
+            for (int i = 0; i < 8; i++) {
+                g2.drawImage(car, Road.START_LEFT + i * 60, (frame + i * 75) % GamePanel.HEIGHT, null);
+            }
+            g2.drawImage(RenderResources.SHIELD, 400 - RenderResources.SHIELD_OFFSET, 400 - RenderResources.SHIELD_OFFSET, null);
+            hud.update("Ferrari", 16, "Italy", 42, 3); // same values every frame, like most real frames
+            hud.drawNumber(g2, 400, 400, GamePanel.CAR_WIDTH, GamePanel.CAR_HEIGHT);
+            hud.drawHud(g2, true);
+        }
+    }
+
+    // ── BENCHMARKS ─────────────────────────────────────────────────────────────
+    // small timing runs that need no window, run with: java MiniF1 --bench <name>
+    // (--bench all runs every one of them)
+    private static class Bench {
+        private static long sink; // results go here so the JIT cant throw the work away
+        private static final String[] ALL = {"tick", "ai", "players", "input", "effects", "paint", "spawn", "grid", "scores", "login", "parse"};
+        private static final int[] OBSTACLES = {10, 100, 1_000, 4_000};
+
+        static int run(String name) {
+            switch (name) {
+                case "grid": grid(); return 0;
+                case "login": return login();
+                case "parse": return parse();
+                case "tick": tick(); return 0;
+                case "paint": paint(); return 0;
+                case "spawn": spawn(); return 0;
+                case "scores": return scores();
+                case "ai": ai(); return 0;
+                case "players": players(); return 0;
+                case "input": input(); return 0;
+                case "effects": effects(); return 0;
+                case "all":
+                    for (String b : ALL) {
+                        System.out.println("== " + b);
+                        if (run(b) != 0) return 1;
+                    }
+                    return 0;
+                default:
+                    System.out.println("unknown benchmark " + name + ", try: all, " + String.join(", ", ALL));
+                    return 1;
+            }
+        }
+
+        // a race that has just got past the lights, with n extra cars parked (vy 0) on the
+        // road in front of the player so a step has n obstacles to move and collide but the
+        // race doesnt end. the spawn timer is left alone so spawning happens as normal
+        private static Simulation racing(Assets assets, int n, long seed) {
+            return racing(assets, n, seed, 1);
+        }
+
+        // the same with 1 to 4 players side by side
+        private static Simulation racing(Assets assets, int n, long seed, int players) {
+            Simulation sim = new Simulation(60, assets.carMasks(), assets.powerUpMask());
+            int[] sprites = new int[players];
+            for (int p = 0; p < players; p++) sprites[p] = p;
+            sim.reset(seed, sprites);
+            while (sim.phase() == GamePhase.REACTION_WAIT) sim.step(0);
+            sim.step(everyone(Simulation.SPACE, players));
+            Random rnd = new Random(seed);
+            int maxY = sim.player.y - Simulation.CAR_HEIGHT - 20;
+            for (int i = 0; i < n; i++) {
+                int x = Road.START_LEFT + rnd.nextInt(Road.WIDE - Simulation.CAR_WIDTH); // the straight at the start
+                sim.obstacles.add(x, rnd.nextInt(maxY), Simulation.CAR_WIDTH, Simulation.CAR_HEIGHT, 0,
+                        rnd.nextInt(assets.carCount()), ObstacleField.CAR);
+            }
+            return sim;
+        }
+
+        // Simulation.step, i.e. moving, spawning and the broadphase + mask collisions
+        private static void tick() {
+            Assets assets = Assets.load();
+            int rounds = 400, steps = 60; // 60 steps is before anything spawned reaches the player
+            System.out.println("obstacles  ns/tick");
+            for (int n : OBSTACLES) {
+                long best = Long.MAX_VALUE;
+                for (int rep = 0; rep < 3; rep++) { // the first ones warm up
+                    long total = 0;
+                    for (int r = 0; r < rounds; r++) {
+                        Simulation sim = racing(assets, n, r);
+                        long start = System.nanoTime();
+                        for (int i = 0; i < steps; i++) sim.step(i & Simulation.LEFT);
+                        total += System.nanoTime() - start;
+                        sink += sim.score();
+                        if (sim.phase() != GamePhase.PLAYING) throw new IllegalStateException("race ended during the benchmark");
+                    }
+                    best = Math.min(best, total);
+                }
+                System.out.printf("%9d  %7.0f%n", n, best / (double) (rounds * steps));
+            }
+        }
+
+        // input bits pressed by every player
+        private static int everyone(int bits, int players) {
+            int input = 0;
+            for (int p = 0; p < players; p++) input |= bits << (p * Simulation.INPUT_BITS);
+            return input;
+        }
+
+        // Simulation.step with 1 to 4 players on the same road. the grid is built once a tick
+        // and each extra car is one more query, so going from 1 to 4 players should cost
+        // much less than 4x
+        private static void players() {
+            Assets assets = Assets.load();
+            int rounds = 200, steps = 60;
+            System.out.println("obstacles  players  ns/tick");
+            for (int n : new int[]{10, 100, 1_000}) {
+                for (int players = 1; players <= Simulation.MAX_PLAYERS; players++) {
+                    int left = everyone(Simulation.LEFT, players);
+                    long best = Long.MAX_VALUE;
+                    for (int rep = 0; rep < 3; rep++) {
+                        long total = 0;
+                        for (int r = 0; r < rounds; r++) {
+                            Simulation sim = racing(assets, n, r, players);
+                            long start = System.nanoTime();
+                            for (int i = 0; i < steps; i++) sim.step((i & 1) == 0 ? left : 0);
+                            total += System.nanoTime() - start;
+                            sink += sim.score();
+                        }
+                        best = Math.min(best, total);
+                    }
+                    System.out.printf("%9d  %7d  %7.0f%n", n, players, best / (double) (rounds * steps));
+                }
+            }
+        }
+
+        // the rivals deciding and applying their moves, on this thread and on the pool.
+        // the cars are spread over a long stretch of road so they have room to steer, and
+        // both ways have to end up with the same road
+        private static void ai() {
+            System.out.printf("cars   one thread(us/tick)  pool of %d(us/tick)%n", Runtime.getRuntime().availableProcessors());
+            Simulation.Driver[] player = {new Simulation.Driver()};
+            player[0].car.setLocation(400, 420);
+            Road road = new Road();
+            road.reset(42, Definitions.get().track(0));
+            for (int n : new int[]{20, 100, 1_000, 4_000}) {
+                long[] best = new long[2];
+                int[][] endX = new int[2][];
+                int ticks = Math.max(50, 100_000 / n);
+                for (int mode = 0; mode < 2; mode++) {
+                    best[mode] = Long.MAX_VALUE;
+                    for (int rep = 0; rep < 3; rep++) {
+                        ObstacleField f = new ObstacleField(n);
+                        Random rnd = new Random(n);
+                        for (int i = 0; i < n; i++) {
+                            int x = Road.START_LEFT + rnd.nextInt(Road.WIDE - Simulation.CAR_WIDTH); // the straight at the start
+                            f.add(x, -rnd.nextInt(n * 30), Simulation.CAR_WIDTH, Simulation.CAR_HEIGHT, 5 + rnd.nextInt(4),
+                                    rnd.nextInt(Assets.TEAMS.length), ObstacleField.CAR);
+                        }
+                        RivalAi ai = new RivalAi();
+                        ai.setParallel(mode == 1);
+                        long start = System.nanoTime();
+                        for (int t = 0; t < ticks; t++) ai.step(f, player, 1, 42, t, road);
+                        best[mode] = Math.min(best[mode], System.nanoTime() - start);
+                        endX[mode] = Arrays.copyOf(f.x, f.count);
+                    }
+                }
+                if (!Arrays.equals(endX[0], endX[1])) throw new IllegalStateException("threads changed the result");
+                System.out.printf("%4d   %19.1f  %18.1f%n", n, best[0] / 1e3 / ticks, best[1] / 1e3 / ticks);
+            }
+        }
+
+        // the key queue between the EDT and the loop: what sampling costs a tick when nothing
+        // was pressed, and how many key changes a second get through it with a writer on one
+        // thread and the sampling on another
+        private static void input() {
+            long tickNanos = 1_000_000_000L / 60;
+            KeySampler idle = new KeySampler();
+            long best = Long.MAX_VALUE;
+            int ticks = 1_000_000;
+            for (int rep = 0; rep < 3; rep++) {
+                long start = System.nanoTime();
+                for (int t = 0; t < ticks; t++) idle.sample(t * tickNanos, tickNanos);
+                best = Math.min(best, System.nanoTime() - start);
+            }
+            System.out.printf("empty tick: %.0f ns%n", best / (double) ticks);
+
+            // a quarter of a tick held must come out as a quarter of the speed
+            KeySampler tap = new KeySampler();
+            tap.queue.offer(Simulation.LEFT, true, 100 + tickNanos / 2);
+            tap.queue.offer(Simulation.LEFT, false, 100 + tickNanos * 3 / 4);
+            tap.sample(100 + tickNanos, tickNanos);
+            if (tap.inputs[0] != Simulation.held(0, tickNanos / 4, tickNanos)) throw new IllegalStateException("tap came out as " + tap.inputs[0]);
+
+            int events = 2_000_000;
+            for (int rep = 0; rep < 3; rep++) {
+                KeySampler sampler = new KeySampler();
+                Thread writer = new Thread(() -> {
+                    for (int i = 0; i < events; i++) {
+                        long now = System.nanoTime();
+                        while (!sampler.queue.offer(Simulation.LEFT << (i >> 1 & 3), (i & 1) == 0, now)) Thread.yield();
+                    }
+                }, "bench-input");
+                long start = System.nanoTime();
+                writer.start();
+                long samples = 0;
+                while (sampler.queue.head.get() < events) {
+                    long before = sampler.queue.head.get();
+                    sampler.sample(System.nanoTime(), tickNanos);
+                    samples++;
+                    if (sampler.queue.head.get() == before) Thread.yield(); // let the writer have the core
+                }
+                long nanos = System.nanoTime() - start;
+                try {
+                    writer.join();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+                sink += sampler.inputs[0];
+                System.out.printf("%d key changes in %.0f ms (%.0f ns each), %d samples, queue full %d times%n",
+                        events, nanos / 1e6, nanos / (double) events, samples, sampler.queue.dropped());
+            }
+        }
+
+        // one frame into an offscreen image, what the game panel draws every frame
+        private static void paint() {
+            Assets assets = Assets.load();
+            BufferedImage screen = new BufferedImage(Simulation.WIDTH, Simulation.HEIGHT, BufferedImage.TYPE_INT_RGB);
+            SceneRenderer renderer = new SceneRenderer();
+            renderer.setRace(assets, "Italy", Color.decode("#29C253"), Color.decode("#EB2117"));
+            renderer.setDriver(0, assets.car(0), "Ferrari", 16);
+            System.out.println("obstacles  us/frame  bytes/frame");
+            for (int n : OBSTACLES) {
+                Simulation sim = racing(assets, n, n);
+                Graphics2D g2 = screen.createGraphics();
+                int frames = Math.max(200, 200_000 / (n + 10));
+                for (int i = 0; i < frames; i++) renderer.draw(g2, null, sim, (i & 7) / 8f, 3); // warm up
+                long bytes = FrameStats.threadAllocatedBytes();
+                long start = System.nanoTime();
+                for (int i = 0; i < frames; i++) renderer.draw(g2, null, sim, (i & 7) / 8f, 3);
+                long nanos = System.nanoTime() - start;
+                bytes = FrameStats.threadAllocatedBytes() - bytes;
+                g2.dispose();
+                System.out.printf("%9d  %8.1f  %11.1f%n", n, nanos / 1e3 / frames, bytes / (double) frames);
+            }
+        }
+
+        // spawnObstacle on a road that already has n cars near the top, each spawned car is
+        // taken away again so the count stays at n
+        private static void spawn() {
+            Assets assets = Assets.load();
+            System.out.println("obstacles  ns/spawn  placed");
+            for (int n : OBSTACLES) {
+                Simulation sim = new Simulation(60, assets.carMasks(), assets.powerUpMask());
+                sim.reset(n, 0);
+                Random rnd = new Random(n);
+                for (int i = 0; i < n; i++) {
+                    int x = Road.START_LEFT + rnd.nextInt(Road.WIDE - Simulation.CAR_WIDTH); // the straight at the start
+                    sim.obstacles.add(x, -Simulation.CAR_HEIGHT - rnd.nextInt(400), Simulation.CAR_WIDTH, Simulation.CAR_HEIGHT, 5, 0, ObstacleField.CAR);
+                }
+                int spawns = 200_000;
+                long start = 0;
+                int placed = 0;
+                for (int rep = 0; rep < 2; rep++) { // the first one warms up
+                    sim.grid.build(sim.obstacles);
+                    placed = 0;
+                    start = System.nanoTime();
+                    for (int i = 0; i < spawns; i++) {
+                        sim.spawnObstacle();
+                        if (sim.obstacles.count > n) {
+                            sim.obstacles.remove(sim.obstacles.count - 1);
+                            sim.grid.build(sim.obstacles);
+                            placed++;
+                        }
+                    }
+                }
+                long nanos = System.nanoTime() - start;
+                System.out.printf("%9d  %8.0f  %5.1f%%%n", n, nanos / (double) spawns, placed * 100.0 / spawns);
+            }
+        }
+
+        // the score files: appending (synced every 100, like the persistence thread does
+        // when races come in quickly), a top 10 from the index, and the leaderboard
+        private static int scores() {
+            try {
+                File dir = Files.createTempDirectory("minif1-scores").toFile();
+                File data = new File(dir, "scores.dat"), index = new File(dir, "scores.idx");
+                ScoreStore store = new ScoreStore(data, index);
+                Random rnd = new Random(1);
+                int n = 200_000;
+                long start = System.nanoTime();
+                for (int i = 0; i < n; i++) {
+                    store.append(new ScoreStore.Entry("driver" + (i % 1000), rnd.nextInt(1000), rnd.nextInt(Assets.TEAMS.length),
+                            1 + rnd.nextInt(99), rnd.nextInt(ScoreStore.COUNTRIES.length), i, 150 + rnd.nextInt(300)));
+                    if (i % 100 == 99) store.sync();
+                }
+                store.sync();
+                long appendNanos = System.nanoTime() - start;
+
+                int queries = 2_000;
+                start = System.nanoTime();
+                for (int i = 0; i < queries; i++) sink += store.topByCountry(i % ScoreStore.COUNTRIES.length, 10).size();
+                long topNanos = System.nanoTime() - start;
+                store.close();
+
+                Leaderboard board = Leaderboard.load(data, index);
+                Leaderboard cold = Leaderboard.load(data, new File(dir, "missing.idx"));
+                int updates = 1_000_000;
+                start = System.nanoTime();
+                for (int i = 0; i < updates; i++) {
+                    int c = i % ScoreStore.COUNTRIES.length;
+                    sink += board.position(c, i & 1023);
+                    board.add(c, i & 1023);
+                }
+                long boardNanos = System.nanoTime() - start;
+
+                System.out.printf("append + sync every 100  %.1fus/score (%d scores)%n", appendNanos / 1e3 / n, n);
+                System.out.printf("top 10 from the index    %.1fus%n", topNanos / 1e3 / queries);
+                System.out.printf("leaderboard load         %.2fms with the index, %.1fms scanning all %d%n",
+                        board.loadNanos() / 1e6, cold.loadNanos() / 1e6, cold.loaded());
+                System.out.printf("leaderboard update       %.0fns (position + add)%n", boardNanos / (double) updates);
+
+                data.delete();
+                index.delete();
+                dir.delete();
+                return 0;
+            } catch (IOException e) {
+                System.out.println("error: " + e.getMessage());
+                return 1;
+            }
+        }
+
+        // login against a users.dat with 100k accounts (in a temp folder). only a few of them
+        // get real PBKDF2 hashes, making 100k of those would take hours, the rest have random
+        // bytes which look the same to the table
+        private static int login() {
+            int accounts = 100_000;
+            try {
+                File dir = Files.createTempDirectory("minif1-login").toFile();
+                File file = new File(dir, "users.dat");
+                UserStore store = UserStore.open(file, new File(dir, "users.txt"));
+                Random rnd = new Random(1);
+                char[] password = "hunter2".toCharArray();
+                byte[] salt = Passwords.newSalt();
+                UserStore.Credentials real = new UserStore.Credentials("driver42", salt,
+                        Passwords.hash(password, salt, Passwords.ITERATIONS), Passwords.ITERATIONS);
+
+                long start = System.nanoTime();
+                store.add(real);
+                for (int i = 1; i < accounts; i++) {
+                    byte[] s = new byte[Passwords.SALT_BYTES], h = new byte[Passwords.HASH_BYTES];
+                    rnd.nextBytes(s);
+                    rnd.nextBytes(h);
+                    store.add(new UserStore.Credentials("user" + i, s, h, Passwords.ITERATIONS));
+                }
+                store.sync();
+                System.out.printf("filled %d accounts in %.0fms, file is %dKB%n",
+                        store.count(), (System.nanoTime() - start) / 1e6, file.length() / 1024);
+
+                // finding a user, hits and misses
+                int lookups = 200_000;
+                long[] times = new long[lookups];
+                for (int i = 0; i < lookups; i++) {
+                    String name = i % 2 == 0 ? "user" + (1 + rnd.nextInt(accounts - 1)) : "nobody" + i;
+                    long t = System.nanoTime();
+                    UserStore.Credentials c = store.find(name);
+                    times[i] = System.nanoTime() - t;
+                    if (c != null) sink += c.iterations;
+                }
+                Arrays.sort(times);
+                System.out.printf("lookup    p50 %.1fus  p99 %.1fus  max %.1fus%n",
+                        times[lookups / 2] / 1e3, times[lookups * 99 / 100] / 1e3, times[lookups - 1] / 1e3);
+
+                // a full login: lookup plus the slow hash, then the same again from the session cache
+                SessionCache sessions = new SessionCache();
+                int logins = 10;
+                long total = 0;
+                for (int i = 0; i < logins; i++) {
+                    long t = System.nanoTime();
+                    if (!Passwords.matches(password, store.find("driver42"))) throw new IllegalStateException("wrong password");
+                    total += System.nanoTime() - t;
+                }
+                sessions.remember("driver42", password);
+                int cached = 100_000;
+                long t = System.nanoTime();
+                for (int i = 0; i < cached; i++) {
+                    if (sessions.check("driver42", password)) sink++;
+                }
+                long cachedNanos = System.nanoTime() - t;
+                System.out.printf("login     %.0fms (PBKDF2, %d iterations)%n", total / 1e6 / logins, Passwords.ITERATIONS);
+                System.out.printf("cached    %.1fus%n", cachedNanos / 1e3 / cached);
+
+                store.close();
+                file.delete();
+                dir.delete();
+                return 0;
+            } catch (IOException e) {
+                System.out.println("error: " + e.getMessage());
+                return 1;
+            }
+        }
+
+        // the old BufferedReader + split(",") way against RecordReader, on a users.txt and a
+        // score.txt of -Dminif1.benchLines lines (default 2 million) in a temp folder
+        private static int parse() {
+            int lines = Integer.getInteger("minif1.benchLines", 2_000_000);
+            try {
+                File dir = Files.createTempDirectory("minif1-parse").toFile();
+                File users = new File(dir, "users.txt");
+                File scores = new File(dir, "score.txt");
+                Random rnd = new Random(1);
+                try (PrintStream u = new PrintStream(new BufferedOutputStream(new FileOutputStream(users)), false, "UTF-8");
+                     PrintStream sc = new PrintStream(new BufferedOutputStream(new FileOutputStream(scores)), false, "UTF-8")) {
+                    for (int i = 0; i < lines; i++) {
+                        u.print("driver" + i + ",pass" + rnd.nextInt(1_000_000) + (i % 10 == 0 ? ",with,commas" : "") + "\n");
+                        sc.print("Score: " + rnd.nextInt(900) + ". " + Assets.TEAMS[rnd.nextInt(Assets.TEAMS.length)]
+                                + ", #: " + (1 + rnd.nextInt(99)) + ", " + ScoreStore.COUNTRIES[rnd.nextInt(ScoreStore.COUNTRIES.length)] + "\n");
+                    }
+                }
+                System.out.printf("%,d lines each, users.txt %dMB, score.txt %dMB%n", lines, users.length() >> 20, scores.length() >> 20);
+                System.out.println("                              ms   Mlines/s  bytes/line");
+                for (int rep = 0; rep < 3; rep++) {
+                    boolean last = rep == 2; // the first two are warm up
+                    time("users  split", lines, last, () -> splitUsers(users));
+                    time("users  reader (stream)", lines, last, () -> readUsers(RecordReader.open(users, ',').plain(), false));
+                    time("users  reader (mapped)", lines, last, () -> readUsers(RecordReader.map(users, ',').plain(), false));
+                    time("users  reader + Strings", lines, last, () -> readUsers(RecordReader.open(users, ',').plain(), true));
+                    time("scores split", lines, last, () -> splitScores(scores));
+                    time("scores reader", lines, last, () -> readScores(scores));
+                }
+                users.delete();
+                scores.delete();
+                dir.delete();
+                return 0;
+            } catch (IOException e) {
+                System.out.println("error: " + e.getMessage());
+                return 1;
+            }
+        }
+
+        private interface Parse {
+            long run() throws IOException;
+        }
+
+        private static void time(String name, int lines, boolean print, Parse p) throws IOException {
+            long bytes = FrameStats.threadAllocatedBytes();
+            long start = System.nanoTime();
+            sink += p.run();
+            long nanos = System.nanoTime() - start;
+            bytes = FrameStats.threadAllocatedBytes() - bytes;
+            if (print) {
+                System.out.printf("%-24s %8.0f %10.1f %11.1f%n", name, nanos / 1e6, lines / (nanos / 1e3), bytes / (double) lines);
+            }
+        }
+
+        // what loadUsersFromFile used to do
+        private static long splitUsers(File file) throws IOException {
+            long n = 0;
+            try (BufferedReader reader = new BufferedReader(new FileReader(file))) {
+                String line;
+                while ((line = reader.readLine()) != null) {
+                    if (line.contains(",")) {
+                        String[] parts = line.split(",");
+                        n += parts[0].length() + parts[1].length();
+                    }
+                }
+            }
+            return n;
+        }
+
+        private static long readUsers(RecordReader r, boolean strings) throws IOException {
+            long n = 0;
+            try (RecordReader reader = r) {
+                while (reader.next()) {
+                    if (strings) n += reader.field(0).length() + reader.rest(1).length();
+                    else n += reader.end(0) - reader.start(0) + reader.end(reader.fields() - 1) - reader.start(1);
+                }
+            }
+            return n;
+        }
+
+        // the same fields the importer takes out, done with split and substring
+        private static long splitScores(File file) throws IOException {
+            long n = 0;
+            try (BufferedReader reader = new BufferedReader(new FileReader(file))) {
+                String line;
+                while ((line = reader.readLine()) != null) {
+                    String[] parts = line.split(",");
+                    int dot = parts[0].indexOf('.');
+                    n += Integer.parseInt(parts[0].substring(7, dot));
+                    n += ScoreStore.indexOf(Assets.TEAMS, parts[0].substring(dot + 2));
+                    n += Integer.parseInt(parts[1].substring(parts[1].indexOf(':') + 1).trim());
+                    n += ScoreStore.indexOf(ScoreStore.COUNTRIES, parts[2].trim());
+                }
+            }
+            return n;
+        }
+
+        private static long readScores(File file) throws IOException {
+            long n = 0;
+            try (RecordReader r = RecordReader.open(file, ',').plain()) {
+                while (r.next()) {
+                    ScoreStore.Entry e = ScoreStore.parseOldLine(r, 0);
+                    n += e.score + e.team + e.number + e.country;
+                }
+            }
+            return n;
+        }
+
+        // broadphase vs checking everything, at the same density of cars as the road but
+        // with a bigger and bigger area, so the grid cost per query should stay flat
+        private static void grid() {
+            System.out.println("entities  build(us)  grid query(ns)  brute query(ns)  grid pairs(ms)  brute pairs(ms)");
+            int[] sizes = {100, 1_000, 4_000, 16_000};
+            for (int n : sizes) {
+                Random rnd = new Random(n);
+                int side = (int) Math.sqrt(n) * 150;
+                ObstacleField f = new ObstacleField(n);
+                for (int i = 0; i < n; i++) {
+                    f.add(rnd.nextInt(side), rnd.nextInt(side), GamePanel.CAR_WIDTH, GamePanel.CAR_HEIGHT, 5, 0, ObstacleField.CAR);
+                }
+                SpatialGrid grid = new SpatialGrid(0, 0, side, side, 96);
+                int[] qx = new int[1024], qy = new int[1024];
+                for (int i = 0; i < qx.length; i++) {
+                    qx[i] = rnd.nextInt(side);
+                    qy[i] = rnd.nextInt(side);
+                }
+
+                // warm up everything first
+                for (int rep = 0; rep < 3; rep++) {
+                    grid.build(f);
+                    gridQueries(grid, f, qx, qy);
+                    bruteQueries(f, qx, qy);
+                }
+
+                int builds = 200;
+                long t = System.nanoTime();
+                for (int rep = 0; rep < builds; rep++) grid.build(f);
+                double buildUs = (System.nanoTime() - t) / 1e3 / builds;
+
+                t = System.nanoTime();
+                for (int rep = 0; rep < 20; rep++) gridQueries(grid, f, qx, qy);
+                double gridQ = (System.nanoTime() - t) / (20.0 * qx.length);
+
+                t = System.nanoTime();
+                for (int rep = 0; rep < 20; rep++) bruteQueries(f, qx, qy);
+                double bruteQ = (System.nanoTime() - t) / (20.0 * qx.length);
+
+                t = System.nanoTime();
+                grid.build(f);
+                for (int i = 0; i < n; i++) sink += grid.overlapping(f, f.x[i], f.y[i], f.w[i], f.h[i]);
+                double gridPairs = (System.nanoTime() - t) / 1e6;
+
+                t = System.nanoTime();
+                for (int i = 0; i < n; i++) {
+                    for (int j = i + 1; j < n; j++) {
+                        if (f.intersects(j, f.x[i], f.y[i], f.w[i], f.h[i])) sink++;
+                    }
+                }
+                double brutePairs = (System.nanoTime() - t) / 1e6;
+
+                System.out.printf("%8d  %9.1f  %14.1f  %15.1f  %14.2f  %15.2f%n",
+                        n, buildUs, gridQ, bruteQ, gridPairs, brutePairs);
+            }
+            System.out.println("(ignore) " + sink);
+        }
+
+        // the timer wheel against looking at every running effect each tick. every effect that
+        // runs out is started again straight away so there are always n of them going
+        private static void effects() {
+            System.out.println("effects  wheel(ns/tick)  scan(ns/tick)");
+            int[] sizes = {100, 1_000, 10_000};
+            int ticks = 20_000;
+            for (int n : sizes) {
+                long best = Long.MAX_VALUE, bestScan = Long.MAX_VALUE;
+                for (int rep = 0; rep < 3; rep++) { // the first ones warm up
+                    Random rnd = new Random(n);
+                    TimerWheel wheel = new TimerWheel();
+                    for (int i = 0; i < n; i++) wheel.schedule(1 + rnd.nextInt(900), i);
+                    long t = System.nanoTime();
+                    for (long tick = 1; tick <= ticks; tick++) {
+                        for (int v; (v = wheel.poll(tick)) >= 0; ) {
+                            wheel.schedule(tick + 1 + rnd.nextInt(900), v);
+                            sink += v;
+                        }
+                    }
+                    best = Math.min(best, System.nanoTime() - t);
+
+                    rnd = new Random(n);
+                    long[] until = new long[n];
+                    for (int i = 0; i < n; i++) until[i] = 1 + rnd.nextInt(900);
+                    t = System.nanoTime();
+                    for (long tick = 1; tick <= ticks; tick++) {
+                        for (int i = 0; i < n; i++) {
+                            if (until[i] > tick) continue;
+                            until[i] = tick + 1 + rnd.nextInt(900);
+                            sink += i;
+                        }
+                    }
+                    bestScan = Math.min(bestScan, System.nanoTime() - t);
+                }
+                System.out.printf("%7d  %14.1f  %13.1f%n", n, (double) best / ticks, (double) bestScan / ticks);
+            }
+            System.out.println("(ignore) " + sink);
+        }
+
+        private static void gridQueries(SpatialGrid grid, ObstacleField f, int[] qx, int[] qy) {
+            for (int q = 0; q < qx.length; q++) {
+                sink += grid.overlapping(f, qx[q], qy[q], GamePanel.CAR_WIDTH, GamePanel.CAR_HEIGHT);
+            }
+        }
+
+        private static void bruteQueries(ObstacleField f, int[] qx, int[] qy) {
+            for (int q = 0; q < qx.length; q++) {
+                for (int i = 0; i < f.count; i++) {
+                    if (f.intersects(i, qx[q], qy[q], GamePanel.CAR_WIDTH, GamePanel.CAR_HEIGHT)) sink++;
+                }
+            }
+        }
+    }
+
+    // opens the window and plays a replay in it
+    private static void watch(String file) {
+        Replay replay;
+        try {
+            replay = Replay.read(new File(file));
+        } catch (IOException e) {
+            System.out.println("error reading replay: " + e.getMessage());
+            return;
         }
+        SwingUtilities.invokeLater(() -> {
+            MiniF1 game = new MiniF1();
+            game.setVisible(true);
+            game.assets.ready.thenAccept(a -> SwingUtilities.invokeLater(() -> {
+                game.cardLayout.show(game.root, "GAME");
+                game.gamePanel.watchReplay(a, replay);
+            }));
+        });
     }
 
     public static void main(String[] args) {
+        if (args.length > 0 && args[0].equals("--alloc-check")) {
+            System.exit(AllocCheck.run());
+        }
+        if (args.length > 0 && args[0].equals("--server")) {
+            System.exit(GameServer.run(args));
+        }
+        if (args.length > 0 && args[0].equals("--net-test")) {
+            System.exit(NetTest.run(args));
+        }
+        if (args.length > 1 && args[0].equals("--bench")) {
+            System.exit(Bench.run(args[1]));
+        }
+        if (args.length > 0 && args[0].equals("--batch")) {
+            System.exit(BatchRunner.run(args));
+        }
+        if (args.length > 0 && (args[0].equals("--scores") || args[0].equals("--import-scores"))) {
+            System.exit(ScoreStore.run(args));
+        }
+        if (args.length > 1 && args[0].equals("--replay")) {
+            if (args.length > 2 && args[2].equals("--watch")) {
+                watch(args[1]);
+                return;
+            }
+            System.exit(Replay.verify(args[1]));
+        }
+        StartupStats.start();
         SwingUtilities.invokeLater(() -> new MiniF1().setVisible(true));
     }
 }